@@ -26,6 +26,7 @@ import com.threecrickets.creel.Artifact;
 import com.threecrickets.creel.Configuration;
 import com.threecrickets.creel.Engine;
 import com.threecrickets.creel.Engine.ConflictPolicy;
+import com.threecrickets.creel.RunStatistics;
 import com.threecrickets.creel.Tool;
 import com.threecrickets.creel.ant.internal.DynamicType;
 import com.threecrickets.creel.event.ConsoleEventHandler;
@@ -109,6 +110,20 @@ public class RunTask extends Task
 		this.ref = ref;
 	}
 
+	/**
+	 * The prefix for properties with the statistics of the run, for example
+	 * "[prefix].time" or "[prefix].request.pom.404". When null, will not set
+	 * them.
+	 * 
+	 * @param statisticsPrefix
+	 *        The property prefix
+	 * @see RunStatistics#toProperties()
+	 */
+	public void setStatisticsPrefix( String statisticsPrefix )
+	{
+		this.statisticsPrefix = statisticsPrefix;
+	}
+
 	/**
 	 * The default directory in which to install artifacts. When null, will not
 	 * install them.
@@ -171,6 +186,31 @@ public class RunTask extends Task
 		this.state = state;
 	}
 
+	/**
+	 * Where to remember URLs that were found to not exist, so that they won't
+	 * be requested again until their entry expires. When null, missing URLs
+	 * are remembered only during a run.
+	 * 
+	 * @param negativeCache
+	 *        The negative cache file
+	 */
+	public void setNegativeCache( FileResource negativeCache )
+	{
+		this.negativeCache = negativeCache;
+	}
+
+	/**
+	 * How long in seconds to remember that a URL does not exist. Defaults to
+	 * 86400 (one day).
+	 * 
+	 * @param negativeCacheTtl
+	 *        The time to live in seconds
+	 */
+	public void setNegativeCacheTtl( int negativeCacheTtl )
+	{
+		this.negativeCacheTtl = negativeCacheTtl;
+	}
+
 	/**
 	 * Whether we should overwrite files. Defaults to false.
 	 * 
@@ -250,6 +290,18 @@ public class RunTask extends Task
 		this.verbosity = verbosity;
 	}
 
+	/**
+	 * Set to true to only verify installed artifacts against the state. The
+	 * build fails if they are not intact.
+	 * 
+	 * @param verify
+	 *        Whether we should only verify
+	 */
+	public void setVerify( boolean verify )
+	{
+		this.verify = verify;
+	}
+
 	/**
 	 * Set to true to execute the task even if it already ran.
 	 * 
@@ -342,6 +394,8 @@ public class RunTask extends Task
 				engine.getDirectories().setSource( sourceDir.getFile() );
 			if( state != null )
 				engine.setStateFile( state.getFile() );
+			if( negativeCache != null )
+				engine.setNegativeCacheFile( negativeCache.getFile() );
 
 			run = force || !engine.getStateFile().exists();
 		}
@@ -354,6 +408,7 @@ public class RunTask extends Task
 		if( conflictPolicy != null )
 			engine.setConflictPolicy( conflictPolicy );
 		engine.setMultithreaded( multithreaded );
+		engine.setNegativeCacheTtl( negativeCacheTtl );
 		engine.setOverwrite( overwrite );
 		engine.setFlat( flat );
 		engine.setVerbosity( verbosity );
@@ -361,8 +416,20 @@ public class RunTask extends Task
 		engine.setRepositories( repositories );
 		engine.setRules( rules );
 
+		if( verify )
+		{
+			if( !engine.verify().isIntact() )
+				throw new BuildException( "Installed artifacts are not intact" );
+			return;
+		}
+
 		if( run )
+		{
 			engine.run();
+			if( statisticsPrefix != null )
+				for( Map.Entry<String, String> entry : engine.getStatistics().toProperties().entrySet() )
+					getProject().setNewProperty( statisticsPrefix + '.' + entry.getKey(), entry.getValue() );
+		}
 		else
 			engine.load();
 
@@ -389,6 +456,8 @@ public class RunTask extends Task
 
 	private String ref;
 
+	private String statisticsPrefix;
+
 	private FileResource libraryDir = new FileResource( new File( new File( "libraries" ), "jars" ) );
 
 	private FileResource apiDir = null;
@@ -399,6 +468,10 @@ public class RunTask extends Task
 
 	private FileResource state = null;
 
+	private FileResource negativeCache = null;
+
+	private int negativeCacheTtl = 24 * 60 * 60;
+
 	private boolean overwrite;
 
 	private boolean flat;
@@ -414,4 +487,6 @@ public class RunTask extends Task
 	private int verbosity = 0;
 
 	private boolean force;
+
+	private boolean verify;
 }
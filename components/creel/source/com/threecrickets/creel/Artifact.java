@@ -21,9 +21,12 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.zip.ZipEntry;
 
 import com.threecrickets.creel.exception.CreelException;
+import com.threecrickets.creel.packaging.PackagingUtil;
 import com.threecrickets.creel.util.ClassUtil;
+import com.threecrickets.creel.util.DigestCache;
 import com.threecrickets.creel.util.DigestUtil;
 import com.threecrickets.creel.util.HexUtil;
 import com.threecrickets.creel.util.IoUtil;
@@ -74,9 +77,12 @@ public class Artifact implements Comparable<Artifact>
 	//
 
 	/**
-	 * The algorithm for digests. Defaults to SHA-1.
+	 * The algorithm for new digests. Defaults to SHA-256.
+	 * <p>
+	 * Each artifact remembers the algorithm of its stored digest, so changing
+	 * this does not invalidate digests that were already stored.
 	 */
-	public static volatile String algorithm = "SHA-1";
+	public static volatile String algorithm = DigestUtil.SHA_256;
 
 	//
 	// Construction
@@ -97,6 +103,33 @@ public class Artifact implements Comparable<Artifact>
 		this( null, null, file, sourceUrl, isVolatile );
 	}
 
+	/**
+	 * Constructor for an artifact whose source is an entry in a zip or jar
+	 * file. The entry's size and CRC-32 checksum allow
+	 * {@link Artifact#isDifferent(DigestCache)} to avoid reading the source,
+	 * and the archive allows {@link PackagingUtil#extract(Iterable)} to
+	 * extract many artifacts in one pass.
+	 * 
+	 * @param file
+	 *        The file
+	 * @param sourceUrl
+	 *        The source URL
+	 * @param isVolatile
+	 *        Whether the artifact is volatile
+	 * @param sourceArchive
+	 *        The source zip or jar file
+	 * @param sourceEntry
+	 *        The source entry
+	 */
+	public Artifact( File file, URL sourceUrl, boolean isVolatile, File sourceArchive, ZipEntry sourceEntry )
+	{
+		this( null, null, file, sourceUrl, isVolatile );
+		this.sourceArchive = sourceArchive;
+		sourceEntryName = sourceEntry.getName();
+		sourceSize = sourceEntry.getSize();
+		sourceCrc = sourceEntry.getCrc();
+	}
+
 	/**
 	 * Constructor.
 	 * 
@@ -163,7 +196,24 @@ public class Artifact implements Comparable<Artifact>
 		this.isVolatile = isVolatile != null ? Boolean.valueOf( isVolatile ) : false;
 		String digest = config.get( "digest" );
 		if( digest != null )
+		{
 			this.digest = HexUtil.fromHex( digest );
+			// Older state files did not store the algorithm
+			String digestAlgorithm = config.get( "digestAlgorithm" );
+			this.digestAlgorithm = digestAlgorithm != null ? digestAlgorithm : DigestUtil.SHA_1;
+		}
+		String size = config.get( "size" );
+		if( size != null )
+		{
+			try
+			{
+				this.size = Long.parseLong( size );
+			}
+			catch( NumberFormatException x )
+			{
+				throw new CreelException( "Bad size: " + size );
+			}
+		}
 	}
 
 	//
@@ -210,6 +260,27 @@ public class Artifact implements Comparable<Artifact>
 		return sourceUrl;
 	}
 
+	/**
+	 * The source zip or jar file, if the source is an entry in one.
+	 * 
+	 * @return The source archive or null
+	 */
+	public File getSourceArchive()
+	{
+		return sourceArchive;
+	}
+
+	/**
+	 * The name of the source entry in the source archive.
+	 * 
+	 * @return The source entry name or null
+	 * @see Artifact#getSourceArchive()
+	 */
+	public String getSourceEntryName()
+	{
+		return sourceEntryName;
+	}
+
 	/**
 	 * Whether the artifact is volatile.
 	 * 
@@ -230,6 +301,26 @@ public class Artifact implements Comparable<Artifact>
 		return digest;
 	}
 
+	/**
+	 * The size of the file when its digest was stored.
+	 * 
+	 * @return The size in bytes or -1 if unknown
+	 */
+	public long getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * The algorithm of the digest.
+	 * 
+	 * @return The algorithm or null if there is no digest
+	 */
+	public String getDigestAlgorithm()
+	{
+		return digestAlgorithm;
+	}
+
 	//
 	// Operations
 	//
@@ -266,7 +357,12 @@ public class Artifact implements Comparable<Artifact>
 		if( isVolatile() )
 			config.put( "volatile", true );
 		if( getDigest() != null )
+		{
 			config.put( "digest", HexUtil.toHex( getDigest() ) );
+			config.put( "digestAlgorithm", getDigestAlgorithm() );
+		}
+		if( getSize() != -1 )
+			config.put( "size", getSize() );
 		return Collections.unmodifiableMap( config );
 	}
 
@@ -291,10 +387,27 @@ public class Artifact implements Comparable<Artifact>
 	 *         In case of an I/O error
 	 */
 	public boolean wasModified() throws IOException
+	{
+		return wasModified( null );
+	}
+
+	/**
+	 * Checks whether the file was modified by comparing its current digest to
+	 * the stored digest.
+	 * <p>
+	 * If there is no digest stored or the file does not exist will return true.
+	 * 
+	 * @param digestCache
+	 *        The digest cache or null
+	 * @return True if was modified
+	 * @throws IOException
+	 *         In case of an I/O error
+	 */
+	public boolean wasModified( DigestCache digestCache ) throws IOException
 	{
 		if( ( getDigest() == null ) || !exists() )
 			return true;
-		byte[] currentDigest = DigestUtil.getDigest( getFile(), algorithm );
+		byte[] currentDigest = getCurrentDigest( getDigestAlgorithm(), digestCache );
 		return !Arrays.equals( getDigest(), currentDigest );
 	}
 
@@ -308,7 +421,34 @@ public class Artifact implements Comparable<Artifact>
 	 */
 	public boolean isDifferent() throws IOException
 	{
-		byte[] currentDigest = DigestUtil.getDigest( getFile(), algorithm );
+		return isDifferent( null );
+	}
+
+	/**
+	 * Checks whether the file is different from the content of the source URL
+	 * by comparing their current digests.
+	 * <p>
+	 * If the source's size and CRC-32 checksum are known, they are compared
+	 * instead, so that the source does not have to be read. With a digest
+	 * cache, an unchanged file does not have to be read either.
+	 * 
+	 * @param digestCache
+	 *        The digest cache or null
+	 * @return True if different
+	 * @throws IOException
+	 *         In case of an I/O error
+	 */
+	public boolean isDifferent( DigestCache digestCache ) throws IOException
+	{
+		if( ( sourceSize != -1 ) && ( sourceCrc != -1 ) )
+		{
+			if( getFile().length() != sourceSize )
+				return true;
+			byte[] currentCrc = getCurrentDigest( DigestUtil.CRC_32, digestCache );
+			return !Arrays.equals( currentCrc, DigestUtil.toCrc32Digest( sourceCrc ) );
+		}
+
+		byte[] currentDigest = getCurrentDigest( algorithm, digestCache );
 		byte[] sourceDigest = DigestUtil.getDigest( getSourceUrl(), algorithm );
 		return !Arrays.equals( currentDigest, sourceDigest );
 	}
@@ -345,14 +485,31 @@ public class Artifact implements Comparable<Artifact>
 	}
 
 	/**
-	 * Updates the stored digest to the current value.
+	 * Updates the stored digest and size to the current values.
 	 * 
 	 * @throws IOException
 	 *         In case of an I/O error
 	 */
 	public void updateDigest() throws IOException
 	{
-		digest = DigestUtil.getDigest( getFile(), algorithm );
+		updateDigest( null );
+	}
+
+	/**
+	 * Updates the stored digest and size to the current values.
+	 * 
+	 * @param digestCache
+	 *        The digest cache or null
+	 * @throws IOException
+	 *         In case of an I/O error
+	 */
+	public void updateDigest( DigestCache digestCache ) throws IOException
+	{
+		String algorithm = Artifact.algorithm;
+		long size = getFile().length();
+		digest = getCurrentDigest( algorithm, digestCache );
+		digestAlgorithm = algorithm;
+		this.size = size;
 	}
 
 	//
@@ -420,4 +577,21 @@ public class Artifact implements Comparable<Artifact>
 	private final boolean isVolatile;
 
 	private byte[] digest;
+
+	private String digestAlgorithm;
+
+	private long size = -1;
+
+	private File sourceArchive;
+
+	private String sourceEntryName;
+
+	private long sourceSize = -1;
+
+	private long sourceCrc = -1;
+
+	private byte[] getCurrentDigest( String algorithm, DigestCache digestCache ) throws IOException
+	{
+		return digestCache != null ? digestCache.getDigest( getFile(), algorithm ) : DigestUtil.getDigest( getFile(), algorithm );
+	}
 }
@@ -0,0 +1,265 @@
+/**
+ * Copyright 2015-2017 Three Crickets LLC.
+ * <p>
+ * The contents of this file are subject to the terms of the LGPL version 3.0:
+ * http://www.gnu.org/copyleft/lesser.html
+ * <p>
+ * Alternatively, you can obtain a royalty free commercial license with less
+ * limitations, transferable or non-transferable, directly from Three Crickets
+ * at http://threecrickets.com/
+ */
+
+package com.threecrickets.creel;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The critical path through the identification of a run.
+ * <p>
+ * A module's dependencies cannot be identified before the module itself has
+ * been identified, so the time it takes to identify all modules is bounded by
+ * the slowest chain of supplicants and dependencies rather than by the total
+ * work. This is that chain: it starts at the module that finished being
+ * identified last, and walks back through the supplicants, each time choosing
+ * the supplicant that finished last before the module started (that is, the
+ * one that actually held it up).
+ * <p>
+ * Each step is credited with the time from the end of the previous step to
+ * its own end, which includes waiting for a free thread as well as the
+ * identification itself. Shortening the path means making those steps faster
+ * (for example, with a faster repository or by pinning a version so that no
+ * metadata is needed).
+ * <p>
+ * Relies on the timings recorded in {@link Module} instances during
+ * identification, so it is only meaningful right after
+ * {@link Engine#run(Engine.Stage)}.
+ * 
+ * @author Tal Liron
+ */
+public class CriticalPath
+{
+	//
+	// Construction
+	//
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param engine
+	 *        The engine
+	 */
+	public CriticalPath( Engine engine )
+	{
+		Map<ModuleIdentifier, Module> identifiedModules = new HashMap<ModuleIdentifier, Module>();
+		Module last = null;
+		for( Module module : engine.getIdentifiedModules() )
+		{
+			identifiedModules.put( module.getIdentifier(), module );
+			last = later( last, module );
+		}
+		for( Module module : engine.getUnidentifiedModules() )
+			last = later( last, module );
+
+		// Walk back from the last module
+		Set<Module> visited = new HashSet<Module>();
+		for( Module module = last; ( module != null ) && visited.add( module ); )
+		{
+			Module previous = null;
+			for( Module supplicant : module.getSupplicants() )
+			{
+				// Timings are only recorded in the instances that were
+				// identified
+				supplicant = supplicant.getIdentifier() != null ? identifiedModules.get( supplicant.getIdentifier() ) : null;
+				if( ( supplicant != null ) && ( supplicant.getIdentificationEnd() != 0 ) && ( supplicant.getIdentificationEnd() <= module.getIdentificationStart() ) )
+					if( ( previous == null ) || ( supplicant.getIdentificationEnd() > previous.getIdentificationEnd() ) )
+						previous = supplicant;
+			}
+
+			long stepTime = previous != null ? module.getIdentificationEnd() - previous.getIdentificationEnd() : module.getIdentificationEnd() - module.getIdentificationStart() + module.getWaitTime();
+			steps.add( 0, new Step( module, stepTime ) );
+			time += stepTime;
+			module = previous;
+		}
+
+		// Repositories, slowest first
+		Map<String, Long> repositoryTimes = new HashMap<String, Long>();
+		for( Step step : steps )
+		{
+			ModuleIdentifier moduleIdentifier = step.getModule().getIdentifier();
+			String repository = moduleIdentifier != null ? moduleIdentifier.getRepository().getId() : null;
+			Long repositoryTime = repositoryTimes.get( repository );
+			repositoryTimes.put( repository, ( repositoryTime != null ? repositoryTime : 0L ) + step.getTime() );
+		}
+		List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>( repositoryTimes.entrySet() );
+		Collections.sort( entries, new Comparator<Map.Entry<String, Long>>()
+		{
+			public int compare( Map.Entry<String, Long> entry1, Map.Entry<String, Long> entry2 )
+			{
+				return entry2.getValue().compareTo( entry1.getValue() );
+			}
+		} );
+		for( Map.Entry<String, Long> entry : entries )
+			this.repositoryTimes.put( entry.getKey(), entry.getValue() );
+	}
+
+	//
+	// Attributes
+	//
+
+	/**
+	 * The steps, from the first module identified to the last.
+	 * 
+	 * @return The steps
+	 */
+	public Iterable<Step> getSteps()
+	{
+		return Collections.unmodifiableCollection( steps );
+	}
+
+	/**
+	 * The total time of the critical path.
+	 * 
+	 * @return The time in nanoseconds
+	 */
+	public long getTime()
+	{
+		return time;
+	}
+
+	/**
+	 * The time each repository contributed to the critical path, slowest first.
+	 * The time of modules that could not be identified is under the null key.
+	 * 
+	 * @return The times in nanoseconds by repository ID
+	 */
+	public Map<String, Long> getRepositoryTimes()
+	{
+		return Collections.unmodifiableMap( repositoryTimes );
+	}
+
+	//
+	// Operations
+	//
+
+	/**
+	 * Prints the steps and the repository times.
+	 * 
+	 * @param writer
+	 *        The writer
+	 */
+	public void print( PrintWriter writer )
+	{
+		writer.println( "Critical path: " + steps.size() + ( steps.size() != 1 ? " modules, " : " module, " ) + milliseconds( getTime() ) );
+		for( Step step : getSteps() )
+		{
+			Module module = step.getModule();
+			ModuleIdentifier moduleIdentifier = module.getIdentifier();
+			StringBuilder line = new StringBuilder( "  " );
+			if( moduleIdentifier != null )
+			{
+				line.append( moduleIdentifier );
+				line.append( " in " );
+				line.append( moduleIdentifier.getRepository().getId() );
+			}
+			else
+			{
+				line.append( module.getSpecification() );
+				line.append( " (unidentified)" );
+			}
+			line.append( ": " );
+			line.append( milliseconds( step.getTime() ) );
+			line.append( " (metadata " );
+			line.append( milliseconds( module.getMetaDataTime() ) );
+			line.append( ", descriptor " );
+			line.append( milliseconds( module.getDescriptorTime() ) );
+			line.append( ", waiting " );
+			line.append( milliseconds( module.getWaitTime() ) );
+			line.append( ')' );
+			writer.println( line );
+		}
+		for( Map.Entry<String, Long> entry : getRepositoryTimes().entrySet() )
+			writer.println( "  " + ( entry.getKey() != null ? entry.getKey() : "(unidentified)" ) + " repository: " + milliseconds( entry.getValue() ) + ( getTime() > 0 ? " (" + ( entry.getValue() * 100 / getTime() ) + "%)" : "" ) );
+	}
+
+	//
+	// Object
+	//
+
+	@Override
+	public String toString()
+	{
+		return steps.size() + " modules, " + milliseconds( getTime() );
+	}
+
+	//
+	// Classes
+	//
+
+	/**
+	 * A step in the critical path.
+	 */
+	public static class Step
+	{
+		private Step( Module module, long time )
+		{
+			this.module = module;
+			this.time = time;
+		}
+
+		/**
+		 * The module.
+		 * 
+		 * @return The module
+		 */
+		public Module getModule()
+		{
+			return module;
+		}
+
+		/**
+		 * The time this step contributed to the critical path.
+		 * 
+		 * @return The time in nanoseconds
+		 */
+		public long getTime()
+		{
+			return time;
+		}
+
+		private final Module module;
+
+		private final long time;
+	}
+
+	// //////////////////////////////////////////////////////////////////////////
+	// Private
+
+	private final List<Step> steps = new ArrayList<Step>();
+
+	private final Map<String, Long> repositoryTimes = new LinkedHashMap<String, Long>();
+
+	private long time;
+
+	private static Module later( Module module1, Module module2 )
+	{
+		if( module2.getIdentificationEnd() == 0 )
+			return module1;
+		if( ( module1 == null ) || ( module2.getIdentificationEnd() > module1.getIdentificationEnd() ) )
+			return module2;
+		return module1;
+	}
+
+	private static String milliseconds( long nanoseconds )
+	{
+		return String.format( "%.1f ms", nanoseconds / 1000000.0 );
+	}
+}
\ No newline at end of file
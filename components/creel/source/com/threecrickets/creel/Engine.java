@@ -14,11 +14,14 @@ package com.threecrickets.creel;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -27,20 +30,38 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.management.ObjectName;
+
 import com.threecrickets.creel.downloader.Downloader;
+import com.threecrickets.creel.event.AsynchronousEventHandler;
 import com.threecrickets.creel.event.EventHandlers;
+import com.threecrickets.creel.event.Message;
 import com.threecrickets.creel.event.Notifier;
 import com.threecrickets.creel.exception.CreelException;
 import com.threecrickets.creel.internal.ArtifactsClassLoader;
 import com.threecrickets.creel.internal.ConcurrentIdentificationContext;
 import com.threecrickets.creel.internal.Conflicts;
+import com.threecrickets.creel.internal.DaemonThreadFactory;
 import com.threecrickets.creel.internal.IdentificationContext;
+import com.threecrickets.creel.internal.Management;
 import com.threecrickets.creel.internal.Modules;
+import com.threecrickets.creel.internal.Routes;
+import com.threecrickets.creel.internal.StateJournal;
+import com.threecrickets.creel.packaging.Fingerprint;
 import com.threecrickets.creel.packaging.PackagingUtil;
 import com.threecrickets.creel.util.ClassUtil;
 import com.threecrickets.creel.util.ConfigHelper;
+import com.threecrickets.creel.util.DigestCache;
+import com.threecrickets.creel.util.DigestUtil;
+import com.threecrickets.creel.util.FlightEvent;
+import com.threecrickets.creel.util.NegativeCache;
 
 /**
  * The heart of Creel: installs and upgrades dependent modules.
@@ -62,11 +83,13 @@ import com.threecrickets.creel.util.ConfigHelper;
  * the default platform. Use {@link Factory#setPlatform(String, String)} to add
  * more.
  * <p>
- * The class is <i>not</i> thread-safe.
+ * The class is <i>not</i> thread-safe, except for the {@link EngineMXBean}
+ * methods, which may be called while running in order to monitor and control
+ * the run. See {@link #setManaged(boolean)}.
  * 
  * @author Tal Liron
  */
-public class Engine extends Notifier implements Runnable
+public class Engine extends Notifier implements Runnable, EngineMXBean
 {
 	//
 	// Constants
@@ -97,6 +120,11 @@ public class Engine extends Notifier implements Runnable
 	 */
 	public enum Stage
 	{
+		/**
+		 * Verification of installed artifacts against the state (runs none of
+		 * the other stages).
+		 */
+		VERIFY( 0 ),
 		/**
 		 * Identification (first stage).
 		 */
@@ -255,6 +283,31 @@ public class Engine extends Notifier implements Runnable
 		this.multithreaded = multithreaded;
 	}
 
+	/**
+	 * Whether events should be handled on a separate thread while running, so
+	 * that worker threads do not wait for slow event handlers. Update events
+	 * may be dropped if the handler falls behind. Defaults to true.
+	 * 
+	 * @return True if asynchronous events
+	 */
+	public boolean isAsynchronousEvents()
+	{
+		return asynchronousEvents;
+	}
+
+	/**
+	 * Whether events should be handled on a separate thread while running, so
+	 * that worker threads do not wait for slow event handlers. Update events
+	 * may be dropped if the handler falls behind. Defaults to true.
+	 * 
+	 * @param asynchronousEvents
+	 *        True if asynchronous events
+	 */
+	public void setAsynchronousEvents( boolean asynchronousEvents )
+	{
+		this.asynchronousEvents = asynchronousEvents;
+	}
+
 	/**
 	 * Number of threads per host. Defaults to 4.
 	 * 
@@ -266,7 +319,8 @@ public class Engine extends Notifier implements Runnable
 	}
 
 	/**
-	 * Number of threads per host. Defaults to 4.
+	 * Number of threads per host. Defaults to 4. Applies to a running
+	 * identification or installation, too.
 	 * 
 	 * @param threadsPerHost
 	 *        Number of threads per host
@@ -274,6 +328,15 @@ public class Engine extends Notifier implements Runnable
 	public void setThreadsPerHost( int threadsPerHost )
 	{
 		this.threadsPerHost = threadsPerHost;
+		if( isMultithreaded() )
+		{
+			ConcurrentIdentificationContext concurrentContext = this.concurrentContext;
+			if( concurrentContext != null )
+				concurrentContext.setThreads( threadsPerHost );
+			Downloader downloader = this.downloader;
+			if( downloader != null )
+				downloader.setThreadsPerHost( threadsPerHost );
+		}
 	}
 
 	/**
@@ -467,6 +530,109 @@ public class Engine extends Notifier implements Runnable
 		this.delay = delay;
 	}
 
+	/**
+	 * Where to remember URLs that were found to not exist, so that they won't
+	 * be requested again until their entry expires. Defaults to null, meaning
+	 * that missing URLs are remembered only during a run.
+	 * 
+	 * @return The negative cache file or null
+	 */
+	public File getNegativeCacheFile()
+	{
+		return negativeCacheFile;
+	}
+
+	/**
+	 * Where to remember URLs that were found to not exist, so that they won't
+	 * be requested again until their entry expires. Defaults to null, meaning
+	 * that missing URLs are remembered only during a run.
+	 * 
+	 * @param negativeCacheFile
+	 *        The negative cache file or null
+	 * @throws IOException
+	 *         In case the file could not be accessed
+	 */
+	public void setNegativeCacheFile( File negativeCacheFile ) throws IOException
+	{
+		this.negativeCacheFile = negativeCacheFile != null ? negativeCacheFile.getCanonicalFile() : null;
+	}
+
+	/**
+	 * How long in seconds to remember that a URL does not exist. Defaults to
+	 * 86400 (one day).
+	 * 
+	 * @return The time to live in seconds
+	 */
+	public int getNegativeCacheTtl()
+	{
+		return negativeCacheTtl;
+	}
+
+	/**
+	 * How long in seconds to remember that a URL does not exist. Defaults to
+	 * 86400 (one day).
+	 * 
+	 * @param negativeCacheTtl
+	 *        The time to live in seconds
+	 */
+	public void setNegativeCacheTtl( int negativeCacheTtl )
+	{
+		this.negativeCacheTtl = negativeCacheTtl;
+	}
+
+	/**
+	 * Whether to learn which repositories serve which module groups, so that
+	 * repositories are queried in a better order and repositories that never
+	 * serve a group are skipped (they are probed again once in a while). The
+	 * routes are stored next to the state file. Defaults to true.
+	 * 
+	 * @return True if routing
+	 */
+	public boolean isRouting()
+	{
+		return routing;
+	}
+
+	/**
+	 * Whether to learn which repositories serve which module groups, so that
+	 * repositories are queried in a better order and repositories that never
+	 * serve a group are skipped (they are probed again once in a while). The
+	 * routes are stored next to the state file. Defaults to true.
+	 * 
+	 * @param routing
+	 *        True if routing
+	 */
+	public void setRouting( boolean routing )
+	{
+		this.routing = routing;
+	}
+
+	/**
+	 * Where to store learned routes: the state file with a ".routes"
+	 * extension.
+	 * 
+	 * @return The routes file
+	 * @throws IOException
+	 *         In case the file could not be accessed
+	 */
+	public File getRoutesFile() throws IOException
+	{
+		return new File( getStateFile().getPath() + ".routes" );
+	}
+
+	/**
+	 * Where to store cached file digests: the state file with a ".digests"
+	 * extension.
+	 * 
+	 * @return The digest cache file
+	 * @throws IOException
+	 *         In case the file could not be accessed
+	 */
+	public File getDigestCacheFile() throws IOException
+	{
+		return new File( getStateFile().getPath() + ".digests" );
+	}
+
 	/**
 	 * The explicit modules.
 	 * 
@@ -681,6 +847,152 @@ public class Engine extends Notifier implements Runnable
 		return identifiedCacheHits.get();
 	}
 
+	/**
+	 * The statistics of the current or last run.
+	 * 
+	 * @return The statistics or null if not run
+	 */
+	public RunStatistics getStatistics()
+	{
+		return statistics;
+	}
+
+	/**
+	 * The stage currently running.
+	 * 
+	 * @return The stage or null if not running
+	 */
+	public String getStage()
+	{
+		Stage stage = this.stage;
+		return stage != null ? stage.name() : null;
+	}
+
+	/**
+	 * Number of parties registered with the identification phaser: the
+	 * identification tasks that have not finished yet, plus one for the
+	 * engine itself.
+	 * 
+	 * @return The registered parties or 0 if not identifying concurrently
+	 */
+	public int getIdentificationParties()
+	{
+		ConcurrentIdentificationContext concurrentContext = this.concurrentContext;
+		return concurrentContext != null ? concurrentContext.getPhaser().getRegisteredParties() : 0;
+	}
+
+	/**
+	 * Number of identification tasks waiting for a thread.
+	 * 
+	 * @return The queue depth or 0 if not identifying concurrently
+	 */
+	public int getIdentificationQueueDepth()
+	{
+		ConcurrentIdentificationContext concurrentContext = this.concurrentContext;
+		return concurrentContext != null ? concurrentContext.getQueueDepth() : 0;
+	}
+
+	/**
+	 * Number of threads running identification tasks.
+	 * 
+	 * @return The active thread count or 0 if not identifying concurrently
+	 */
+	public int getIdentificationActiveThreads()
+	{
+		ConcurrentIdentificationContext concurrentContext = this.concurrentContext;
+		return concurrentContext != null ? concurrentContext.getActiveThreads() : 0;
+	}
+
+	/**
+	 * Number of modules being identified right now.
+	 * 
+	 * @return The identifications in progress or 0 if not identifying
+	 *         concurrently
+	 */
+	public int getIdentificationsInProgress()
+	{
+		ConcurrentIdentificationContext concurrentContext = this.concurrentContext;
+		return concurrentContext != null ? concurrentContext.getJobs().getCount() : 0;
+	}
+
+	/**
+	 * Number of modules identified so far.
+	 * 
+	 * @return The identified count
+	 */
+	public int getIdentifiedCount()
+	{
+		return identifiedModules.size();
+	}
+
+	/**
+	 * Number of modules that could not be identified so far.
+	 * 
+	 * @return The unidentified count
+	 */
+	public int getUnidentifiedCount()
+	{
+		return unidentifiedModules.size();
+	}
+
+	/**
+	 * The cumulative counters of the current or last run.
+	 * 
+	 * @return The counters as in {@link RunStatistics#toProperties()}
+	 */
+	public Map<String, String> getCounters()
+	{
+		RunStatistics statistics = this.statistics;
+		return statistics != null ? statistics.toProperties() : Collections.<String, String> emptyMap();
+	}
+
+	/**
+	 * Whether the current run was cancelled, or cancellation was requested
+	 * before the next run.
+	 * 
+	 * @return True if cancelled
+	 */
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	/**
+	 * Whether the engine is registered with JMX as an {@link EngineMXBean}.
+	 * Its downloader will be registered as a
+	 * {@link com.threecrickets.creel.downloader.DownloaderMXBean} while
+	 * installing. Defaults to false.
+	 * 
+	 * @return True if managed
+	 */
+	public synchronized boolean isManaged()
+	{
+		return objectName != null;
+	}
+
+	/**
+	 * Whether the engine is registered with JMX as an {@link EngineMXBean}.
+	 * Its downloader will be registered as a
+	 * {@link com.threecrickets.creel.downloader.DownloaderMXBean} while
+	 * installing. Defaults to false.
+	 * <p>
+	 * Make sure to set to false when done with the engine, otherwise it will
+	 * never be garbage collected.
+	 * 
+	 * @param managed
+	 *        True if managed
+	 */
+	public synchronized void setManaged( boolean managed )
+	{
+		if( managed && ( objectName == null ) )
+			objectName = Management.register( this, "Engine" );
+		else if( !managed && ( objectName != null ) )
+		{
+			Management.unregister( objectName );
+			objectName = null;
+		}
+	}
+
 	//
 	// Operations
 	//
@@ -758,293 +1070,148 @@ public class Engine extends Notifier implements Runnable
 	 */
 	public void run( Stage stage )
 	{
-		info( "Creel " + getVersion() + " running " + ( stage != Stage.ALL ? "until " : "" ) + stage.toString().toLowerCase() );
-
-		State state = loadState();
-		boolean stateChanged = false;
-
-		// Identification
+		// The event handler itself stays in place, so that handlers can still
+		// be added to it
+		AsynchronousEventHandler asynchronousEventHandler = null;
+		if( isAsynchronousEvents() && isEnabled() )
+		{
+			asynchronousEventHandler = new AsynchronousEventHandler( getEventHandler() );
+			setDispatcher( asynchronousEventHandler );
+		}
 
-		if( stage.getValue() >= Stage.IDENTIFICATION.getValue() )
+		RunStatistics statistics = new RunStatistics();
+		this.statistics = statistics;
+		long time = System.currentTimeMillis();
+		try
 		{
-			String id = begin( "Identifying" );
+			runWithCaches( stage, statistics );
+		}
+		finally
+		{
+			this.stage = null;
+			statistics.addTime( System.currentTimeMillis() - time );
 
-			if( isMultithreaded() )
-			{
-				// Using threads-per-host is a simplification here: the threads
-				// may actually be spread across many hosts. But it's still a
-				// good value for the maximum concurrency we want to allow.
-				ConcurrentIdentificationContext concurrentContext = new ConcurrentIdentificationContext( getThreadsPerHost() );
-				try
-				{
-					for( Module explicitModule : getModules() )
-						concurrentContext.identifyModule( new IdentifyModule( explicitModule, true, concurrentContext ) );
-				}
-				finally
-				{
-					concurrentContext.close();
-				}
-			}
-			else
+			// Cleared only now, so that a cancellation requested just before
+			// the run started is not lost
+			cancelled = false;
+
+			if( asynchronousEventHandler != null )
 			{
-				for( Module explicitModule : getModules() )
-					identifyModule( explicitModule, true, null );
+				// Make sure all events have been handled before we return
+				setDispatcher( null );
+				asynchronousEventHandler.close();
 			}
+		}
+	}
 
-			int identifiedCount = identifiedModules.size();
+	/**
+	 * Checks the existence, size and digest of all artifacts in the state, in
+	 * parallel if multithreaded. Files are hashed only if the digest cache
+	 * does not already know them.
+	 * <p>
+	 * Does not identify or install anything.
+	 * 
+	 * @return The verification
+	 */
+	public Verification verify()
+	{
+		Verification verification = new Verification();
+		State state = loadState();
+		if( state == null )
+			return verification;
 
-			// Resolve conflicts
-			conflicts.find( getIdentifiedModules() );
-			conflicts.resolve( getConflictPolicy(), getVerbosity() > 0 ? this : null );
-			for( Conflict conflict : getConflicts() )
+		String id = begin( "Verifying" );
+
+		// Only artifacts that pass the cheap checks are hashed, grouped by
+		// digest algorithm so that each group is a single batch
+		Map<File, Verification.Status> statuses = new HashMap<File, Verification.Status>();
+		Map<String, Map<File, Artifact>> artifactsToDigest = new LinkedHashMap<String, Map<File, Artifact>>();
+		for( Artifact artifact : state.getArtifacts() )
+		{
+			Verification.Status status = Verification.checkWithoutDigest( artifact );
+			if( status != null )
+				statuses.put( artifact.getFile(), status );
+			else
 			{
-				for( Module reject : conflict.getRejects() )
+				Map<File, Artifact> artifactsByFile = artifactsToDigest.get( artifact.getDigestAlgorithm() );
+				if( artifactsByFile == null )
 				{
-					identifiedModules.remove( reject.getIdentifier() );
-					replaceModule( reject, conflict.getChosen() );
+					artifactsByFile = new LinkedHashMap<File, Artifact>();
+					artifactsToDigest.put( artifact.getDigestAlgorithm(), artifactsByFile );
 				}
+				artifactsByFile.put( artifact.getFile(), artifact );
 			}
-
-			// Sort for human readability
-			identifiedModules.sortByIdentifiers();
-			unidentifiedModules.sortBySpecifications();
-
-			if( identifiedCount == 0 )
-				end( id, "No modules identified" );
-			else
-				end( id, "Made " + identifiedCount + ( identifiedCount != 1 ? " identifications" : " identification" ) );
 		}
 
-		// Installation
-
-		if( stage.getValue() >= Stage.INSTALLATION.getValue() )
+		DigestCache digestCache = loadDigestCache();
+		ExecutorService executor = Executors.newFixedThreadPool( isMultithreaded() ? Runtime.getRuntime().availableProcessors() : 1, DaemonThreadFactory.INSTANCE );
+		try
 		{
-			if( getIdentifiedModules().iterator().hasNext() && !getUnidentifiedModules().iterator().hasNext() )
+			for( Map.Entry<String, Map<File, Artifact>> entry : artifactsToDigest.entrySet() )
 			{
-				String installingId = begin( "Installing" );
-
-				Downloader downloader = new Downloader( isMultithreaded() ? getThreadsPerHost() : 1, isMultithreaded() ? getChunksPerFile() : 1, getMinimumSizeForChunking(), this );
+				Map<File, Artifact> artifactsByFile = entry.getValue();
 				try
 				{
-					downloader.setDelay( getDelay() );
-					for( Module module : identifiedModules )
-					{
-						for( Artifact artifact : module.getIdentifier().getArtifacts( getDirectories(), isFlat() ) )
-						{
-							if( isOverwrite() || !artifact.getFile().exists() )
-								// Download and validate
-								downloader.submit( artifact.getSourceUrl(), artifact.getFile(), module.getIdentifier().getRepository().validateArtifactTask( module.getIdentifier(), artifact, this ) );
-							else
-								// Only validate
-								downloader.submit( module.getIdentifier().getRepository().validateArtifactTask( module.getIdentifier(), artifact, this ) );
-							installedArtifacts.add( artifact );
-						}
-					}
-					downloader.waitUntilDone();
+					for( Map.Entry<File, byte[]> digest : digestCache.getDigests( artifactsByFile.keySet(), entry.getKey(), executor ).entrySet() )
+						statuses.put( digest.getKey(), Verification.check( artifactsByFile.get( digest.getKey() ), digest.getValue() ) );
 				}
-				finally
+				catch( IOException x )
 				{
-					downloader.close();
-				}
-
-				int errorCount = 0;
-				for( Iterator<Throwable> i = downloader.getExceptions().iterator(); i.hasNext(); i.next() )
-					errorCount++;
+					if( Thread.currentThread().isInterrupted() )
+					{
+						fail( id, "Verification interrupted", x );
+						throw new CreelException( "Verification interrupted", x );
+					}
 
-				if( errorCount > 0 )
-				{
-					deleteState(); // TODO: good idea?
-					String message = "Had " + errorCount + ( errorCount != 1 ? " errors during installation" : " error during installation" );
-					fail( installingId, message );
-					throw new CreelException( message );
+					// Check one by one to find out which could not be read
+					for( Artifact artifact : artifactsByFile.values() )
+						statuses.put( artifact.getFile(), Verification.check( artifact, digestCache ) );
 				}
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+			saveDigestCache( digestCache );
+		}
 
-				int installedCount = downloader.getCount();
-
-				// Unpacking
+		for( Artifact artifact : state.getArtifacts() )
+			verification.add( artifact, statuses.get( artifact.getFile() ) );
+
+		for( Artifact artifact : verification.getMissing() )
+			error( "Missing " + artifact.getFile() );
+		for( Artifact artifact : verification.getModified() )
+			error( "Modified " + artifact.getFile() );
+		for( Artifact artifact : verification.getCorrupt() )
+			error( "Could not read " + artifact.getFile() );
+		if( verification.isNothingVerified() )
+			error( "Could not verify any artifacts, because the state has no digests for them" );
+		else if( verification.getUnverified().iterator().hasNext() )
+			info( "Some artifacts could not be verified, because the state has no digests for them" );
+
+		if( verification.isIntact() )
+			end( id, "Verified: " + verification );
+		else
+			fail( id, "Not intact: " + verification );
 
-				if( ( stage.getValue() >= Stage.UNPACKING.getValue() ) && ( getDirectories().getDefault() != null ) )
-				{
-					ClassLoader classLoader = new ArtifactsClassLoader( getInstalledArtifacts() );
+		return verification;
+	}
 
-					Iterable<com.threecrickets.creel.packaging.Package> packages = null;
-					try
-					{
-						packages = PackagingUtil.getPackages( classLoader, getDirectories().getDefault() );
-					}
-					catch( IOException x )
-					{
-						error( "Could not scan for packages", x );
-					}
-
-					if( packages != null )
-					{
-						for( com.threecrickets.creel.packaging.Package thePackage : packages )
-						{
-							if( !thePackage.iterator().hasNext() )
-								continue;
-
-							String unpackingId = begin( "Unpacking " + thePackage.getSourceFile() );
-							try
-							{
-								int unpackedCount = 0;
-								for( Artifact artifact : thePackage )
-								{
-									boolean copy = false;
-
-									if( isOverwrite() || !artifact.exists() )
-										copy = true;
-									else
-									{
-										Artifact knownArtifact = state != null ? state.getArtifact( artifact.getFile() ) : null;
-										if( knownArtifact == null )
-											copy = true;
-										else
-										{
-											if( !knownArtifact.isVolatile() )
-												copy = artifact.isDifferent();
-											else
-											{
-												if( !knownArtifact.wasModified() )
-													copy = artifact.isDifferent();
-												else
-													info( "Modified, so not overwriting " + artifact.getFile() );
-											}
-										}
-									}
-
-									if( copy )
-									{
-										artifact.copy( null );
-										if( artifact.isVolatile() )
-											artifact.updateDigest();
-										if( getVerbosity() > 1 )
-											info( "Unpacked " + artifact.getFile() );
-										unpackedCount++;
-										installedCount++;
-									}
-
-									installedArtifacts.add( artifact );
-								}
-
-								if( unpackedCount == 0 )
-									end( unpackingId, "No new files to unpack from " + thePackage.getSourceFile() );
-								else
-									end( unpackingId, "Unpacked " + unpackedCount + ( unpackedCount != 1 ? " new files from " : " file from " ) + thePackage.getSourceFile() );
-							}
-							catch( IOException x )
-							{
-								fail( unpackingId, "Could not unpack " + thePackage.getSourceFile(), x );
-							}
-						}
-
-						// Run installers
-
-						for( com.threecrickets.creel.packaging.Package thePackage : packages )
-						{
-							String installer = thePackage.getInstaller();
-							if( installer != null )
-							{
-								try
-								{
-									ClassUtil.main( classLoader, installer.split( " " ) );
-								}
-								catch( Throwable x )
-								{
-									error( "Could not run installer: " + installer, x );
-								}
-							}
-						}
-
-						// TODO: uninstallers?
-					}
-				}
-
-				if( installedCount == 0 )
-				{
-					end( installingId, "No new artifacts to install" );
-					return;
-				}
-				else
-					end( installingId, "Installed " + installedCount + ( installedCount != 1 ? " new artifacts" : " new artifact" ) );
-			}
-			else
-			{
-				if( !getIdentifiedModules().iterator().hasNext() )
-				{
-					info( "Did not install because no modules have been identified" );
-					return;
-				}
-				else if( getUnidentifiedModules().iterator().hasNext() )
-				{
-					info( "Did not install because could not identify all modules" );
-					return;
-				}
-			}
-		}
-
-		// Delete redundant
-
-		if( ( stage.getValue() >= Stage.DELETE_REDUNDANT.getValue() ) && ( state != null ) )
-		{
-			Iterable<Artifact> redundantArtifacts = state.getRedundantArtifacts( getInstalledArtifacts() );
-			if( redundantArtifacts.iterator().hasNext() )
-			{
-				String id = begin( "Deleting redundant artifacts" );
-
-				int deletedCount = 0;
-
-				for( Artifact redundantArtifact : redundantArtifacts )
-				{
-					boolean delete = false;
-
-					if( !redundantArtifact.isVolatile() )
-						delete = true;
-					else
-					{
-						try
-						{
-							if( !redundantArtifact.wasModified() )
-								delete = true;
-							else
-								info( "Modified, so not deleting " + redundantArtifact.getFile() );
-						}
-						catch( IOException x )
-						{
-							error( "Could not access " + redundantArtifact.getFile() );
-						}
-					}
-
-					if( delete )
-					{
-						if( redundantArtifact.delete( getDirectories() ) )
-						{
-							if( getVerbosity() > 1 )
-								info( "Deleted " + redundantArtifact.getFile() );
-							if( state.removeArtifact( redundantArtifact ) )
-								stateChanged = true;
-							deletedCount++;
-						}
-						else
-							error( "Could not delete " + redundantArtifact.getFile() );
-					}
-				}
-
-				if( deletedCount > 0 )
-					end( id, "Deleted " + deletedCount + ( deletedCount != 1 ? " redundant artifacts" : " redundant artifact" ) );
-				else
-					end( id, "No redundant artifacts to delete" );
-			}
-		}
-
-		if( state.addModules( getIdentifiedModules() ) )
-			stateChanged = true;
-
-		if( state.addArtifacts( getInstalledArtifacts() ) )
-			stateChanged = true;
-
-		if( stateChanged )
-			saveState( state );
+	/**
+	 * Cancels the current run: identification and installation tasks are
+	 * stopped, and the run will throw a {@link CreelException} before the
+	 * next stage. If there is no current run, the next run is cancelled. May
+	 * be called from any thread.
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+		ConcurrentIdentificationContext concurrentContext = this.concurrentContext;
+		if( concurrentContext != null )
+			concurrentContext.cancel();
+		Downloader downloader = this.downloader;
+		if( downloader != null )
+			downloader.cancel();
 	}
 
 	/**
@@ -1058,6 +1225,7 @@ public class Engine extends Notifier implements Runnable
 		for( Artifact artifact : getInstalledArtifacts() )
 			artifact.delete( getDirectories() );
 		getStateFile().delete();
+		StateJournal.getFile( getStateFile() ).delete();
 	}
 
 	//
@@ -1076,10 +1244,23 @@ public class Engine extends Notifier implements Runnable
 	public class IdentifyModule implements Runnable
 	{
 		public IdentifyModule( Module module, boolean recursive, ConcurrentIdentificationContext concurrentContext )
+		{
+			this( module, recursive, Collections.<Rule> emptyList(), concurrentContext );
+		}
+
+		public IdentifyModule( Module module, boolean recursive, Collection<Rule> exclusions, ConcurrentIdentificationContext concurrentContext )
+		{
+			this( module, recursive, exclusions, null, concurrentContext );
+		}
+
+		public IdentifyModule( Module module, boolean recursive, Collection<Rule> exclusions, String parentId, ConcurrentIdentificationContext concurrentContext )
 		{
 			this.module = module;
 			this.recursive = recursive;
+			this.exclusions = exclusions;
+			this.parentId = parentId;
 			this.concurrentContext = concurrentContext;
+			queued = System.nanoTime();
 		}
 
 		public Module getModule()
@@ -1089,13 +1270,21 @@ public class Engine extends Notifier implements Runnable
 
 		public void run()
 		{
+			module.addWaitTime( System.nanoTime() - queued );
 			try
 			{
-				identifyModule( module, recursive, concurrentContext );
+				identifyModule( module, recursive, exclusions, parentId, concurrentContext );
 			}
 			catch( Throwable x )
 			{
-				error( "Identification error for " + module.getSpecification() + ": " + x.getMessage(), x );
+				// Tasks fail when cancelled
+				if( !isCancelled() )
+				{
+					error( "Identification error for " + module.getSpecification() + ": " + x.getMessage(), x );
+
+					// Don't leave threads waiting for us
+					concurrentContext.notifyIdentified( module );
+				}
 			}
 			concurrentContext.getPhaser().arriveAndDeregister();
 		}
@@ -1104,7 +1293,13 @@ public class Engine extends Notifier implements Runnable
 
 		private final boolean recursive;
 
+		private final Collection<Rule> exclusions;
+
+		private final String parentId;
+
 		private final ConcurrentIdentificationContext concurrentContext;
+
+		private final long queued;
 	}
 
 	public class IdentifiedModule implements Runnable
@@ -1113,6 +1308,7 @@ public class Engine extends Notifier implements Runnable
 		{
 			this.module = module;
 			this.id = id;
+			waiting = System.nanoTime();
 		}
 
 		public Module getModule()
@@ -1122,19 +1318,22 @@ public class Engine extends Notifier implements Runnable
 
 		public void run()
 		{
+			module.addWaitTime( System.nanoTime() - waiting );
 			Module identifiedModule = identifiedModules.get( module.getSpecification() );
 			if( id != null )
 			{
 				if( identifiedModule != null )
-					end( id, "Already identified " + identifiedModule.getIdentifier() + " in " + identifiedModule.getIdentifier().getRepository().getId() + " repository" );
+					end( id, new Message( "Already identified ", identifiedModule.getIdentifier(), " in ", identifiedModule.getIdentifier().getRepository().getId(), " repository" ) );
 				else
-					fail( id, "Could not identify " + module.getSpecification() );
+					fail( id, new Message( "Could not identify ", module.getSpecification() ) );
 			}
 		}
 
 		private final Module module;
 
 		private final String id;
+
+		private final long waiting;
 	}
 
 	// //////////////////////////////////////////////////////////////////////////
@@ -1146,6 +1345,8 @@ public class Engine extends Notifier implements Runnable
 
 	private boolean multithreaded = true;
 
+	private boolean asynchronousEvents = true;
+
 	private int threadsPerHost = 4;
 
 	private int chunksPerFile = 4;
@@ -1164,6 +1365,26 @@ public class Engine extends Notifier implements Runnable
 
 	private int delay;
 
+	private File negativeCacheFile;
+
+	private int negativeCacheTtl = 24 * 60 * 60;
+
+	private boolean routing = true;
+
+	private volatile Routes routes;
+
+	private volatile RunStatistics statistics;
+
+	private volatile Stage stage;
+
+	private volatile ConcurrentIdentificationContext concurrentContext;
+
+	private volatile Downloader downloader;
+
+	private volatile boolean cancelled;
+
+	private ObjectName objectName;
+
 	private final List<Module> modules = new ArrayList<Module>();
 
 	private final Modules identifiedModules = new Modules();
@@ -1182,15 +1403,25 @@ public class Engine extends Notifier implements Runnable
 
 	private final AtomicInteger identifiedCacheHits = new AtomicInteger();
 
-	private void identifyModule( final Module module, final boolean recursive, final ConcurrentIdentificationContext concurrentContext )
+	private void identifyModule( final Module module, final boolean recursive, final Collection<Rule> inheritedExclusions, final String parentId, final ConcurrentIdentificationContext concurrentContext )
 	{
+		if( isCancelled() )
+			return;
+
+		long start = System.nanoTime();
 		IdentificationContext context = new IdentificationContext( getRepositories(), recursive );
 
+		// Learned routing (rules may override it)
+		Routes routes = this.routes;
+		if( routes != null )
+			context.getSkippedRepositories().addAll( routes.route( module.getSpecification().getRoutingKey(), context.getRepositories() ) );
+
 		applyRules( module, context );
 
 		if( context.isExclude() )
 			return;
 
+		String id = null;
 		if( module.getIdentifier() != null )
 		{
 			// Nothing to do: already identified
@@ -1203,30 +1434,47 @@ public class Engine extends Notifier implements Runnable
 		else
 		{
 			// Check to see if we've already identified it
+			FlightEvent flightEvent = FlightEvent.IDENTIFICATION.begin();
 			Module identifiedModule = identifiedModules.get( module.getSpecification() );
+			boolean cacheHit = identifiedModule != null;
+			RunStatistics statistics = this.statistics;
+			if( statistics != null )
+				statistics.addCacheLookup( RunStatistics.Cache.IDENTIFICATION, cacheHit );
 			if( identifiedModule == null )
 			{
 				if( concurrentContext != null )
 				{
-					boolean alreadyIdentifying = !concurrentContext.beginIdentifyingIfNotIdentifying( new IdentifyModule( module, recursive, concurrentContext ) );
+					boolean alreadyIdentifying = !concurrentContext.beginIdentifyingIfNotIdentifying( new IdentifyModule( module, recursive, inheritedExclusions, parentId, concurrentContext ) );
 					if( alreadyIdentifying )
 					{
 						// Another thread is already in the process of
 						// identifying this specification, so we'll wait for
-						// them to finish
-						final String id = getVerbosity() > 1 ? begin( "Waiting for identification of " + module.getSpecification() ) : null;
-						concurrentContext.onIdentified( new IdentifiedModule( module, id ) );
+						// them to finish. When they are done our
+						// IdentifyModule will run again, find their result,
+						// and walk the dependencies with our own exclusions,
+						// exactly as in the sequential cache hit
+						String waitingId = getVerbosity() > 1 ? begin( new Message( "Waiting for identification of ", module.getSpecification() ), parentId ) : null;
+						concurrentContext.onIdentified( new IdentifiedModule( module, waitingId ) );
 						return;
 					}
 				}
 
-				String id = begin( "Identifying " + module.getSpecification() );
+				id = begin( new Message( "Identifying ", module.getSpecification() ), parentId );
+				module.setIdentificationStart( start );
 
 				// Gather allowed module identifiers from all repositories
+				long time = System.nanoTime();
+				String routingKey = module.getSpecification().getRoutingKey();
 				Set<ModuleIdentifier> allowedModuleIdentifiers = new LinkedHashSet<ModuleIdentifier>();
-				for( Repository repository : context.getRepositories() )
-					for( ModuleIdentifier allowedModuleIdentifier : repository.getAllowedModuleIdentifiers( module.getSpecification(), this ) )
-						allowedModuleIdentifiers.add( allowedModuleIdentifier );
+				getAllowedModuleIdentifiers( module, context.getRepositories(), routingKey, routes, allowedModuleIdentifiers );
+				if( allowedModuleIdentifiers.isEmpty() && !context.getSkippedRepositories().isEmpty() )
+				{
+					// Routing might be wrong
+					if( getVerbosity() > 1 )
+						info( "Querying skipped repositories for " + module.getSpecification() );
+					getAllowedModuleIdentifiers( module, context.getSkippedRepositories(), routingKey, routes, allowedModuleIdentifiers );
+				}
+				module.addMetaDataTime( System.nanoTime() - time );
 
 				// Pick the best module identifier
 				if( !allowedModuleIdentifiers.isEmpty() )
@@ -1236,25 +1484,32 @@ public class Engine extends Notifier implements Runnable
 
 					// Best module is last (newest)
 					ModuleIdentifier moduleIdentifier = moduleIdentifiers.getLast();
+					time = System.nanoTime();
 					identifiedModule = moduleIdentifier.getRepository().getModule( moduleIdentifier, this );
+					module.addDescriptorTime( System.nanoTime() - time );
 
 					if( identifiedModule != null )
-						end( id, "Identified " + identifiedModule.getIdentifier() + " in " + identifiedModule.getIdentifier().getRepository().getId() + " repository" );
+						end( id, new Message( "Identified ", identifiedModule.getIdentifier(), " in ", identifiedModule.getIdentifier().getRepository().getId(), " repository" ) );
 					else
-						fail( id, "Could not get module " + moduleIdentifier + " from " + moduleIdentifier.getRepository().getId() + " repository" );
+						fail( id, new Message( "Could not get module ", moduleIdentifier, " from ", moduleIdentifier.getRepository().getId(), " repository" ) );
 				}
 				else
-					fail( id, "Could not identify " + module.getSpecification() );
+					fail( id, new Message( "Could not identify ", module.getSpecification() ) );
+
+				module.setIdentificationEnd( System.nanoTime() );
 			}
 			else
 			{
 				if( getVerbosity() > 1 )
-					info( "Already identified " + identifiedModule.getIdentifier() + " in " + identifiedModule.getIdentifier().getRepository().getId() + " repository" );
+					info( new Message( "Already identified ", identifiedModule.getIdentifier(), " in ", identifiedModule.getIdentifier().getRepository().getId(), " repository" ) );
 				identifiedCacheHits.incrementAndGet();
 			}
 
 			if( identifiedModule != null )
 				module.copyIdentificationFrom( identifiedModule );
+
+			if( flightEvent != null )
+				flightEvent.commit( module.getSpecification().toString(), identifiedModule != null ? identifiedModule.getIdentifier().getRepository().getId() : null, cacheHit );
 		}
 
 		addModule( module );
@@ -1264,20 +1519,52 @@ public class Engine extends Notifier implements Runnable
 
 		if( context.isRecursive() )
 		{
-			// Identify dependencies recursively
-			if( concurrentContext != null )
+			// Exclusions apply to the entire subtree
+			Collection<Rule> exclusions = inheritedExclusions;
+			Iterator<Rule> i = module.getExclusions().iterator();
+			if( i.hasNext() )
 			{
-				for( Module dependency : module.getDependencies() )
-					concurrentContext.identifyModule( new IdentifyModule( dependency, true, concurrentContext ) );
+				exclusions = new ArrayList<Rule>( inheritedExclusions );
+				while( i.hasNext() )
+					exclusions.add( i.next() );
 			}
-			else
+
+			// Identify dependencies recursively (they were spawned by our
+			// identification, if there was one)
+			String dependencyParentId = id != null ? id : parentId;
+			for( Module dependency : module.getDependencies() )
 			{
-				for( Module dependency : module.getDependencies() )
-					identifyModule( dependency, true, null );
+				if( isExcluded( dependency, exclusions ) )
+				{
+					if( getVerbosity() > 1 )
+						info( "Excluded " + dependency.getSpecification() + " from dependencies of " + module.getSpecification() );
+					continue;
+				}
+
+				if( concurrentContext != null )
+					concurrentContext.identifyModule( new IdentifyModule( dependency, true, exclusions, dependencyParentId, concurrentContext ) );
+				else
+					identifyModule( dependency, true, exclusions, dependencyParentId, null );
 			}
 		}
 	}
 
+	private boolean isExcluded( Module module, Collection<Rule> exclusions )
+	{
+		for( Rule exclusion : exclusions )
+			for( Repository repository : getRepositories() )
+			{
+				Command command = repository.applyRule( module, exclusion, null );
+				if( command != null )
+				{
+					if( "excludeModule".equals( command.getType() ) )
+						return true;
+					break;
+				}
+			}
+		return false;
+	}
+
 	@SuppressWarnings("unchecked")
 	private void applyRules( Module module, IdentificationContext context )
 	{
@@ -1320,6 +1607,7 @@ public class Engine extends Notifier implements Runnable
 			{
 				StringBuilder ids = new StringBuilder();
 				context.getRepositories().clear();
+				context.getSkippedRepositories().clear();
 				for( String id : (Iterable<String>) command.get( "repositories" ) )
 					for( Repository repository : getRepositories() )
 						if( id.equals( repository.getId() ) )
@@ -1337,52 +1625,813 @@ public class Engine extends Notifier implements Runnable
 		}
 	}
 
-	private void addModule( Module module )
+	private void runWithCaches( Stage stage, RunStatistics statistics )
 	{
-		if( module.getIdentifier() != null )
-			identifiedModules.addByIdentifier( module );
-		else
-			unidentifiedModules.addBySpecification( module );
-	}
+		if( stage == Stage.VERIFY )
+		{
+			long time = System.currentTimeMillis();
+			FlightEvent flightEvent = beginStage( Stage.VERIFY );
+			Verification verification = verify();
+			endStage( Stage.VERIFY, time, flightEvent, statistics );
+			if( !verification.isIntact() )
+				throw new CreelException( "Installed artifacts are not intact" );
+			return;
+		}
 
-	private void replaceModule( Module oldModule, Module newModule )
-	{
-		for( ListIterator<Module> i = modules.listIterator(); i.hasNext(); )
+		NegativeCache negativeCache;
+		try
 		{
-			Module explicitModule = i.next();
-			if( ( explicitModule.getIdentifier() != null ) && ( explicitModule.getIdentifier().equals( oldModule.getIdentifier() ) ) )
+			negativeCache = new NegativeCache( getNegativeCacheFile(), getNegativeCacheTtl() * 1000L );
+		}
+		catch( IOException x )
+		{
+			error( "Could not load negative cache: " + getNegativeCacheFile(), x );
+			try
 			{
-				explicitModule = newModule;
-				i.set( explicitModule );
-				explicitModule.setExplicit( true );
+				negativeCache = new NegativeCache( null, getNegativeCacheTtl() * 1000L );
+			}
+			catch( IOException xx )
+			{
+				throw new CreelException( xx );
 			}
-			explicitModule.replaceModule( oldModule, newModule, true );
 		}
-	}
 
-	private State loadState()
-	{
-		try
+		for( Repository repository : getRepositories() )
 		{
-			State state = new State( getStateFile(), getFactory(), getDirectories() );
-			if( getVerbosity() > 0 )
-				info( "Loaded state from " + getStateFile() );
-			return state;
+			repository.reset();
+			repository.setNegativeCache( negativeCache );
+			repository.setStatistics( statistics );
 		}
-		catch( FileNotFoundException x )
+
+		Routes routes = null;
+		if( isRouting() )
 		{
-			return null;
+			File routesFile = null;
+			try
+			{
+				routesFile = getRoutesFile();
+				routes = new Routes( routesFile );
+			}
+			catch( IOException x )
+			{
+				error( "Could not load routes: " + routesFile, x );
+			}
 		}
-		catch( IOException x )
+		this.routes = routes;
+
+		DigestCache digestCache = loadDigestCache();
+		for( Repository repository : getRepositories() )
+			repository.setDigestCache( digestCache );
+
+		try
+		{
+			run( stage, negativeCache, digestCache, statistics );
+		}
+		finally
 		{
+			this.routes = null;
+
+			statistics.addCacheLookups( RunStatistics.Cache.NEGATIVE, negativeCache.getHitCount(), negativeCache.getLookupCount() );
+			statistics.addCacheLookups( RunStatistics.Cache.DIGEST, digestCache.getHitCount(), digestCache.getLookupCount() );
+
 			try
 			{
-				throw new CreelException( "Could not load state from " + getStateFile(), x );
+				negativeCache.save();
 			}
-			catch( IOException xx )
+			catch( IOException x )
 			{
-				throw new CreelException( xx );
+				error( "Could not save negative cache: " + negativeCache.getFile(), x );
+			}
+
+			if( routes != null )
+			{
+				try
+				{
+					routes.save();
+				}
+				catch( IOException x )
+				{
+					error( "Could not save routes: " + routes.getFile(), x );
+				}
 			}
+
+			saveDigestCache( digestCache );
+		}
+	}
+
+	private void run( Stage stage, NegativeCache negativeCache, DigestCache digestCache, RunStatistics statistics )
+	{
+		info( "Creel " + getVersion() + " running " + ( stage != Stage.ALL ? "until " : "" ) + stage.toString().toLowerCase() );
+
+		State state = loadState();
+		boolean stateChanged = false;
+
+		// Files downloaded during this run, whose recorded digests may be stale
+		Set<File> downloadedFiles = new HashSet<File>();
+
+		// Redundant artifacts can be known only if all modules were installed
+		boolean installed = false;
+
+		// Identification
+
+		if( stage.getValue() >= Stage.IDENTIFICATION.getValue() )
+		{
+			long time = System.currentTimeMillis();
+			FlightEvent flightEvent = beginStage( Stage.IDENTIFICATION );
+			String id = begin( "Identifying" );
+
+			if( isMultithreaded() )
+			{
+				// Using threads-per-host is a simplification here: the threads
+				// may actually be spread across many hosts. But it's still a
+				// good value for the maximum concurrency we want to allow.
+				ConcurrentIdentificationContext concurrentContext = new ConcurrentIdentificationContext( getThreadsPerHost() );
+				this.concurrentContext = concurrentContext;
+				try
+				{
+					for( Module explicitModule : getModules() )
+						concurrentContext.identifyModule( new IdentifyModule( explicitModule, true, Collections.<Rule> emptyList(), id, concurrentContext ) );
+				}
+				finally
+				{
+					concurrentContext.close();
+					this.concurrentContext = null;
+				}
+			}
+			else
+			{
+				for( Module explicitModule : getModules() )
+					identifyModule( explicitModule, true, Collections.<Rule> emptyList(), id, null );
+			}
+
+			if( isCancelled() )
+			{
+				fail( id, "Cancelled" );
+				throw new CreelException( "Cancelled" );
+			}
+
+			int identifiedCount = identifiedModules.size();
+
+			// Resolve conflicts
+			conflicts.find( getIdentifiedModules() );
+			conflicts.resolve( getConflictPolicy(), getVerbosity() > 0 ? this : null );
+			for( Conflict conflict : getConflicts() )
+			{
+				for( Module reject : conflict.getRejects() )
+				{
+					identifiedModules.remove( reject.getIdentifier() );
+					replaceModule( reject, conflict.getChosen() );
+				}
+			}
+
+			// Sort for human readability
+			identifiedModules.sortByIdentifiers();
+			unidentifiedModules.sortBySpecifications();
+
+			if( identifiedCount == 0 )
+				end( id, "No modules identified" );
+			else
+				end( id, "Made " + identifiedCount + ( identifiedCount != 1 ? " identifications" : " identification" ) );
+
+			endStage( Stage.IDENTIFICATION, time, flightEvent, statistics );
+		}
+
+		// Installation
+
+		if( stage.getValue() >= Stage.INSTALLATION.getValue() )
+		{
+			if( getIdentifiedModules().iterator().hasNext() && !getUnidentifiedModules().iterator().hasNext() )
+			{
+				long time = System.currentTimeMillis();
+				FlightEvent flightEvent = beginStage( Stage.INSTALLATION );
+				String installingId = begin( "Installing" );
+
+				Downloader downloader = new Downloader( isMultithreaded() ? getThreadsPerHost() : 1, isMultithreaded() ? getChunksPerFile() : 1, getMinimumSizeForChunking(), this );
+				this.downloader = downloader;
+				try
+				{
+					downloader.setManaged( isManaged() );
+					downloader.setDelay( getDelay() );
+					downloader.setNegativeCache( negativeCache );
+					downloader.setStatistics( statistics );
+					for( Module module : identifiedModules )
+					{
+						for( Artifact artifact : module.getIdentifier().getArtifacts( getDirectories(), isFlat() ) )
+						{
+							if( isOverwrite() || !artifact.getFile().exists() )
+							{
+								// Download and validate
+								downloader.submit( artifact.getSourceUrl(), artifact.getFile(), artifact.getType() != Artifact.Type.LIBRARY, module.getIdentifier().getRepository().validateArtifactTask( module.getIdentifier(), artifact, this ) );
+								downloadedFiles.add( artifact.getFile() );
+							}
+							else
+								// Only validate
+								downloader.submit( module.getIdentifier().getRepository().validateArtifactTask( module.getIdentifier(), artifact, this ) );
+							installedArtifacts.add( artifact );
+						}
+					}
+					downloader.waitUntilDone();
+				}
+				finally
+				{
+					this.downloader = null;
+					downloader.close();
+					endStage( Stage.INSTALLATION, time, flightEvent, statistics );
+				}
+
+				if( downloader.isCancelled() )
+				{
+					// Keep the previous state, as with any other aborted run
+					fail( installingId, "Cancelled" );
+					throw new CreelException( "Cancelled" );
+				}
+
+				int errorCount = 0;
+				for( Iterator<Throwable> i = downloader.getExceptions().iterator(); i.hasNext(); i.next() )
+					errorCount++;
+
+				if( errorCount > 0 )
+				{
+					deleteState(); // TODO: good idea?
+					String message = "Had " + errorCount + ( errorCount != 1 ? " errors during installation" : " error during installation" );
+					fail( installingId, message );
+					throw new CreelException( message );
+				}
+
+				int installedCount = downloader.getCount();
+
+				// Unpacking
+
+				if( ( stage.getValue() >= Stage.UNPACKING.getValue() ) && ( getDirectories().getDefault() != null ) )
+				{
+					time = System.currentTimeMillis();
+					flightEvent = beginStage( Stage.UNPACKING );
+					File rootDir = getDirectories().getDefault();
+					List<Artifact> libraries = new ArrayList<Artifact>();
+					for( Artifact artifact : getInstalledArtifacts() )
+						if( ( artifact.getType() == Artifact.Type.LIBRARY ) && artifact.exists() )
+							libraries.add( artifact );
+
+					// Scan only Jars that have changed since they were last
+					// unpacked
+					List<File> jarFiles = new ArrayList<File>();
+					Map<File, byte[]> digests = new HashMap<File, byte[]>();
+					int unchangedCount = 0, fingerprintCount = 0;
+					Set<File> libraryFiles = new HashSet<File>();
+					for( Artifact library : libraries )
+					{
+						File jarFile = library.getFile();
+						libraryFiles.add( jarFile );
+
+						if( ( state != null ) && !isOverwrite() )
+						{
+							byte[] digest = null;
+							try
+							{
+								digest = digestCache.getDigest( jarFile, DigestUtil.SHA_256 );
+							}
+							catch( IOException x )
+							{
+								error( "Could not access " + jarFile, x );
+							}
+
+							Fingerprint fingerprint = state.getFingerprint( jarFile );
+							if( fingerprint != null )
+							{
+								fingerprintCount++;
+								if( fingerprint.matches( digest, rootDir ) && fingerprint.getDigestAlgorithm().equals( DigestUtil.SHA_256 ) && isUnchanged( fingerprint, state, digestCache ) )
+								{
+									for( File output : fingerprint.getOutputs() )
+										installedArtifacts.add( state.getArtifact( output ) );
+									unchangedCount++;
+									continue;
+								}
+								if( state.removeFingerprint( jarFile ) )
+									stateChanged = true;
+							}
+
+							if( digest != null )
+								digests.put( jarFile, digest );
+						}
+
+						jarFiles.add( jarFile );
+					}
+
+					if( state != null )
+					{
+						// Forget Jars that are no longer installed
+						List<File> forgotten = new ArrayList<File>();
+						for( Fingerprint fingerprint : state.getFingerprints() )
+							if( !libraryFiles.contains( fingerprint.getFile() ) )
+								forgotten.add( fingerprint.getFile() );
+						for( File jarFile : forgotten )
+							if( state.removeFingerprint( jarFile ) )
+								stateChanged = true;
+					}
+
+					statistics.addCacheLookups( RunStatistics.Cache.FINGERPRINT, unchangedCount, fingerprintCount );
+					if( ( unchangedCount > 0 ) && ( getVerbosity() > 1 ) )
+						info( "Skipped " + unchangedCount + ( unchangedCount != 1 ? " unchanged libraries" : " unchanged library" ) );
+
+					if( !jarFiles.isEmpty() )
+					{
+						// The class loader is used only for package resources and
+						// installers
+						ArtifactsClassLoader classLoader = new ArtifactsClassLoader( libraries );
+						ExecutorService executor = isMultithreaded() ? Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors(), DaemonThreadFactory.INSTANCE ) : null;
+						Map<File, com.threecrickets.creel.packaging.Package> packages = Collections.emptyMap();
+						boolean scanned = false, ranInstallers = false;
+						try
+						{
+							try
+							{
+								packages = PackagingUtil.getPackages( jarFiles, classLoader, rootDir, executor );
+								scanned = true;
+							}
+							catch( IOException x )
+							{
+								error( "Could not scan for packages", x );
+							}
+
+							for( File jarFile : jarFiles )
+							{
+								byte[] digest = digests.get( jarFile );
+								com.threecrickets.creel.packaging.Package thePackage = packages.get( jarFile );
+								if( thePackage == null )
+								{
+									if( ( digest != null ) && scanned )
+									{
+										state.putFingerprint( new Fingerprint( jarFile, digest, DigestUtil.SHA_256, rootDir, Collections.<File> emptyList() ) );
+										stateChanged = true;
+									}
+									continue;
+								}
+
+								// Packages with installers or resources must always
+								// be processed
+								Fingerprint fingerprint = null;
+								if( ( digest != null ) && ( thePackage.getInstaller() == null ) )
+								{
+									List<File> outputs = new ArrayList<File>();
+									for( Artifact artifact : thePackage )
+									{
+										if( artifact.getSourceArchive() == null )
+										{
+											outputs = null;
+											break;
+										}
+										outputs.add( artifact.getFile() );
+									}
+									if( outputs != null )
+										fingerprint = new Fingerprint( jarFile, digest, DigestUtil.SHA_256, rootDir, outputs );
+								}
+
+								if( !thePackage.iterator().hasNext() )
+								{
+									if( fingerprint != null )
+									{
+										state.putFingerprint( fingerprint );
+										stateChanged = true;
+									}
+									continue;
+								}
+
+								String unpackingId = begin( "Unpacking " + thePackage.getSourceFile() );
+								try
+								{
+									List<Artifact> copyArtifacts = unpack( thePackage, state, digestCache, executor );
+
+									for( Artifact artifact : thePackage )
+										installedArtifacts.add( artifact );
+
+									for( Artifact artifact : copyArtifacts )
+									{
+										artifact.updateDigest( digestCache );
+										if( ( state != null ) && state.updateArtifact( artifact ) )
+											stateChanged = true;
+										if( getVerbosity() > 1 )
+											info( new Message( "Unpacked ", artifact.getFile() ) );
+									}
+
+									int unpackedCount = copyArtifacts.size();
+									installedCount += unpackedCount;
+									statistics.addUnpacked( unpackedCount );
+
+									if( fingerprint != null )
+									{
+										state.putFingerprint( fingerprint );
+										stateChanged = true;
+									}
+
+									if( unpackedCount == 0 )
+										end( unpackingId, "No new files to unpack from " + thePackage.getSourceFile() );
+									else
+										end( unpackingId, "Unpacked " + unpackedCount + ( unpackedCount != 1 ? " new files from " : " file from " ) + thePackage.getSourceFile() );
+								}
+								catch( IOException x )
+								{
+									fail( unpackingId, "Could not unpack " + thePackage.getSourceFile(), x );
+								}
+							}
+
+							// Run installers
+
+							for( com.threecrickets.creel.packaging.Package thePackage : packages.values() )
+							{
+								String installer = thePackage.getInstaller();
+								if( installer != null )
+								{
+									ranInstallers = true;
+									try
+									{
+										ClassUtil.main( classLoader, installer.split( " " ) );
+									}
+									catch( Throwable x )
+									{
+										error( "Could not run installer: " + installer, x );
+									}
+								}
+							}
+
+							// TODO: uninstallers?
+						}
+						finally
+						{
+							if( executor != null )
+								executor.shutdownNow();
+							for( com.threecrickets.creel.packaging.Package thePackage : packages.values() )
+							{
+								try
+								{
+									thePackage.close();
+								}
+								catch( IOException x )
+								{
+								}
+							}
+
+							// Installers might still be using the class loader
+							if( !ranInstallers )
+							{
+								try
+								{
+									classLoader.close();
+								}
+								catch( IOException x )
+								{
+								}
+							}
+						}
+					}
+
+					endStage( Stage.UNPACKING, time, flightEvent, statistics );
+				}
+
+				if( installedCount == 0 )
+					end( installingId, "No new artifacts to install" );
+				else
+					end( installingId, "Installed " + installedCount + ( installedCount != 1 ? " new artifacts" : " new artifact" ) );
+				installed = true;
+			}
+			else
+			{
+				// We still save the state below (fingerprints, digests, and
+				// the format might have changed)
+				if( !getIdentifiedModules().iterator().hasNext() )
+					info( "Did not install because no modules have been identified" );
+				else if( getUnidentifiedModules().iterator().hasNext() )
+					info( "Did not install because could not identify all modules" );
+			}
+		}
+
+		// Delete redundant
+
+		if( installed && ( stage.getValue() >= Stage.DELETE_REDUNDANT.getValue() ) && ( state != null ) )
+		{
+			Iterable<Artifact> redundantArtifacts = state.getRedundantArtifacts( getInstalledArtifacts() );
+			if( redundantArtifacts.iterator().hasNext() )
+			{
+				long time = System.currentTimeMillis();
+				FlightEvent flightEvent = beginStage( Stage.DELETE_REDUNDANT );
+				String id = begin( "Deleting redundant artifacts" );
+
+				int deletedCount = 0;
+
+				for( Artifact redundantArtifact : redundantArtifacts )
+				{
+					boolean delete = false;
+
+					if( !redundantArtifact.isVolatile() )
+						delete = true;
+					else
+					{
+						try
+						{
+							if( !redundantArtifact.wasModified( digestCache ) )
+								delete = true;
+							else
+								info( "Modified, so not deleting " + redundantArtifact.getFile() );
+						}
+						catch( IOException x )
+						{
+							error( "Could not access " + redundantArtifact.getFile() );
+						}
+					}
+
+					if( delete )
+					{
+						if( redundantArtifact.delete( getDirectories() ) )
+						{
+							if( getVerbosity() > 1 )
+								info( new Message( "Deleted ", redundantArtifact.getFile() ) );
+							if( state.removeArtifact( redundantArtifact ) )
+								stateChanged = true;
+							deletedCount++;
+						}
+						else
+							error( "Could not delete " + redundantArtifact.getFile() );
+					}
+				}
+
+				if( deletedCount > 0 )
+					end( id, "Deleted " + deletedCount + ( deletedCount != 1 ? " redundant artifacts" : " redundant artifact" ) );
+				else
+					end( id, "No redundant artifacts to delete" );
+
+				statistics.addDeleted( deletedCount );
+				endStage( Stage.DELETE_REDUNDANT, time, flightEvent, statistics );
+			}
+		}
+
+		if( state.addModules( getIdentifiedModules() ) )
+			stateChanged = true;
+
+		// Record digests, so that the installation can be verified later
+		for( Artifact artifact : getInstalledArtifacts() )
+		{
+			if( ( artifact.getDigest() != null ) || !artifact.exists() )
+				continue;
+			Artifact knownArtifact = state.getArtifact( artifact.getFile() );
+			if( ( knownArtifact != null ) && ( knownArtifact.getDigest() != null ) && !downloadedFiles.contains( artifact.getFile() ) )
+				continue;
+			try
+			{
+				artifact.updateDigest( digestCache );
+				if( state.updateArtifact( artifact ) )
+					stateChanged = true;
+			}
+			catch( IOException x )
+			{
+				error( "Could not access " + artifact.getFile(), x );
+			}
+		}
+
+		if( state.addArtifacts( getInstalledArtifacts() ) )
+			stateChanged = true;
+
+		if( stateChanged || state.isLegacy() )
+			saveState( state );
+	}
+
+	private void getAllowedModuleIdentifiers( Module module, Iterable<Repository> repositories, String routingKey, Routes routes, Set<ModuleIdentifier> allowedModuleIdentifiers )
+	{
+		for( Repository repository : repositories )
+		{
+			boolean served = false;
+			for( ModuleIdentifier allowedModuleIdentifier : repository.getAllowedModuleIdentifiers( module.getSpecification(), this ) )
+			{
+				allowedModuleIdentifiers.add( allowedModuleIdentifier );
+				served = true;
+			}
+
+			if( routes != null )
+			{
+				// A wrong miss (for disallowed versions or a failure) is
+				// harmless: skipped repositories are still queried if no other
+				// repository serves the module
+				if( served )
+					routes.hit( routingKey, repository );
+				else
+					routes.miss( routingKey, repository );
+			}
+		}
+	}
+
+	private FlightEvent beginStage( Stage stage )
+	{
+		if( isCancelled() )
+			throw new CreelException( "Cancelled" );
+		this.stage = stage;
+		return FlightEvent.STAGE.begin();
+	}
+
+	private void endStage( Stage stage, long time, FlightEvent flightEvent, RunStatistics statistics )
+	{
+		this.stage = null;
+		statistics.addStageTime( stage, System.currentTimeMillis() - time );
+		if( flightEvent != null )
+			flightEvent.commit( stage.name() );
+	}
+
+	private void addModule( Module module )
+	{
+		if( module.getIdentifier() != null )
+			identifiedModules.addByIdentifier( module );
+		else
+			unidentifiedModules.addBySpecification( module );
+	}
+
+	private void replaceModule( Module oldModule, Module newModule )
+	{
+		for( ListIterator<Module> i = modules.listIterator(); i.hasNext(); )
+		{
+			Module explicitModule = i.next();
+			if( ( explicitModule.getIdentifier() != null ) && ( explicitModule.getIdentifier().equals( oldModule.getIdentifier() ) ) )
+			{
+				explicitModule = newModule;
+				i.set( explicitModule );
+				explicitModule.setExplicit( true );
+			}
+			explicitModule.replaceModule( oldModule, newModule, true );
+		}
+	}
+
+	private State loadState()
+	{
+		try
+		{
+			State state = new State( getStateFile(), getFactory(), getDirectories() );
+			if( getVerbosity() > 0 )
+				info( "Loaded state from " + getStateFile() );
+			return state;
+		}
+		catch( FileNotFoundException x )
+		{
+			return null;
+		}
+		catch( IOException x )
+		{
+			try
+			{
+				throw new CreelException( "Could not load state from " + getStateFile(), x );
+			}
+			catch( IOException xx )
+			{
+				throw new CreelException( xx );
+			}
+		}
+	}
+
+	private List<Artifact> unpack( com.threecrickets.creel.packaging.Package thePackage, final State state, final DigestCache digestCache, ExecutorService executor ) throws IOException
+	{
+		List<Artifact> copyArtifacts = new ArrayList<Artifact>();
+
+		if( executor == null )
+			copyArtifacts.addAll( getArtifactsToCopy( thePackage, state, digestCache ) );
+		else
+		{
+			// Partition by target directory
+			Map<File, List<Artifact>> partitions = new LinkedHashMap<File, List<Artifact>>();
+			for( Artifact artifact : thePackage )
+			{
+				File dir = artifact.getFile().getParentFile();
+				List<Artifact> partition = partitions.get( dir );
+				if( partition == null )
+				{
+					partition = new ArrayList<Artifact>();
+					partitions.put( dir, partition );
+				}
+				partition.add( artifact );
+			}
+
+			List<Future<List<Artifact>>> futures = new ArrayList<Future<List<Artifact>>>( partitions.size() );
+			for( final List<Artifact> partition : partitions.values() )
+			{
+				futures.add( executor.submit( new Callable<List<Artifact>>()
+				{
+					public List<Artifact> call() throws IOException
+					{
+						return getArtifactsToCopy( partition, state, digestCache );
+					}
+				} ) );
+			}
+
+			try
+			{
+				for( Future<List<Artifact>> future : futures )
+					copyArtifacts.addAll( future.get() );
+			}
+			catch( InterruptedException x )
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException( "Unpacking interrupted" );
+			}
+			catch( ExecutionException x )
+			{
+				if( x.getCause() instanceof IOException )
+					throw (IOException) x.getCause();
+				throw new IOException( x.getCause() );
+			}
+		}
+
+		PackagingUtil.extract( thePackage, copyArtifacts, executor );
+		return copyArtifacts;
+	}
+
+	private boolean isUnchanged( Fingerprint fingerprint, State state, DigestCache digestCache )
+	{
+		for( File output : fingerprint.getOutputs() )
+		{
+			Artifact knownArtifact = state.getArtifact( output );
+			if( ( knownArtifact == null ) || !knownArtifact.exists() )
+				return false;
+
+			// Volatile files may be modified by the user
+			if( knownArtifact.isVolatile() )
+				continue;
+
+			if( knownArtifact.getDigest() == null )
+				return false;
+			if( ( knownArtifact.getSize() != -1 ) && ( output.length() != knownArtifact.getSize() ) )
+				return false;
+			try
+			{
+				if( knownArtifact.wasModified( digestCache ) )
+					return false;
+			}
+			catch( IOException x )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private List<Artifact> getArtifactsToCopy( Iterable<Artifact> artifacts, State state, DigestCache digestCache ) throws IOException
+	{
+		List<Artifact> copyArtifacts = new ArrayList<Artifact>();
+		for( Artifact artifact : artifacts )
+		{
+			boolean copy = false;
+
+			if( isOverwrite() || !artifact.exists() )
+				copy = true;
+			else
+			{
+				Artifact knownArtifact = state != null ? state.getArtifact( artifact.getFile() ) : null;
+				if( knownArtifact == null )
+					copy = true;
+				else
+				{
+					if( !knownArtifact.isVolatile() )
+						copy = artifact.isDifferent( digestCache );
+					else
+					{
+						if( !knownArtifact.wasModified( digestCache ) )
+							copy = artifact.isDifferent( digestCache );
+						else
+							info( new Message( "Modified, so not overwriting ", artifact.getFile() ) );
+					}
+				}
+			}
+
+			if( copy )
+				copyArtifacts.add( artifact );
+		}
+		return copyArtifacts;
+	}
+
+	private DigestCache loadDigestCache()
+	{
+		File digestCacheFile = null;
+		try
+		{
+			digestCacheFile = getDigestCacheFile();
+			return new DigestCache( digestCacheFile );
+		}
+		catch( IOException x )
+		{
+			error( "Could not load digest cache: " + digestCacheFile, x );
+			try
+			{
+				return new DigestCache( null );
+			}
+			catch( IOException xx )
+			{
+				throw new CreelException( xx );
+			}
+		}
+	}
+
+	private void saveDigestCache( DigestCache digestCache )
+	{
+		try
+		{
+			digestCache.save();
+		}
+		catch( IOException x )
+		{
+			error( "Could not save digest cache: " + digestCache.getFile(), x );
 		}
 	}
 
@@ -1393,6 +2442,7 @@ public class Engine extends Notifier implements Runnable
 			try
 			{
 				getStateFile().delete();
+				StateJournal.getFile( getStateFile() ).delete();
 			}
 			catch( FileNotFoundException x )
 			{
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2015-2017 Three Crickets LLC.
+ * <p>
+ * The contents of this file are subject to the terms of the LGPL version 3.0:
+ * http://www.gnu.org/copyleft/lesser.html
+ * <p>
+ * Alternatively, you can obtain a royalty free commercial license with less
+ * limitations, transferable or non-transferable, directly from Three Crickets
+ * at http://threecrickets.com/
+ */
+
+package com.threecrickets.creel;
+
+import java.util.Map;
+
+/**
+ * Live state of an {@link Engine}, registered with JMX if
+ * {@link Engine#setManaged(boolean)} is enabled.
+ * <p>
+ * The state of the installation stage is in the {@link Engine}'s
+ * {@link com.threecrickets.creel.downloader.DownloaderMXBean}, which is
+ * registered separately while installing.
+ * 
+ * @author Tal Liron
+ */
+public interface EngineMXBean
+{
+	//
+	// Attributes
+	//
+
+	/**
+	 * The stage currently running.
+	 * 
+	 * @return The stage or null if not running
+	 */
+	public String getStage();
+
+	/**
+	 * Number of threads per host. Applies to a running identification or
+	 * installation, too.
+	 * 
+	 * @return Number of threads per host
+	 */
+	public int getThreadsPerHost();
+
+	/**
+	 * Number of threads per host. Applies to a running identification or
+	 * installation, too.
+	 * 
+	 * @param threadsPerHost
+	 *        Number of threads per host
+	 */
+	public void setThreadsPerHost( int threadsPerHost );
+
+	/**
+	 * Number of parties registered with the identification phaser: the
+	 * identification tasks that have not finished yet, plus one for the
+	 * engine itself.
+	 * 
+	 * @return The registered parties or 0 if not identifying concurrently
+	 */
+	public int getIdentificationParties();
+
+	/**
+	 * Number of identification tasks waiting for a thread.
+	 * 
+	 * @return The queue depth or 0 if not identifying concurrently
+	 */
+	public int getIdentificationQueueDepth();
+
+	/**
+	 * Number of threads running identification tasks.
+	 * 
+	 * @return The active thread count or 0 if not identifying concurrently
+	 */
+	public int getIdentificationActiveThreads();
+
+	/**
+	 * Number of modules being identified right now.
+	 * 
+	 * @return The identifications in progress or 0 if not identifying
+	 *         concurrently
+	 */
+	public int getIdentificationsInProgress();
+
+	/**
+	 * Number of modules identified so far.
+	 * 
+	 * @return The identified count
+	 */
+	public int getIdentifiedCount();
+
+	/**
+	 * Number of modules that could not be identified so far.
+	 * 
+	 * @return The unidentified count
+	 */
+	public int getUnidentifiedCount();
+
+	/**
+	 * The cumulative counters of the current or last run.
+	 * 
+	 * @return The counters as in {@link RunStatistics#toProperties()}
+	 */
+	public Map<String, String> getCounters();
+
+	/**
+	 * Whether the current run was cancelled, or cancellation was requested
+	 * before the next run.
+	 * 
+	 * @return True if cancelled
+	 */
+	public boolean isCancelled();
+
+	//
+	// Operations
+	//
+
+	/**
+	 * Cancels the current run, which will throw a
+	 * {@link com.threecrickets.creel.exception.CreelException}. If there is no
+	 * current run, the next run is cancelled.
+	 */
+	public void cancel();
+}
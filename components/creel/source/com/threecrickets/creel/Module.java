@@ -153,6 +153,99 @@ public class Module
 		return Collections.unmodifiableCollection( new ArrayList<Module>( supplicants ) );
 	}
 
+	/**
+	 * The module's exclusions: rules matching modules that should not be
+	 * identified anywhere in this module's dependency subtree.
+	 * 
+	 * @return The exclusion rules
+	 */
+	public synchronized Iterable<Rule> getExclusions()
+	{
+		return Collections.unmodifiableCollection( new ArrayList<Rule>( exclusions ) );
+	}
+
+	/**
+	 * When this module instance started being identified, as
+	 * {@link System#nanoTime()}, or 0 if it was not identified by this
+	 * instance.
+	 * 
+	 * @return The start timestamp in nanoseconds
+	 */
+	public long getIdentificationStart()
+	{
+		return identificationStart;
+	}
+
+	/**
+	 * When this module instance started being identified, as
+	 * {@link System#nanoTime()}.
+	 * 
+	 * @param identificationStart
+	 *        The start timestamp in nanoseconds
+	 */
+	public void setIdentificationStart( long identificationStart )
+	{
+		this.identificationStart = identificationStart;
+	}
+
+	/**
+	 * When this module instance finished being identified (whether successful
+	 * or not), as {@link System#nanoTime()}, or 0 if it was not identified by
+	 * this instance.
+	 * 
+	 * @return The end timestamp in nanoseconds
+	 */
+	public long getIdentificationEnd()
+	{
+		return identificationEnd;
+	}
+
+	/**
+	 * When this module instance finished being identified (whether successful
+	 * or not), as {@link System#nanoTime()}.
+	 * 
+	 * @param identificationEnd
+	 *        The end timestamp in nanoseconds
+	 */
+	public void setIdentificationEnd( long identificationEnd )
+	{
+		this.identificationEnd = identificationEnd;
+	}
+
+	/**
+	 * Time spent during identification getting the allowed module identifiers
+	 * from the repositories (for Maven, fetching the metadata).
+	 * 
+	 * @return The time in nanoseconds
+	 */
+	public long getMetaDataTime()
+	{
+		return metaDataTime;
+	}
+
+	/**
+	 * Time spent during identification getting the identified module from its
+	 * repository (for Maven, fetching the POM and its parents).
+	 * 
+	 * @return The time in nanoseconds
+	 */
+	public long getDescriptorTime()
+	{
+		return descriptorTime;
+	}
+
+	/**
+	 * Time spent waiting for other threads: for a free thread to identify
+	 * this module, or for another thread already identifying the same
+	 * specification.
+	 * 
+	 * @return The time in nanoseconds
+	 */
+	public long getWaitTime()
+	{
+		return waitTime;
+	}
+
 	//
 	// Operations
 	//
@@ -182,6 +275,42 @@ public class Module
 		return Collections.unmodifiableMap( config );
 	}
 
+	/**
+	 * Adds to the time spent getting the allowed module identifiers.
+	 * 
+	 * @param time
+	 *        The time in nanoseconds
+	 * @see #getMetaDataTime()
+	 */
+	public synchronized void addMetaDataTime( long time )
+	{
+		metaDataTime += time;
+	}
+
+	/**
+	 * Adds to the time spent getting the identified module.
+	 * 
+	 * @param time
+	 *        The time in nanoseconds
+	 * @see #getDescriptorTime()
+	 */
+	public synchronized void addDescriptorTime( long time )
+	{
+		descriptorTime += time;
+	}
+
+	/**
+	 * Adds to the time spent waiting for other threads.
+	 * 
+	 * @param time
+	 *        The time in nanoseconds
+	 * @see #getWaitTime()
+	 */
+	public synchronized void addWaitTime( long time )
+	{
+		waitTime += time;
+	}
+
 	/**
 	 * Sets another module as a dependency of this module. Makes sure that
 	 * duplicate dependencies are not added.
@@ -204,6 +333,18 @@ public class Module
 			dependencies.add( module );
 	}
 
+	/**
+	 * Adds an exclusion, which will apply to this module's entire dependency
+	 * subtree.
+	 * 
+	 * @param exclusion
+	 *        The exclusion rule
+	 */
+	public synchronized void addExclusion( Rule exclusion )
+	{
+		exclusions.add( exclusion );
+	}
+
 	/**
 	 * Sets another module as a supplicant of this module. Makes sure that
 	 * duplicate supplicants are not added.
@@ -385,4 +526,16 @@ public class Module
 	private final List<Module> dependencies = new ArrayList<Module>();
 
 	private final List<Module> supplicants = new ArrayList<Module>();
+
+	private final List<Rule> exclusions = new ArrayList<Rule>();
+
+	private volatile long identificationStart;
+
+	private volatile long identificationEnd;
+
+	private volatile long metaDataTime;
+
+	private volatile long descriptorTime;
+
+	private volatile long waitTime;
 }
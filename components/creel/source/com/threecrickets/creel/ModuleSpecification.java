@@ -81,6 +81,19 @@ public abstract class ModuleSpecification implements Cloneable
 		return Collections.unmodifiableCollection( allowedModuleIdentifiers );
 	}
 
+	/**
+	 * A hierarchical key used to learn which repositories serve this
+	 * specification, with parts separated by ".". Shorter prefixes of the key
+	 * are considered to be related. Defaults to null, meaning that no routing
+	 * is learned.
+	 * 
+	 * @return The routing key or null
+	 */
+	public String getRoutingKey()
+	{
+		return null;
+	}
+
 	//
 	// Cloneable
 	//
@@ -17,6 +17,8 @@ import java.util.Objects;
 import com.threecrickets.creel.event.Notifier;
 import com.threecrickets.creel.exception.InvalidArtifactException;
 import com.threecrickets.creel.util.ConfigHelper;
+import com.threecrickets.creel.util.DigestCache;
+import com.threecrickets.creel.util.NegativeCache;
 
 /**
  * Base class for repositories.
@@ -115,10 +117,83 @@ public abstract class Repository implements Cloneable
 		return all;
 	}
 
+	/**
+	 * The cache of URLs known to not exist.
+	 * 
+	 * @return The negative cache or null
+	 */
+	public NegativeCache getNegativeCache()
+	{
+		return negativeCache;
+	}
+
+	/**
+	 * The cache of URLs known to not exist.
+	 * 
+	 * @param negativeCache
+	 *        The negative cache or null
+	 */
+	public void setNegativeCache( NegativeCache negativeCache )
+	{
+		this.negativeCache = negativeCache;
+	}
+
+	/**
+	 * The cache of file digests.
+	 * 
+	 * @return The digest cache or null
+	 */
+	public DigestCache getDigestCache()
+	{
+		return digestCache;
+	}
+
+	/**
+	 * The cache of file digests.
+	 * 
+	 * @param digestCache
+	 *        The digest cache or null
+	 */
+	public void setDigestCache( DigestCache digestCache )
+	{
+		this.digestCache = digestCache;
+	}
+
+	/**
+	 * Where to count requests.
+	 * 
+	 * @return The statistics or null
+	 */
+	public RunStatistics getStatistics()
+	{
+		return statistics;
+	}
+
+	/**
+	 * Where to count requests.
+	 * 
+	 * @param statistics
+	 *        The statistics or null
+	 */
+	public void setStatistics( RunStatistics statistics )
+	{
+		this.statistics = statistics;
+	}
+
 	//
 	// Operations
 	//
 
+	/**
+	 * Called by the engine at the beginning of each run. Repositories should
+	 * discard anything they remembered from previous runs.
+	 * <p>
+	 * The default implementation does nothing.
+	 */
+	public void reset()
+	{
+	}
+
 	/**
 	 * Finds all modules in the repository that match the module specification.
 	 * The result is sorted, such that the oldest module is first and the newest
@@ -264,4 +339,10 @@ public abstract class Repository implements Cloneable
 	private final String id;
 
 	private final boolean all;
+
+	private volatile NegativeCache negativeCache;
+
+	private volatile DigestCache digestCache;
+
+	private volatile RunStatistics statistics;
 }
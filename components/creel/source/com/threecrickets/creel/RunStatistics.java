@@ -0,0 +1,503 @@
+/**
+ * Copyright 2015-2017 Three Crickets LLC.
+ * <p>
+ * The contents of this file are subject to the terms of the LGPL version 3.0:
+ * http://www.gnu.org/copyleft/lesser.html
+ * <p>
+ * Alternatively, you can obtain a royalty free commercial license with less
+ * limitations, transferable or non-transferable, directly from Three Crickets
+ * at http://threecrickets.com/
+ */
+
+package com.threecrickets.creel;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.threecrickets.creel.util.IoUtil;
+
+/**
+ * Measurements of a single run: how long each stage took, how many requests
+ * were made to remote repositories, how many bytes were downloaded, and how
+ * well the caches worked.
+ * <p>
+ * Requests are counted by their status: 200 if successful, 404 if not found,
+ * and 0 if failed for any other reason. Requests to "file:" URLs are not
+ * counted.
+ * <p>
+ * Instances are thread-safe.
+ * 
+ * @author Tal Liron
+ * @see Engine#getStatistics()
+ */
+public class RunStatistics
+{
+	//
+	// Constants
+	//
+
+	/**
+	 * Request kind.
+	 */
+	public enum Request
+	{
+		/**
+		 * Repository metadata ("maven-metadata.xml").
+		 */
+		METADATA,
+		/**
+		 * Module POM.
+		 */
+		POM,
+		/**
+		 * Signature (".sha1" or ".md5").
+		 */
+		SIGNATURE,
+		/**
+		 * Artifact download, including each chunk of a chunked download.
+		 */
+		ARTIFACT,
+		/**
+		 * Existence or header check.
+		 */
+		HEAD
+	};
+
+	/**
+	 * Cache kind.
+	 */
+	public enum Cache
+	{
+		/**
+		 * Modules already identified during this run.
+		 */
+		IDENTIFICATION,
+		/**
+		 * URLs known to not exist.
+		 */
+		NEGATIVE,
+		/**
+		 * Stored POMs.
+		 */
+		POM,
+		/**
+		 * File digests.
+		 */
+		DIGEST,
+		/**
+		 * Libraries that have not changed since they were last unpacked.
+		 */
+		FINGERPRINT
+	};
+
+	/**
+	 * Status of a successful request.
+	 */
+	public static final int OK = 200;
+
+	/**
+	 * Status of a request for something that does not exist.
+	 */
+	public static final int NOT_FOUND = 404;
+
+	/**
+	 * Status of a request that failed for any other reason.
+	 */
+	public static final int FAILED = 0;
+
+	//
+	// Static operations
+	//
+
+	/**
+	 * The status of a failed request.
+	 * 
+	 * @param x
+	 *        The exception
+	 * @return {@link #NOT_FOUND} or {@link #FAILED}
+	 */
+	public static int getStatus( IOException x )
+	{
+		return x instanceof FileNotFoundException ? NOT_FOUND : FAILED;
+	}
+
+	/**
+	 * The status of a probe (see {@link IoUtil#probe(URL)}). Only a definite
+	 * "not found" or "gone" counts as {@link #NOT_FOUND}.
+	 * 
+	 * @param status
+	 *        The HTTP status or 0
+	 * @return {@link #OK}, {@link #NOT_FOUND}, or {@link #FAILED}
+	 */
+	public static int getStatus( int status )
+	{
+		if( status == OK )
+			return OK;
+		return IoUtil.isMissing( status ) ? NOT_FOUND : FAILED;
+	}
+
+	//
+	// Construction
+	//
+
+	/**
+	 * Constructor.
+	 */
+	public RunStatistics()
+	{
+		for( Request request : Request.values() )
+			requests.put( request, new ConcurrentHashMap<Integer, AtomicLong>() );
+		for( Cache cache : Cache.values() )
+		{
+			cacheHits.put( cache, new AtomicLong() );
+			cacheLookups.put( cache, new AtomicLong() );
+		}
+	}
+
+	//
+	// Attributes
+	//
+
+	/**
+	 * The wall time of the whole run in milliseconds.
+	 * 
+	 * @return The time
+	 */
+	public long getTime()
+	{
+		return time.get();
+	}
+
+	/**
+	 * The wall time of a stage in milliseconds. Unpacking is not included in
+	 * installation.
+	 * 
+	 * @param stage
+	 *        The stage
+	 * @return The time, or 0 if the stage did not run
+	 */
+	public long getStageTime( Engine.Stage stage )
+	{
+		AtomicLong stageTime = stageTimes.get( stage );
+		return stageTime != null ? stageTime.get() : 0;
+	}
+
+	/**
+	 * The number of requests of a kind.
+	 * 
+	 * @param request
+	 *        The request kind
+	 * @return The count
+	 */
+	public long getRequestCount( Request request )
+	{
+		long count = 0;
+		for( AtomicLong statusCount : requests.get( request ).values() )
+			count += statusCount.get();
+		return count;
+	}
+
+	/**
+	 * The number of requests of a kind by status.
+	 * 
+	 * @param request
+	 *        The request kind
+	 * @return The counts by status
+	 */
+	public Map<Integer, Long> getRequestCounts( Request request )
+	{
+		return Collections.unmodifiableMap( snapshot( requests.get( request ) ) );
+	}
+
+	/**
+	 * The number of bytes downloaded by host.
+	 * 
+	 * @return The byte counts by host
+	 */
+	public Map<String, Long> getBytesByHost()
+	{
+		return Collections.unmodifiableMap( snapshot( bytesByHost ) );
+	}
+
+	/**
+	 * The number of files unpacked.
+	 * 
+	 * @return The count
+	 */
+	public int getUnpackedCount()
+	{
+		return unpackedCount.get();
+	}
+
+	/**
+	 * The number of redundant artifacts deleted.
+	 * 
+	 * @return The count
+	 */
+	public int getDeletedCount()
+	{
+		return deletedCount.get();
+	}
+
+	/**
+	 * The number of cache hits.
+	 * 
+	 * @param cache
+	 *        The cache kind
+	 * @return The count
+	 */
+	public long getCacheHits( Cache cache )
+	{
+		return cacheHits.get( cache ).get();
+	}
+
+	/**
+	 * The number of cache lookups.
+	 * 
+	 * @param cache
+	 *        The cache kind
+	 * @return The count
+	 */
+	public long getCacheLookups( Cache cache )
+	{
+		return cacheLookups.get( cache ).get();
+	}
+
+	/**
+	 * The ratio of cache hits to cache lookups.
+	 * 
+	 * @param cache
+	 *        The cache kind
+	 * @return The ratio (0.0 to 1.0), or 0.0 if there were no lookups
+	 */
+	public double getCacheHitRatio( Cache cache )
+	{
+		long lookups = getCacheLookups( cache );
+		return lookups > 0 ? (double) getCacheHits( cache ) / (double) lookups : 0.0;
+	}
+
+	//
+	// Operations
+	//
+
+	/**
+	 * Adds to the wall time of the whole run.
+	 * 
+	 * @param time
+	 *        The time in milliseconds
+	 */
+	public void addTime( long time )
+	{
+		this.time.addAndGet( time );
+	}
+
+	/**
+	 * Adds to the wall time of a stage.
+	 * 
+	 * @param stage
+	 *        The stage
+	 * @param time
+	 *        The time in milliseconds
+	 */
+	public void addStageTime( Engine.Stage stage, long time )
+	{
+		add( stageTimes, stage, time );
+	}
+
+	/**
+	 * Counts a request.
+	 * 
+	 * @param request
+	 *        The request kind
+	 * @param url
+	 *        The URL
+	 * @param status
+	 *        The status
+	 */
+	public void addRequest( Request request, URL url, int status )
+	{
+		if( IoUtil.toFile( url ) == null )
+			add( requests.get( request ), status, 1 );
+	}
+
+	/**
+	 * Counts downloaded bytes.
+	 * 
+	 * @param url
+	 *        The URL
+	 * @param bytes
+	 *        The byte count
+	 */
+	public void addBytes( URL url, long bytes )
+	{
+		if( IoUtil.toFile( url ) == null )
+			add( bytesByHost, url.getHost(), bytes );
+	}
+
+	/**
+	 * Counts unpacked files.
+	 * 
+	 * @param count
+	 *        The count
+	 */
+	public void addUnpacked( int count )
+	{
+		unpackedCount.addAndGet( count );
+	}
+
+	/**
+	 * Counts deleted artifacts.
+	 * 
+	 * @param count
+	 *        The count
+	 */
+	public void addDeleted( int count )
+	{
+		deletedCount.addAndGet( count );
+	}
+
+	/**
+	 * Counts a cache lookup.
+	 * 
+	 * @param cache
+	 *        The cache kind
+	 * @param hit
+	 *        True if it was a hit
+	 */
+	public void addCacheLookup( Cache cache, boolean hit )
+	{
+		addCacheLookups( cache, hit ? 1 : 0, 1 );
+	}
+
+	/**
+	 * Counts cache lookups.
+	 * 
+	 * @param cache
+	 *        The cache kind
+	 * @param hits
+	 *        The number of hits
+	 * @param lookups
+	 *        The number of lookups
+	 */
+	public void addCacheLookups( Cache cache, long hits, long lookups )
+	{
+		cacheHits.get( cache ).addAndGet( hits );
+		cacheLookups.get( cache ).addAndGet( lookups );
+	}
+
+	/**
+	 * Represents the statistics as flat properties, for example
+	 * "request.pom.404" or "cache.negative.ratio". Times are in milliseconds.
+	 * 
+	 * @return The properties
+	 */
+	public SortedMap<String, String> toProperties()
+	{
+		SortedMap<String, String> properties = new TreeMap<String, String>();
+		properties.put( "time", Long.toString( getTime() ) );
+		for( Map.Entry<Engine.Stage, Long> entry : snapshot( stageTimes ).entrySet() )
+			properties.put( "stage." + name( entry.getKey() ) + ".time", entry.getValue().toString() );
+		for( Request request : Request.values() )
+		{
+			properties.put( "request." + name( request ), Long.toString( getRequestCount( request ) ) );
+			for( Map.Entry<Integer, Long> entry : getRequestCounts( request ).entrySet() )
+				properties.put( "request." + name( request ) + '.' + entry.getKey(), entry.getValue().toString() );
+		}
+		for( Map.Entry<String, Long> entry : getBytesByHost().entrySet() )
+			properties.put( "bytes." + entry.getKey(), entry.getValue().toString() );
+		properties.put( "unpacked", Integer.toString( getUnpackedCount() ) );
+		properties.put( "deleted", Integer.toString( getDeletedCount() ) );
+		for( Cache cache : Cache.values() )
+		{
+			properties.put( "cache." + name( cache ) + ".hits", Long.toString( getCacheHits( cache ) ) );
+			properties.put( "cache." + name( cache ) + ".lookups", Long.toString( getCacheLookups( cache ) ) );
+			properties.put( "cache." + name( cache ) + ".ratio", String.format( Locale.ROOT, "%.3f", getCacheHitRatio( cache ) ) );
+		}
+		return properties;
+	}
+
+	/**
+	 * Prints the statistics as properties, one per line.
+	 * 
+	 * @param writer
+	 *        The writer
+	 */
+	public void print( PrintWriter writer )
+	{
+		for( Map.Entry<String, String> entry : toProperties().entrySet() )
+			writer.println( entry.getKey() + '=' + entry.getValue() );
+	}
+
+	//
+	// Object
+	//
+
+	@Override
+	public String toString()
+	{
+		long requestCount = 0;
+		for( Request request : Request.values() )
+			requestCount += getRequestCount( request );
+		long bytes = 0;
+		for( long hostBytes : getBytesByHost().values() )
+			bytes += hostBytes;
+		return getTime() + " ms, " + requestCount + " requests, " + bytes + " bytes, " + getUnpackedCount() + " unpacked, " + getDeletedCount() + " deleted";
+	}
+
+	// //////////////////////////////////////////////////////////////////////////
+	// Private
+
+	private final AtomicLong time = new AtomicLong();
+
+	private final ConcurrentMap<Engine.Stage, AtomicLong> stageTimes = new ConcurrentHashMap<Engine.Stage, AtomicLong>();
+
+	private final Map<Request, ConcurrentMap<Integer, AtomicLong>> requests = new EnumMap<Request, ConcurrentMap<Integer, AtomicLong>>( Request.class );
+
+	private final ConcurrentMap<String, AtomicLong> bytesByHost = new ConcurrentHashMap<String, AtomicLong>();
+
+	private final AtomicInteger unpackedCount = new AtomicInteger();
+
+	private final AtomicInteger deletedCount = new AtomicInteger();
+
+	private final Map<Cache, AtomicLong> cacheHits = new EnumMap<Cache, AtomicLong>( Cache.class );
+
+	private final Map<Cache, AtomicLong> cacheLookups = new EnumMap<Cache, AtomicLong>( Cache.class );
+
+	private static <K> void add( ConcurrentMap<K, AtomicLong> counts, K key, long value )
+	{
+		AtomicLong count = counts.get( key );
+		if( count == null )
+		{
+			count = new AtomicLong();
+			AtomicLong existing = counts.putIfAbsent( key, count );
+			if( existing != null )
+				count = existing;
+		}
+		count.addAndGet( value );
+	}
+
+	private static <K extends Comparable<K>> SortedMap<K, Long> snapshot( Map<K, AtomicLong> counts )
+	{
+		SortedMap<K, Long> snapshot = new TreeMap<K, Long>();
+		for( Map.Entry<K, AtomicLong> entry : counts.entrySet() )
+			snapshot.put( entry.getKey(), entry.getValue().get() );
+		return snapshot;
+	}
+
+	private static String name( Enum<?> value )
+	{
+		return value.toString().toLowerCase().replace( '_', '-' );
+	}
+}
\ No newline at end of file
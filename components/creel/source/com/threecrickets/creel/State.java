@@ -12,30 +12,42 @@
 package com.threecrickets.creel;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
 import com.threecrickets.creel.exception.CreelException;
+import com.threecrickets.creel.internal.BinaryState;
+import com.threecrickets.creel.internal.StateJournal;
+import com.threecrickets.creel.packaging.Fingerprint;
 import com.threecrickets.creel.util.IoUtil;
 import com.threecrickets.creel.util.MultiValueProperties;
 
 /**
- * A database of modules and artifacts that be saved to and loaded from a JVM
- * properties file.
+ * A database of modules, artifacts, and package fingerprints (see
+ * {@link Fingerprint}) that can be saved to and loaded from a
+ * compact binary file. Changes are appended to a journal file, which is
+ * replayed when loading and merged into the state file when it grows too
+ * large. Files in the older JVM properties format are still loaded, and are
+ * migrated when saved. Use {@link State#export(Writer)} to see the contents
+ * as text.
  * 
  * @author Tal Liron
  */
@@ -46,10 +58,10 @@ public class State
 	//
 
 	/**
-	 * Constructor. Loads the database from a JVM properties file if it exists.
+	 * Constructor. Loads the database from the state file if it exists.
 	 * 
 	 * @param file
-	 *        The JVM properties file
+	 *        The state file
 	 * @param factory
 	 *        The factory
 	 * @param directories
@@ -69,29 +81,50 @@ public class State
 		}
 
 		this.directories = directories;
+		journal = new StateJournal( this.file );
 
+		// Not memory-mapped, so that the file can be replaced while we are
+		// alive (see compact)
+		ByteBuffer buffer;
 		try
 		{
-			MultiValueProperties properties = new MultiValueProperties();
-			Reader reader = new BufferedReader( new FileReader( file ), IoUtil.bufferSize );
-			try
-			{
-				properties.load( reader );
-			}
-			finally
-			{
-				reader.close();
-			}
-
-			for( Map<String, String> config : properties.toMaps( "module" ) )
-				addModule( new Module( config, factory ) );
-
-			for( Map<String, String> config : properties.toMaps( "artifact" ) )
-				addArtifact( new Artifact( config, directories ) );
+			byte[] bytes = IoUtil.readBytes( file );
+			buffer = bytes != null ? ByteBuffer.wrap( bytes ) : null;
 		}
 		catch( FileNotFoundException x )
 		{
+			// No state yet
+			buffer = null;
 		}
+
+		if( buffer != null )
+			load( buffer, factory );
+
+		// Replay changes made since the last compaction
+		for( StateJournal.Record record : journal.read( generation ) )
+		{
+			switch( record.getType() )
+			{
+				case StateJournal.ADD_MODULE:
+					putModule( new Module( record.getConfig(), factory ) );
+					break;
+				case StateJournal.PUT_ARTIFACT:
+					updateArtifact( new Artifact( record.getConfig(), directories ) );
+					break;
+				case StateJournal.REMOVE_ARTIFACT:
+					removeArtifact( new Artifact( record.getConfig(), directories ) );
+					break;
+				case StateJournal.PUT_FINGERPRINT:
+					putFingerprint( new Fingerprint( record.getConfig() ) );
+					break;
+				case StateJournal.REMOVE_FINGERPRINT:
+					removeFingerprint( new File( record.getConfig().get( "file" ) ) );
+					break;
+			}
+		}
+
+		fixModules();
+		journaling = true;
 	}
 
 	//
@@ -108,6 +141,16 @@ public class State
 		return file;
 	}
 
+	/**
+	 * The journal file, to which changes are appended between compactions.
+	 * 
+	 * @return The journal file
+	 */
+	public File getJournalFile()
+	{
+		return journal.getFile();
+	}
+
 	/**
 	 * The directories in which to install artifacts.
 	 * 
@@ -118,6 +161,17 @@ public class State
 		return directories;
 	}
 
+	/**
+	 * Whether the state was loaded from the older JVM properties format. It
+	 * will be saved in the binary format.
+	 * 
+	 * @return True if legacy
+	 */
+	public boolean isLegacy()
+	{
+		return legacy;
+	}
+
 	/**
 	 * The modules in the database.
 	 * 
@@ -147,10 +201,41 @@ public class State
 	 */
 	public Artifact getArtifact( File file )
 	{
-		for( Artifact artifact : getArtifacts() )
-			if( file.equals( artifact.getFile() ) )
-				return artifact;
-		return null;
+		return artifactsByFile.get( file );
+	}
+
+	/**
+	 * Gets a module from the database if it already is there.
+	 * 
+	 * @param moduleIdentifier
+	 *        The module identifier
+	 * @return The module or null if not found
+	 */
+	public Module getModule( ModuleIdentifier moduleIdentifier )
+	{
+		return modulesByIdentifier.get( moduleIdentifier );
+	}
+
+	/**
+	 * The package fingerprints in the database.
+	 * 
+	 * @return The fingerprints
+	 */
+	public Iterable<Fingerprint> getFingerprints()
+	{
+		return Collections.unmodifiableCollection( fingerprints.values() );
+	}
+
+	/**
+	 * Gets a package fingerprint from the database if it already is there.
+	 * 
+	 * @param file
+	 *        The Jar file
+	 * @return The fingerprint or null if not found
+	 */
+	public Fingerprint getFingerprint( File file )
+	{
+		return fingerprints.get( file );
 	}
 
 	/**
@@ -162,11 +247,13 @@ public class State
 	 */
 	public Iterable<Artifact> getRedundantArtifacts( Iterable<Artifact> allArtifacts )
 	{
-		Collection<Artifact> reundantArtifacts = new LinkedList<Artifact>();
-		for( Artifact artifact : getArtifacts() )
-			reundantArtifacts.add( artifact );
+		Set<Artifact> listedArtifacts = new HashSet<Artifact>();
 		for( Artifact artifact : allArtifacts )
-			reundantArtifacts.remove( artifact );
+			listedArtifacts.add( artifact );
+		Collection<Artifact> reundantArtifacts = new ArrayList<Artifact>();
+		for( Artifact artifact : getArtifacts() )
+			if( !listedArtifacts.contains( artifact ) )
+				reundantArtifacts.add( artifact );
 		return Collections.unmodifiableCollection( reundantArtifacts );
 	}
 
@@ -185,11 +272,8 @@ public class State
 	 */
 	public boolean addModule( Module module )
 	{
-		ModuleIdentifier moduleIdentifier = module.getIdentifier();
-		for( Module m : getModules() )
-			if( moduleIdentifier.equals( m.getIdentifier() ) )
-				return false;
-		modules.add( module );
+		if( !putModule( module ) )
+			return false;
 		fixModules();
 		return true;
 	}
@@ -197,7 +281,8 @@ public class State
 	/**
 	 * Adds modules to the database.
 	 * <p>
-	 * The modules must be identified.
+	 * The modules must be identified. Supplicants are linked once for the
+	 * whole batch.
 	 * 
 	 * @param modules
 	 *        The modules
@@ -207,8 +292,10 @@ public class State
 	{
 		boolean added = false;
 		for( Module module : modules )
-			if( addModule( module ) )
+			if( putModule( module ) )
 				added = true;
+		if( added )
+			fixModules();
 		return added;
 	}
 
@@ -221,7 +308,37 @@ public class State
 	 */
 	public boolean addArtifact( Artifact artifact )
 	{
-		return artifacts.add( artifact );
+		if( !artifacts.add( artifact ) )
+			return false;
+		artifactsByFile.put( artifact.getFile(), artifact );
+		if( journaling )
+			pendingRecords.add( new StateJournal.Record( StateJournal.PUT_ARTIFACT, artifact.toConfig( getDirectories() ) ) );
+		return true;
+	}
+
+	/**
+	 * Adds an artifact to the database, or replaces it if its digest has
+	 * changed.
+	 * 
+	 * @param artifact
+	 *        The artifact
+	 * @return True if added or replaced, false if already in database
+	 */
+	public boolean updateArtifact( Artifact artifact )
+	{
+		Artifact existing = getArtifact( artifact.getFile() );
+		if( existing != null )
+		{
+			if( Arrays.equals( existing.getDigest(), artifact.getDigest() ) )
+				return false;
+			artifacts.remove( existing );
+			artifactsByFile.remove( existing.getFile() );
+		}
+		artifacts.add( artifact );
+		artifactsByFile.put( artifact.getFile(), artifact );
+		if( journaling )
+			pendingRecords.add( new StateJournal.Record( StateJournal.PUT_ARTIFACT, artifact.toConfig( getDirectories() ) ) );
+		return true;
 	}
 
 	/**
@@ -249,19 +366,107 @@ public class State
 	 */
 	public boolean removeArtifact( Artifact artifact )
 	{
-		return artifacts.remove( artifact );
+		if( !artifacts.remove( artifact ) )
+			return false;
+		artifactsByFile.remove( artifact.getFile() );
+		if( journaling )
+			pendingRecords.add( new StateJournal.Record( StateJournal.REMOVE_ARTIFACT, artifact.toConfig( getDirectories() ) ) );
+		return true;
+	}
+
+	/**
+	 * Adds a package fingerprint to the database, replacing the existing one
+	 * for the same Jar file.
+	 * 
+	 * @param fingerprint
+	 *        The fingerprint
+	 */
+	public void putFingerprint( Fingerprint fingerprint )
+	{
+		fingerprints.put( fingerprint.getFile(), fingerprint );
+		if( journaling )
+			pendingRecords.add( new StateJournal.Record( StateJournal.PUT_FINGERPRINT, fingerprint.toConfig() ) );
 	}
 
 	/**
-	 * Saves the database to the JVM properties file.
+	 * Removes a package fingerprint from the database.
+	 * 
+	 * @param file
+	 *        The Jar file
+	 * @return True if removed, false if not in database
+	 */
+	public boolean removeFingerprint( File file )
+	{
+		if( fingerprints.remove( file ) == null )
+			return false;
+		if( journaling )
+			pendingRecords.add( new StateJournal.Record( StateJournal.REMOVE_FINGERPRINT, Collections.singletonMap( "file", file.getPath() ) ) );
+		return true;
+	}
+
+	/**
+	 * Saves changes to the database.
+	 * <p>
+	 * Usually the changes are appended to the journal, so that the cost is
+	 * proportional to the size of the changes. The database is compacted
+	 * instead if the state file does not exist yet, is in the older format, or
+	 * if the journal has grown larger than the state file.
 	 * 
 	 * @throws IOException
 	 *         In case of an I/O error
 	 */
 	public void save() throws IOException
+	{
+		if( legacy || !file.exists() || ( journal.length() > file.length() ) )
+			compact();
+		else
+		{
+			journal.append( pendingRecords, generation );
+			pendingRecords.clear();
+		}
+	}
+
+	/**
+	 * Writes the whole database to the state file, in the binary format, and
+	 * empties the journal. The state file is replaced atomically, and gets a
+	 * new generation, so that if we fail to delete the journal it will be
+	 * ignored.
+	 * 
+	 * @throws IOException
+	 *         In case of an I/O error
+	 */
+	public void compact() throws IOException
 	{
 		Files.createDirectories( file.toPath().getParent() );
 
+		Collection<Map<String, Object>> moduleConfigs = new ArrayList<Map<String, Object>>();
+		for( Module module : getModules() )
+			moduleConfigs.add( module.toConfig() );
+		Collection<Map<String, Object>> artifactConfigs = new ArrayList<Map<String, Object>>();
+		for( Artifact artifact : getArtifacts() )
+			artifactConfigs.add( artifact.toConfig( getDirectories() ) );
+		Collection<Map<String, Object>> fingerprintConfigs = new ArrayList<Map<String, Object>>();
+		for( Fingerprint fingerprint : getFingerprints() )
+			fingerprintConfigs.add( fingerprint.toConfig() );
+
+		int nextGeneration = generation + 1;
+		BinaryState.write( file, nextGeneration, moduleConfigs, artifactConfigs, fingerprintConfigs );
+		generation = nextGeneration;
+		journal.delete();
+		pendingRecords.clear();
+		legacy = false;
+	}
+
+	/**
+	 * Exports the database as JVM properties text. Useful for debugging.
+	 * 
+	 * @param writer
+	 *        The writer
+	 * @throws IOException
+	 *         In case of an I/O error
+	 */
+	public void export( Writer writer ) throws IOException
+	{
 		MultiValueProperties properties = new MultiValueProperties();
 
 		int index = 0;
@@ -276,16 +481,14 @@ public class State
 			Map<String, Object> config = artifact.toConfig( getDirectories() );
 			properties.putMap( "artifact", index++, config );
 		}
-
-		Writer writer = new BufferedWriter( new FileWriter( file ), IoUtil.bufferSize );
-		try
-		{
-			properties.store( writer, "Managed by Creel " + Engine.getVersion() );
-		}
-		finally
+		index = 0;
+		for( Fingerprint fingerprint : getFingerprints() )
 		{
-			writer.close();
+			Map<String, Object> config = fingerprint.toConfig();
+			properties.putMap( "fingerprint", index++, config );
 		}
+
+		properties.store( writer, "Managed by Creel " + Engine.getVersion() );
 	}
 
 	// //////////////////////////////////////////////////////////////////////////
@@ -295,23 +498,92 @@ public class State
 
 	private final Directories directories;
 
+	private final StateJournal journal;
+
+	private final List<StateJournal.Record> pendingRecords = new ArrayList<StateJournal.Record>();
+
+	private boolean journaling;
+
+	private boolean legacy;
+
+	private int generation;
+
 	private final ArrayList<Module> modules = new ArrayList<Module>();
 
+	private final Map<ModuleIdentifier, Module> modulesByIdentifier = new HashMap<ModuleIdentifier, Module>();
+
 	private final SortedSet<Artifact> artifacts = new TreeSet<Artifact>();
 
+	private final Map<File, Artifact> artifactsByFile = new HashMap<File, Artifact>();
+
+	private final Map<File, Fingerprint> fingerprints = new LinkedHashMap<File, Fingerprint>();
+
+	private boolean putModule( Module module )
+	{
+		ModuleIdentifier moduleIdentifier = module.getIdentifier();
+		if( modulesByIdentifier.containsKey( moduleIdentifier ) )
+			return false;
+		modulesByIdentifier.put( moduleIdentifier, module );
+		modules.add( module );
+		if( journaling )
+			pendingRecords.add( new StateJournal.Record( StateJournal.ADD_MODULE, module.toConfig() ) );
+		return true;
+	}
+
+	private void load( ByteBuffer buffer, Factory factory ) throws IOException
+	{
+		Iterable<Map<String, String>> moduleConfigs, artifactConfigs, fingerprintConfigs;
+		if( BinaryState.isBinary( buffer ) )
+		{
+			Collection<Map<String, String>> modules = new ArrayList<Map<String, String>>();
+			Collection<Map<String, String>> artifacts = new ArrayList<Map<String, String>>();
+			Collection<Map<String, String>> fingerprints = new ArrayList<Map<String, String>>();
+			generation = BinaryState.read( buffer, modules, artifacts, fingerprints );
+			moduleConfigs = modules;
+			artifactConfigs = artifacts;
+			fingerprintConfigs = fingerprints;
+		}
+		else
+		{
+			// Older properties format: will be migrated on the next save
+			legacy = true;
+			MultiValueProperties properties = new MultiValueProperties();
+			Reader reader = new BufferedReader( new FileReader( file ), IoUtil.bufferSize );
+			try
+			{
+				properties.load( reader );
+			}
+			finally
+			{
+				reader.close();
+			}
+			moduleConfigs = properties.toMaps( "module" );
+			artifactConfigs = properties.toMaps( "artifact" );
+			fingerprintConfigs = Collections.emptyList();
+		}
+
+		for( Map<String, String> config : moduleConfigs )
+			putModule( new Module( config, factory ) );
+
+		for( Map<String, String> config : artifactConfigs )
+			addArtifact( new Artifact( config, getDirectories() ) );
+
+		for( Map<String, String> config : fingerprintConfigs )
+			putFingerprint( new Fingerprint( config ) );
+	}
+
 	private void fixModules()
 	{
 		// Replace all supplicants with existing instances
 		for( Module module : modules )
 			for( Module supplicant : module.getSupplicants() )
 			{
-				ModuleIdentifier supplicantIdentifier = supplicant.getIdentifier();
-				for( Module m : modules )
-					if( supplicantIdentifier.equals( m.getIdentifier() ) )
-					{
-						module.removeSupplicant( supplicant );
-						module.addSupplicant( m );
-					}
+				Module m = modulesByIdentifier.get( supplicant.getIdentifier() );
+				if( ( m != null ) && ( m != supplicant ) )
+				{
+					module.removeSupplicant( supplicant );
+					module.addSupplicant( m );
+				}
 			}
 
 		// Match supplicants with dependents
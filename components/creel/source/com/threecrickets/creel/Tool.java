@@ -15,8 +15,9 @@ import java.io.File;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 
-import com.threecrickets.creel.event.ConsoleEventHandler;
 import com.threecrickets.creel.event.EventHandlers;
+import com.threecrickets.creel.event.ThrottledConsoleEventHandler;
+import com.threecrickets.creel.event.TraceEventHandler;
 import com.threecrickets.creel.util.ArgumentsHelper;
 
 /**
@@ -29,7 +30,8 @@ import com.threecrickets.creel.util.ArgumentsHelper;
  * arguments in the properties file, though explicit command line values will
  * override them.
  * <p>
- * Unless "--quiet" is activated, will use a {@link ConsoleEventHandler}.
+ * Unless "--quiet" is activated, will use a
+ * {@link ThrottledConsoleEventHandler}.
  * 
  * @author Tal Liron
  */
@@ -42,6 +44,8 @@ public class Tool
 	public static void main( String[] arguments )
 	{
 		Engine engine = null;
+		ThrottledConsoleEventHandler consoleEventHandler = null;
+		TraceEventHandler traceEventHandler = null;
 
 		try
 		{
@@ -78,6 +82,12 @@ public class Tool
 			String statePath = configuration.getProperty( "state", null );
 			statePath = argumentsHelper.getString( "state", "t", statePath );
 
+			String negativePath = configuration.getProperty( "negative", null );
+			negativePath = argumentsHelper.getString( "negative", "n", negativePath );
+
+			int ttl = configuration.getInteger( "ttl", 24 * 60 * 60 );
+			ttl = argumentsHelper.getInteger( "ttl", "T", ttl );
+
 			int end = configuration.getInteger( "end", Engine.Stage.ALL.getValue() );
 			end = argumentsHelper.getInteger( "end", "e", end );
 
@@ -102,9 +112,40 @@ public class Tool
 			boolean multithreaded = configuration.getBoolean( "multithreaded", true );
 			multithreaded = argumentsHelper.getBoolean( "multithreaded", "m", multithreaded );
 
+			boolean asynchronous = configuration.getBoolean( "asynchronous", true );
+			asynchronous = argumentsHelper.getBoolean( "asynchronous", "y", asynchronous );
+
+			boolean routing = configuration.getBoolean( "routing", true );
+			routing = argumentsHelper.getBoolean( "routing", "r", routing );
+
+			boolean verify = argumentsHelper.hasSwitch( "verify", "V" );
+
+			boolean export = configuration.getBoolean( "export", false );
+			export = export || argumentsHelper.hasSwitch( "export", "x" );
+
+			boolean statistics = configuration.getBoolean( "statistics", false );
+			statistics = statistics || argumentsHelper.hasSwitch( "statistics", "S" );
+
+			boolean criticalPath = configuration.getBoolean( "criticalPath", false );
+			criticalPath = criticalPath || argumentsHelper.hasSwitch( "critical-path", "C" );
+
+			String tracePath = configuration.getProperty( "trace", null );
+			tracePath = argumentsHelper.getString( "trace", "g", tracePath );
+
+			boolean jmx = configuration.getBoolean( "jmx", false );
+			jmx = jmx || argumentsHelper.hasSwitch( "jmx", "j" );
+
 			engine = new Engine();
 			if( !quiet )
-				( (EventHandlers) engine.getEventHandler() ).add( new ConsoleEventHandler( ansi, verbosity > 1 ) );
+			{
+				consoleEventHandler = new ThrottledConsoleEventHandler( ansi, verbosity > 1 );
+				( (EventHandlers) engine.getEventHandler() ).add( consoleEventHandler );
+			}
+			if( tracePath != null )
+			{
+				traceEventHandler = new TraceEventHandler( new File( tracePath ) );
+				( (EventHandlers) engine.getEventHandler() ).add( traceEventHandler );
+			}
 
 			engine.info( "Loading configuration: " + configFile );
 
@@ -113,18 +154,65 @@ public class Tool
 			engine.getDirectories().setApi( apiPath );
 			engine.getDirectories().setSource( sourcePath );
 			engine.setStateFile( statePath );
+			engine.setNegativeCacheFile( negativePath != null ? new File( negativePath ) : null );
+			engine.setNegativeCacheTtl( ttl );
 			engine.getFactory().setDefaultPlatform( defaultPlatform );
 			engine.setVerbosity( verbosity );
 			engine.setOverwrite( overwrite );
 			engine.setFlat( flat );
 			engine.setMultithreaded( multithreaded );
+			engine.setAsynchronousEvents( asynchronous );
+			engine.setRouting( routing );
 			engine.setModules( configuration.getModuleSpecificationConfigs() );
 			engine.setRepositories( configuration.getRepositoryConfigs() );
 			engine.setRules( configuration.getRuleConfigs() );
+			engine.setManaged( jmx );
 
-			engine.run( end );
+			Verification verification = null;
+			try
+			{
+				if( verify )
+					verification = engine.verify();
+				else
+					engine.run( end );
+			}
+			finally
+			{
+				engine.setManaged( false );
+				if( consoleEventHandler != null )
+					consoleEventHandler.close();
+				if( traceEventHandler != null )
+					traceEventHandler.close();
+			}
+
+			if( verification != null )
+			{
+				verification.print( new PrintWriter( System.out, true ) );
+				if( !verification.isIntact() )
+					System.exit( 1 );
+				return;
+			}
 
-			new Report( engine.load() ).print( new PrintWriter( System.out, true ) );
+			State state = engine.load();
+			new Report( state ).print( new PrintWriter( System.out, true ) );
+			if( statistics )
+			{
+				PrintWriter writer = new PrintWriter( System.out, true );
+				engine.getStatistics().print( writer );
+				writer.flush();
+			}
+			if( criticalPath )
+			{
+				PrintWriter writer = new PrintWriter( System.out, true );
+				new CriticalPath( engine ).print( writer );
+				writer.flush();
+			}
+			if( export && ( state != null ) )
+			{
+				PrintWriter writer = new PrintWriter( System.out, true );
+				state.export( writer );
+				writer.flush();
+			}
 		}
 		catch( Throwable x )
 		{
@@ -132,6 +220,7 @@ public class Tool
 				engine.error( x );
 			else
 				x.printStackTrace( System.err );
+			System.exit( 1 );
 		}
 	}
 
@@ -154,7 +243,10 @@ public class Tool
 		out.println( "  --api=, -i              Download API artifacts to directory (do not download by default)" );
 		out.println( "  --source=, -s           Download source artifacts to directory (do not download by default)" );
 		out.println( "  --state=, -t            State file (default: [default dir]/.creel, or [current dir]/.creel if default not set)" );
+		out.println( "  --negative=, -n         Remember missing URLs between runs in file (default: only during run)" );
+		out.println( "  --ttl=, -T              How long to remember missing URLs, in seconds (default: 86400)" );
 		out.println( "  --end=, -e              At which stage to end: 1=identify, 2=install, 3=unpack, 4=delete redundant (default: 4)" );
+		out.println( "  --verify, -V            Only verify installed artifacts against the state; exits with 1 if not intact" );
 		out.println( "  --platform=, -p         Set default platform (default: mvn)" );
 		out.println( "  --quiet, -q             Quiet mode: don't output anything" );
 		out.println( "  --verbosity=, -v        Output verbosity (default: 1)" );
@@ -162,6 +254,13 @@ public class Tool
 		out.println( "  --overwrite, -w         Overwrite files if they already exist" );
 		out.println( "  --flat, -f              Flat file structure (no subdirectories)" );
 		out.println( "  --multithreaded=, -m    Set multi-threaded mode (default: true)" );
+		out.println( "  --asynchronous=, -y     Output on a separate thread, skipping progress updates if behind (default: true)" );
+		out.println( "  --routing=, -r          Learn which repositories serve which groups (default: true)" );
+		out.println( "  --export, -x            Print the state file as text after running" );
+		out.println( "  --statistics, -S        Print timings, request counts and cache hits after running" );
+		out.println( "  --critical-path, -C     Print the slowest chain of identifications and the repositories that slowed it" );
+		out.println( "  --trace=, -g            Write a trace of the run to file in Chrome trace-event format (view in Perfetto)" );
+		out.println( "  --jmx, -j               Expose live state over JMX while running, including operations to cancel and to change threads per host" );
 		out.println();
 		out.println( "For more information see: https://github.com/tliron/creel" );
 	}
@@ -0,0 +1,300 @@
+/**
+ * Copyright 2015-2017 Three Crickets LLC.
+ * <p>
+ * The contents of this file are subject to the terms of the LGPL version 3.0:
+ * http://www.gnu.org/copyleft/lesser.html
+ * <p>
+ * Alternatively, you can obtain a royalty free commercial license with less
+ * limitations, transferable or non-transferable, directly from Three Crickets
+ * at http://threecrickets.com/
+ */
+
+package com.threecrickets.creel;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import com.threecrickets.creel.util.DigestCache;
+
+/**
+ * The result of verifying installed artifacts against the state.
+ * 
+ * @author Tal Liron
+ * @see Engine#verify()
+ */
+public class Verification
+{
+	//
+	// Constants
+	//
+
+	/**
+	 * Artifact status.
+	 */
+	public enum Status
+	{
+		/**
+		 * Exists and matches the stored digest.
+		 */
+		INTACT,
+		/**
+		 * Exists, but there is no stored digest to compare with.
+		 */
+		UNVERIFIED,
+		/**
+		 * Volatile, so it is allowed to change and is not checked.
+		 */
+		SKIPPED,
+		/**
+		 * Does not exist.
+		 */
+		MISSING,
+		/**
+		 * Its size or digest is different from what was stored.
+		 */
+		MODIFIED,
+		/**
+		 * Could not be read.
+		 */
+		CORRUPT
+	};
+
+	//
+	// Static operations
+	//
+
+	/**
+	 * Checks an artifact. The cheap checks (existence and size) are done
+	 * first, and the content is hashed only if the digest cache does not
+	 * already know it. Volatile artifacts are skipped.
+	 * 
+	 * @param artifact
+	 *        The artifact
+	 * @param digestCache
+	 *        The digest cache or null
+	 * @return The status
+	 */
+	public static Status check( Artifact artifact, DigestCache digestCache )
+	{
+		Status status = checkWithoutDigest( artifact );
+		if( status != null )
+			return status;
+		try
+		{
+			return artifact.wasModified( digestCache ) ? Status.MODIFIED : Status.INTACT;
+		}
+		catch( IOException x )
+		{
+			return Status.CORRUPT;
+		}
+	}
+
+	/**
+	 * Does only the cheap checks of an artifact, which do not read its
+	 * content.
+	 * 
+	 * @param artifact
+	 *        The artifact
+	 * @return The status, or null if the artifact's current digest must be
+	 *         compared to decide
+	 * @see #check(Artifact, byte[])
+	 */
+	public static Status checkWithoutDigest( Artifact artifact )
+	{
+		if( artifact.isVolatile() )
+			return Status.SKIPPED;
+		if( !artifact.exists() )
+			return Status.MISSING;
+		if( ( artifact.getSize() != -1 ) && ( artifact.getFile().length() != artifact.getSize() ) )
+			return Status.MODIFIED;
+		if( artifact.getDigest() == null )
+			return Status.UNVERIFIED;
+		return null;
+	}
+
+	/**
+	 * Compares an artifact's stored digest with its current digest.
+	 * 
+	 * @param artifact
+	 *        The artifact
+	 * @param currentDigest
+	 *        The current digest, calculated with the artifact's digest
+	 *        algorithm
+	 * @return The status
+	 */
+	public static Status check( Artifact artifact, byte[] currentDigest )
+	{
+		return Arrays.equals( artifact.getDigest(), currentDigest ) ? Status.INTACT : Status.MODIFIED;
+	}
+
+	//
+	// Attributes
+	//
+
+	/**
+	 * Whether all artifacts are intact. Unverified artifacts do not count
+	 * against this, unless none of the artifacts could be verified.
+	 * 
+	 * @return True if intact
+	 */
+	public boolean isIntact()
+	{
+		return missing.isEmpty() && modified.isEmpty() && corrupt.isEmpty() && !isNothingVerified();
+	}
+
+	/**
+	 * Whether there were artifacts to check, but none of them could be
+	 * verified because they have no stored digest.
+	 * 
+	 * @return True if nothing was verified
+	 */
+	public boolean isNothingVerified()
+	{
+		return ( intactCount == 0 ) && !unverified.isEmpty();
+	}
+
+	/**
+	 * The number of volatile artifacts that were not checked.
+	 * 
+	 * @return The count
+	 */
+	public int getSkippedCount()
+	{
+		return skippedCount;
+	}
+
+	/**
+	 * The number of intact artifacts.
+	 * 
+	 * @return The count
+	 */
+	public int getIntactCount()
+	{
+		return intactCount;
+	}
+
+	/**
+	 * Artifacts that exist but could not be verified because they have no
+	 * stored digest.
+	 * 
+	 * @return The artifacts
+	 */
+	public Iterable<Artifact> getUnverified()
+	{
+		return Collections.unmodifiableCollection( unverified );
+	}
+
+	/**
+	 * Artifacts that do not exist.
+	 * 
+	 * @return The artifacts
+	 */
+	public Iterable<Artifact> getMissing()
+	{
+		return Collections.unmodifiableCollection( missing );
+	}
+
+	/**
+	 * Artifacts whose size or digest are different from what was stored.
+	 * 
+	 * @return The artifacts
+	 */
+	public Iterable<Artifact> getModified()
+	{
+		return Collections.unmodifiableCollection( modified );
+	}
+
+	/**
+	 * Artifacts that could not be read.
+	 * 
+	 * @return The artifacts
+	 */
+	public Iterable<Artifact> getCorrupt()
+	{
+		return Collections.unmodifiableCollection( corrupt );
+	}
+
+	//
+	// Operations
+	//
+
+	/**
+	 * Adds an artifact's status.
+	 * 
+	 * @param artifact
+	 *        The artifact
+	 * @param status
+	 *        The status
+	 */
+	public void add( Artifact artifact, Status status )
+	{
+		switch( status )
+		{
+			case INTACT:
+				intactCount++;
+				break;
+			case UNVERIFIED:
+				unverified.add( artifact );
+				break;
+			case SKIPPED:
+				skippedCount++;
+				break;
+			case MISSING:
+				missing.add( artifact );
+				break;
+			case MODIFIED:
+				modified.add( artifact );
+				break;
+			case CORRUPT:
+				corrupt.add( artifact );
+				break;
+		}
+	}
+
+	/**
+	 * Prints the problems, one artifact per line.
+	 * 
+	 * @param writer
+	 *        The writer
+	 */
+	public void print( PrintWriter writer )
+	{
+		for( Artifact artifact : getMissing() )
+			writer.println( "missing: " + artifact.getFile() );
+		for( Artifact artifact : getModified() )
+			writer.println( "modified: " + artifact.getFile() );
+		for( Artifact artifact : getCorrupt() )
+			writer.println( "corrupt: " + artifact.getFile() );
+		if( isNothingVerified() )
+			writer.println( "unverified: no stored digests" );
+	}
+
+	//
+	// Object
+	//
+
+	@Override
+	public String toString()
+	{
+		return intactCount + " intact, " + unverified.size() + " unverified, " + skippedCount + " skipped, " + missing.size() + " missing, " + modified.size() + " modified, " + corrupt.size() + " corrupt";
+	}
+
+	// //////////////////////////////////////////////////////////////////////////
+	// Private
+
+	private int intactCount;
+
+	private int skippedCount;
+
+	private final Collection<Artifact> unverified = new ArrayList<Artifact>();
+
+	private final Collection<Artifact> missing = new ArrayList<Artifact>();
+
+	private final Collection<Artifact> modified = new ArrayList<Artifact>();
+
+	private final Collection<Artifact> corrupt = new ArrayList<Artifact>();
+}
\ No newline at end of file
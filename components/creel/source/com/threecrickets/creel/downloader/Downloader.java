@@ -17,30 +17,39 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Phaser;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.management.ObjectName;
+
+import com.threecrickets.creel.RunStatistics;
 import com.threecrickets.creel.downloader.internal.CopyFileTask;
 import com.threecrickets.creel.downloader.internal.DownloadTask;
 import com.threecrickets.creel.downloader.internal.WrappedTask;
 import com.threecrickets.creel.event.Notifier;
-import com.threecrickets.creel.internal.DaemonThreadFactory;
+import com.threecrickets.creel.internal.Management;
+import com.threecrickets.creel.internal.ResizableThreadPool;
 import com.threecrickets.creel.util.IoUtil;
+import com.threecrickets.creel.util.NegativeCache;
 
 /**
  * Fast file downloader supporting concurrent downloads and chunks. Just give it
  * a list of source URLs to download and it will do the rest. Network (HTTP,
  * FTP, etc.) URLs are supported, while "file:" URLs are automatically optimized
  * to use fast copying.
+ * <p>
+ * Its live state can be monitored via JMX: see {@link #setManaged(boolean)}.
  * 
  * @author Tal Liron
  */
-public class Downloader implements Closeable
+public class Downloader implements Closeable, DownloaderMXBean
 {
 	//
 	// Construction
@@ -101,6 +110,19 @@ public class Downloader implements Closeable
 		return threadsPerHost;
 	}
 
+	/**
+	 * Number of threads per host. Applies to running executors, too.
+	 * 
+	 * @param threadsPerHost
+	 *        Number of threads per host
+	 */
+	public void setThreadsPerHost( int threadsPerHost )
+	{
+		this.threadsPerHost = threadsPerHost;
+		for( ResizableThreadPool executor : executors.values() )
+			executor.setThreads( threadsPerHost );
+	}
+
 	/**
 	 * Number of chunks per file.
 	 * 
@@ -131,6 +153,26 @@ public class Downloader implements Closeable
 		return count.get();
 	}
 
+	/**
+	 * Bytes downloaded so far by downloads that have not finished yet.
+	 * 
+	 * @return The bytes in flight
+	 */
+	public long getBytesInFlight()
+	{
+		return bytesInFlight.get();
+	}
+
+	/**
+	 * Bytes downloaded in total.
+	 * 
+	 * @return The bytes
+	 */
+	public long getBytes()
+	{
+		return bytes.get();
+	}
+
 	/**
 	 * The exceptions throw while downloading.
 	 * 
@@ -141,6 +183,16 @@ public class Downloader implements Closeable
 		return Collections.unmodifiableCollection( exceptions );
 	}
 
+	/**
+	 * The number of exceptions thrown while downloading.
+	 * 
+	 * @return The exception count
+	 */
+	public int getExceptionCount()
+	{
+		return exceptions.size();
+	}
+
 	/**
 	 * Adds an exception.
 	 * 
@@ -172,17 +224,48 @@ public class Downloader implements Closeable
 	 */
 	public ExecutorService getExecutor( String host )
 	{
-		ExecutorService executor = executors.get( host );
+		ResizableThreadPool executor = executors.get( host );
 		if( executor == null )
 		{
-			executor = Executors.newFixedThreadPool( getThreadsPerHost(), DaemonThreadFactory.INSTANCE );
-			ExecutorService existing = executors.putIfAbsent( host, executor );
+			executor = new ResizableThreadPool( getThreadsPerHost() );
+			ResizableThreadPool existing = executors.putIfAbsent( host, executor );
 			if( existing != null )
+			{
+				executor.shutdown();
 				executor = existing;
+			}
 		}
 		return executor;
 	}
 
+	/**
+	 * Number of tasks waiting for a thread, by host. Validation tasks are
+	 * under the empty host.
+	 * 
+	 * @return The queue depths by host
+	 */
+	public Map<String, Integer> getQueueDepths()
+	{
+		Map<String, Integer> queueDepths = new TreeMap<String, Integer>();
+		for( Map.Entry<String, ResizableThreadPool> entry : executors.entrySet() )
+			queueDepths.put( entry.getKey(), entry.getValue().getQueue().size() );
+		return Collections.unmodifiableMap( queueDepths );
+	}
+
+	/**
+	 * Number of threads running tasks, by host. Validation tasks are under
+	 * the empty host.
+	 * 
+	 * @return The active thread counts by host
+	 */
+	public Map<String, Integer> getActiveThreads()
+	{
+		Map<String, Integer> activeThreads = new TreeMap<String, Integer>();
+		for( Map.Entry<String, ResizableThreadPool> entry : executors.entrySet() )
+			activeThreads.put( entry.getKey(), entry.getValue().getActiveCount() );
+		return Collections.unmodifiableMap( activeThreads );
+	}
+
 	/**
 	 * The phaser.
 	 * 
@@ -193,6 +276,27 @@ public class Downloader implements Closeable
 		return phaser;
 	}
 
+	/**
+	 * Number of parties registered with the phaser: the tasks that have not
+	 * finished yet, plus one for the downloader itself.
+	 * 
+	 * @return The registered parties
+	 */
+	public int getRegisteredParties()
+	{
+		return phaser.getRegisteredParties();
+	}
+
+	/**
+	 * Whether the downloader was cancelled.
+	 * 
+	 * @return True if cancelled
+	 */
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+
 	/**
 	 * Increments the downloaded file count.
 	 */
@@ -201,6 +305,29 @@ public class Downloader implements Closeable
 		count.incrementAndGet();
 	}
 
+	/**
+	 * Counts bytes downloaded by a download that has not finished yet.
+	 * 
+	 * @param bytes
+	 *        The bytes
+	 */
+	public void addInFlight( long bytes )
+	{
+		bytesInFlight.addAndGet( bytes );
+		this.bytes.addAndGet( bytes );
+	}
+
+	/**
+	 * Removes the bytes of a finished download from the bytes in flight.
+	 * 
+	 * @param bytes
+	 *        The bytes
+	 */
+	public void removeInFlight( long bytes )
+	{
+		bytesInFlight.addAndGet( -bytes );
+	}
+
 	/**
 	 * Delay in milliseconds. Used for testing/debugging. Defaults to 0.
 	 * 
@@ -222,6 +349,79 @@ public class Downloader implements Closeable
 		this.delay = delay;
 	}
 
+	/**
+	 * The cache of URLs known to not exist. Optional downloads from these URLs
+	 * will be skipped.
+	 * 
+	 * @return The negative cache or null
+	 */
+	public NegativeCache getNegativeCache()
+	{
+		return negativeCache;
+	}
+
+	/**
+	 * The cache of URLs known to not exist. Optional downloads from these URLs
+	 * will be skipped.
+	 * 
+	 * @param negativeCache
+	 *        The negative cache or null
+	 */
+	public void setNegativeCache( NegativeCache negativeCache )
+	{
+		this.negativeCache = negativeCache;
+	}
+
+	/**
+	 * Where to count requests and downloaded bytes.
+	 * 
+	 * @return The statistics or null
+	 */
+	public RunStatistics getStatistics()
+	{
+		return statistics;
+	}
+
+	/**
+	 * Where to count requests and downloaded bytes.
+	 * 
+	 * @param statistics
+	 *        The statistics or null
+	 */
+	public void setStatistics( RunStatistics statistics )
+	{
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Whether the downloader is registered with JMX as a
+	 * {@link DownloaderMXBean}. It will be unregistered when closed.
+	 * 
+	 * @return True if managed
+	 */
+	public synchronized boolean isManaged()
+	{
+		return objectName != null;
+	}
+
+	/**
+	 * Whether the downloader is registered with JMX as a
+	 * {@link DownloaderMXBean}. It will be unregistered when closed.
+	 * 
+	 * @param managed
+	 *        True if managed
+	 */
+	public synchronized void setManaged( boolean managed )
+	{
+		if( managed && ( objectName == null ) )
+			objectName = Management.register( this, "Downloader" );
+		else if( !managed && ( objectName != null ) )
+		{
+			Management.unregister( objectName );
+			objectName = null;
+		}
+	}
+
 	//
 	// Operations
 	//
@@ -238,6 +438,27 @@ public class Downloader implements Closeable
 	 */
 	public void submit( URL sourceUrl, File file, Runnable validator )
 	{
+		submit( sourceUrl, file, false, validator );
+	}
+
+	/**
+	 * Submits a file for download.
+	 * 
+	 * @param sourceUrl
+	 *        The source URL
+	 * @param file
+	 *        The file
+	 * @param optional
+	 *        True if the source URL may be missing (see
+	 *        {@link #getNegativeCache()})
+	 * @param validator
+	 *        The optional validator to run after downloading
+	 */
+	public void submit( URL sourceUrl, File file, boolean optional, Runnable validator )
+	{
+		if( cancelled )
+			return;
+
 		ExecutorService executor = getExecutor( sourceUrl.getHost() );
 
 		File sourceFile = IoUtil.toFile( sourceUrl );
@@ -250,7 +471,7 @@ public class Downloader implements Closeable
 		else
 		{
 			getPhaser().register();
-			executor.submit( new DownloadTask( sourceUrl, file, this, executor, validator ) );
+			executor.submit( new DownloadTask( sourceUrl, file, optional, this, executor, validator ) );
 		}
 	}
 
@@ -262,6 +483,9 @@ public class Downloader implements Closeable
 	 */
 	public void submit( Runnable task )
 	{
+		if( cancelled )
+			return;
+
 		ExecutorService executor = getExecutor( "" );
 		getPhaser().register();
 		executor.submit( new WrappedTask( task, this ) );
@@ -275,12 +499,26 @@ public class Downloader implements Closeable
 		phaser.arriveAndAwaitAdvance();
 	}
 
+	/**
+	 * Stops downloading: queued tasks are dropped, running tasks are
+	 * interrupted, further submissions are ignored, and
+	 * {@link #waitUntilDone()} returns immediately.
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+		phaser.forceTermination();
+		for( ResizableThreadPool executor : executors.values() )
+			executor.shutdownNow();
+	}
+
 	//
 	// Closeable
 	//
 
 	public void close()
 	{
+		setManaged( false );
 		Collection<ExecutorService> executors = new ArrayList<ExecutorService>( this.executors.values() );
 		this.executors.clear();
 		for( ExecutorService executor : executors )
@@ -290,7 +528,7 @@ public class Downloader implements Closeable
 	// //////////////////////////////////////////////////////////////////////////
 	// Private
 
-	private final int threadsPerHost;
+	private volatile int threadsPerHost;
 
 	private final int chunksPerFile;
 
@@ -298,7 +536,7 @@ public class Downloader implements Closeable
 
 	private final Notifier notifier;
 
-	private final ConcurrentMap<String, ExecutorService> executors = new ConcurrentHashMap<String, ExecutorService>();
+	private final ConcurrentMap<String, ResizableThreadPool> executors = new ConcurrentHashMap<String, ResizableThreadPool>();
 
 	private final Collection<Throwable> exceptions = new CopyOnWriteArrayList<Throwable>();
 
@@ -306,5 +544,17 @@ public class Downloader implements Closeable
 
 	private final AtomicInteger count = new AtomicInteger();
 
+	private final AtomicLong bytesInFlight = new AtomicLong();
+
+	private final AtomicLong bytes = new AtomicLong();
+
+	private volatile boolean cancelled;
+
+	private ObjectName objectName;
+
 	private volatile int delay;
+
+	private volatile NegativeCache negativeCache;
+
+	private volatile RunStatistics statistics;
 }
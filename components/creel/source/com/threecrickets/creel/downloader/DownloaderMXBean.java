@@ -0,0 +1,117 @@
+/**
+ * Copyright 2015-2017 Three Crickets LLC.
+ * <p>
+ * The contents of this file are subject to the terms of the LGPL version 3.0:
+ * http://www.gnu.org/copyleft/lesser.html
+ * <p>
+ * Alternatively, you can obtain a royalty free commercial license with less
+ * limitations, transferable or non-transferable, directly from Three Crickets
+ * at http://threecrickets.com/
+ */
+
+package com.threecrickets.creel.downloader;
+
+import java.util.Map;
+
+/**
+ * Live state of a {@link Downloader}, registered with JMX if
+ * {@link Downloader#setManaged(boolean)} is enabled.
+ * 
+ * @author Tal Liron
+ */
+public interface DownloaderMXBean
+{
+	//
+	// Attributes
+	//
+
+	/**
+	 * Number of threads per host.
+	 * 
+	 * @return Number of threads per host
+	 */
+	public int getThreadsPerHost();
+
+	/**
+	 * Number of threads per host. Applies to running executors, too.
+	 * 
+	 * @param threadsPerHost
+	 *        Number of threads per host
+	 */
+	public void setThreadsPerHost( int threadsPerHost );
+
+	/**
+	 * Number of chunks per file.
+	 * 
+	 * @return Number of chunks per file
+	 */
+	public int getChunksPerFile();
+
+	/**
+	 * Number of parties registered with the phaser: the tasks that have not
+	 * finished yet, plus one for the downloader itself.
+	 * 
+	 * @return The registered parties
+	 */
+	public int getRegisteredParties();
+
+	/**
+	 * Number of tasks waiting for a thread, by host. Validation tasks are
+	 * under the empty host.
+	 * 
+	 * @return The queue depths by host
+	 */
+	public Map<String, Integer> getQueueDepths();
+
+	/**
+	 * Number of threads running tasks, by host. Validation tasks are under
+	 * the empty host.
+	 * 
+	 * @return The active thread counts by host
+	 */
+	public Map<String, Integer> getActiveThreads();
+
+	/**
+	 * Bytes downloaded so far by downloads that have not finished yet.
+	 * 
+	 * @return The bytes in flight
+	 */
+	public long getBytesInFlight();
+
+	/**
+	 * Bytes downloaded in total.
+	 * 
+	 * @return The bytes
+	 */
+	public long getBytes();
+
+	/**
+	 * The downloaded file count.
+	 * 
+	 * @return The count
+	 */
+	public int getCount();
+
+	/**
+	 * The number of exceptions thrown while downloading.
+	 * 
+	 * @return The exception count
+	 */
+	public int getExceptionCount();
+
+	/**
+	 * Whether the downloader was cancelled.
+	 * 
+	 * @return True if cancelled
+	 */
+	public boolean isCancelled();
+
+	//
+	// Operations
+	//
+
+	/**
+	 * Stops downloading.
+	 */
+	public void cancel();
+}
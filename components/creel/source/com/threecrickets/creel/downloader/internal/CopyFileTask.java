@@ -16,6 +16,8 @@ import java.io.IOException;
 import java.util.concurrent.ExecutorService;
 
 import com.threecrickets.creel.downloader.Downloader;
+import com.threecrickets.creel.event.Message;
+import com.threecrickets.creel.util.FlightEvent;
 import com.threecrickets.creel.util.IoUtil;
 
 /**
@@ -75,12 +77,15 @@ public class CopyFileTask extends Task
 			return;
 		}
 
-		String id = getDownloader().getNotifier().begin( "Copying file from " + getSourceFile() );
+		String id = getDownloader().getNotifier().begin( new Message( "Copying file from ", getSourceFile() ) );
+		FlightEvent flightEvent = FlightEvent.DOWNLOAD.begin();
+		long time = System.nanoTime();
 
 		try
 		{
 			IoUtil.copy( getSourceFile(), getFile() );
-			getDownloader().getNotifier().end( id, "Copied file to " + getFile() );
+			commit( flightEvent, getSourceFile(), 0, getFile().length(), time );
+			getDownloader().getNotifier().end( id, new Message( "Copied file to ", getFile() ) );
 			done( true );
 		}
 		catch( IOException x )
@@ -18,7 +18,10 @@ import java.net.URLConnection;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import com.threecrickets.creel.RunStatistics;
 import com.threecrickets.creel.downloader.Downloader;
+import com.threecrickets.creel.event.Message;
+import com.threecrickets.creel.util.FlightEvent;
 import com.threecrickets.creel.util.IoUtil;
 
 /**
@@ -126,21 +129,30 @@ public class DownloadChunkTask extends DownloadTask
 
 	public void run()
 	{
-		id = getDownloader().getNotifier().begin( "Downloading from " + getSourceUrl() + " (" + getChunk() + "/" + getChunks() + ")" );
+		id = getDownloader().getNotifier().begin( new Message( "Downloading from ", getSourceUrl(), " (", getChunk(), "/", getChunks(), ")" ) );
+		FlightEvent flightEvent = FlightEvent.DOWNLOAD.begin();
+		long time = System.nanoTime();
 
 		try
 		{
 			URLConnection connection = IoUtil.openRange( getSourceUrl(), getStart(), getLength() );
 			IoUtil.copy( connection.getInputStream(), getFile(), getStart(), this, getLength() );
-			getDownloader().getNotifier().end( id, "Downloaded to " + getFile() + " (" + getChunk() + "/" + getChunks() + ")" );
+			addRequest( RunStatistics.Request.ARTIFACT, getSourceUrl(), RunStatistics.OK, getLength() );
+			commit( flightEvent, getSourceUrl(), getChunk(), getLength(), time );
+			getDownloader().getNotifier().end( id, new Message( "Downloaded to ", getFile(), " (", getChunk(), "/", getChunks(), ")" ) );
 			done( getCounter() );
 		}
 		catch( IOException x )
 		{
+			addRequest( RunStatistics.Request.ARTIFACT, getSourceUrl(), RunStatistics.getStatus( x ), 0 );
 			getDownloader().addException( x );
 			getDownloader().getNotifier().fail( id, "Could not download from " + getSourceUrl() + " (" + getChunk() + "/" + getChunks() + ")", x );
 			done( false );
 		}
+		finally
+		{
+			endProgress();
+		}
 	}
 
 	// //////////////////////////////////////////////////////////////////////////
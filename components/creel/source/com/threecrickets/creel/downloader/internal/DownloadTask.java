@@ -17,8 +17,12 @@ import java.net.URL;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import com.threecrickets.creel.RunStatistics;
 import com.threecrickets.creel.downloader.Downloader;
+import com.threecrickets.creel.event.Message;
+import com.threecrickets.creel.util.FlightEvent;
 import com.threecrickets.creel.util.IoUtil;
+import com.threecrickets.creel.util.NegativeCache;
 import com.threecrickets.creel.util.ProgressListener;
 
 /**
@@ -50,9 +54,31 @@ public class DownloadTask extends Task implements ProgressListener
 	 *        The validator or null
 	 */
 	public DownloadTask( URL sourceUrl, File file, Downloader downloader, ExecutorService executor, Runnable validator )
+	{
+		this( sourceUrl, file, false, downloader, executor, validator );
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param sourceUrl
+	 *        The source URL
+	 * @param file
+	 *        The destination file
+	 * @param optional
+	 *        True if the source URL may be missing
+	 * @param downloader
+	 *        The downloader
+	 * @param executor
+	 *        The executor
+	 * @param validator
+	 *        The validator or null
+	 */
+	public DownloadTask( URL sourceUrl, File file, boolean optional, Downloader downloader, ExecutorService executor, Runnable validator )
 	{
 		super( file, downloader, executor, validator );
 		this.sourceUrl = sourceUrl;
+		this.optional = optional;
 	}
 
 	//
@@ -69,28 +95,68 @@ public class DownloadTask extends Task implements ProgressListener
 		return sourceUrl;
 	}
 
+	/**
+	 * True if the source URL may be missing, such as for Javadoc and source
+	 * artifacts. Only optional downloads are skipped if known to be missing,
+	 * and only required downloads report a failure to check.
+	 * 
+	 * @return True if optional
+	 */
+	public boolean isOptional()
+	{
+		return optional;
+	}
+
 	//
 	// Runnable
 	//
 
 	public void run()
 	{
-		if( !IoUtil.exists( getSourceUrl() ) )
+		// Required downloads were chosen by the resolver, so we must check them
+		// even if they were missing in the past
+		NegativeCache negativeCache = getDownloader().getNegativeCache();
+		if( isOptional() && ( negativeCache != null ) && negativeCache.isMissing( getSourceUrl() ) )
 		{
 			done( false );
 			return;
 		}
 
+		int status = IoUtil.probe( getSourceUrl() );
+		boolean exists = status == RunStatistics.OK;
+		addRequest( RunStatistics.Request.HEAD, getSourceUrl(), RunStatistics.getStatus( status ), 0 );
+		if( !exists )
+		{
+			if( IoUtil.isMissing( status ) )
+			{
+				if( negativeCache != null )
+					negativeCache.setMissing( getSourceUrl() );
+			}
+			else if( !isOptional() )
+			{
+				// We could not check, which is not the same as missing
+				IOException x = new IOException( status != 0 ? "Status " + status + " from " + getSourceUrl() : "No response from " + getSourceUrl() );
+				getDownloader().addException( x );
+				getDownloader().getNotifier().error( "Could not access " + getSourceUrl(), x );
+			}
+			done( false );
+			return;
+		}
+
 		int chunksStreamSize = -1;
 		int chunksPerFile = getDownloader().getChunksPerFile();
 
 		try
 		{
 			if( chunksPerFile > 1 )
+			{
 				chunksStreamSize = IoUtil.supportsRanges( getSourceUrl() );
+				addRequest( RunStatistics.Request.HEAD, getSourceUrl(), RunStatistics.OK, 0 );
+			}
 		}
 		catch( IOException x )
 		{
+			addRequest( RunStatistics.Request.HEAD, getSourceUrl(), RunStatistics.getStatus( x ), 0 );
 			getDownloader().addException( x );
 			getDownloader().getNotifier().error( "Could not access " + getSourceUrl(), x );
 			done( false );
@@ -114,19 +180,28 @@ public class DownloadTask extends Task implements ProgressListener
 		else
 		{
 			// We don't support chunks, so download now
-			id = getDownloader().getNotifier().begin( "Downloading from " + getSourceUrl() );
+			id = getDownloader().getNotifier().begin( new Message( "Downloading from ", getSourceUrl() ) );
+			FlightEvent flightEvent = FlightEvent.DOWNLOAD.begin();
+			long time = System.nanoTime();
 			try
 			{
 				IoUtil.copy( getSourceUrl(), getFile(), this );
-				getDownloader().getNotifier().end( id, "Downloaded to " + getFile() );
+				addRequest( RunStatistics.Request.ARTIFACT, getSourceUrl(), RunStatistics.OK, getFile().length() );
+				commit( flightEvent, getSourceUrl(), 0, getFile().length(), time );
+				getDownloader().getNotifier().end( id, new Message( "Downloaded to ", getFile() ) );
 				done( true );
 			}
 			catch( IOException x )
 			{
+				addRequest( RunStatistics.Request.ARTIFACT, getSourceUrl(), RunStatistics.getStatus( x ), 0 );
 				getDownloader().addException( x );
 				getDownloader().getNotifier().fail( id, "Could not download from " + getSourceUrl(), x );
 				done( false );
 			}
+			finally
+			{
+				endProgress();
+			}
 		}
 	}
 
@@ -136,6 +211,8 @@ public class DownloadTask extends Task implements ProgressListener
 
 	public void onProgress( int position, int length )
 	{
+		getDownloader().addInFlight( position - this.position );
+		this.position = position;
 		if( length > 0 )
 			getDownloader().getNotifier().update( id, (double) position / (double) length );
 		if( getDownloader().getDelay() > 0 )
@@ -150,10 +227,26 @@ public class DownloadTask extends Task implements ProgressListener
 		}
 	}
 
+	// //////////////////////////////////////////////////////////////////////////
+	// Protected
+
+	/**
+	 * Removes our bytes from the downloader's bytes in flight.
+	 */
+	protected void endProgress()
+	{
+		getDownloader().removeInFlight( position );
+		position = 0;
+	}
+
 	// //////////////////////////////////////////////////////////////////////////
 	// Private
 
 	private final URL sourceUrl;
 
+	private final boolean optional;
+
 	private String id;
+
+	private int position;
 }
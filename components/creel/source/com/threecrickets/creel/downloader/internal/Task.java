@@ -12,10 +12,13 @@
 package com.threecrickets.creel.downloader.internal;
 
 import java.io.File;
+import java.net.URL;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import com.threecrickets.creel.RunStatistics;
 import com.threecrickets.creel.downloader.Downloader;
+import com.threecrickets.creel.util.FlightEvent;
 
 /**
  * Base class for downloader tasks.
@@ -130,6 +133,54 @@ public abstract class Task implements Runnable
 			getDownloader().getPhaser().arriveAndDeregister();
 	}
 
+	/**
+	 * Counts a request and the bytes it downloaded, if the downloader has
+	 * statistics.
+	 * 
+	 * @param request
+	 *        The request kind
+	 * @param url
+	 *        The URL
+	 * @param status
+	 *        The status
+	 * @param bytes
+	 *        The downloaded byte count
+	 */
+	protected void addRequest( RunStatistics.Request request, URL url, int status, long bytes )
+	{
+		RunStatistics statistics = getDownloader().getStatistics();
+		if( statistics != null )
+		{
+			statistics.addRequest( request, url, status );
+			if( bytes > 0 )
+				statistics.addBytes( url, bytes );
+		}
+	}
+
+	/**
+	 * Commits a {@link FlightEvent#DOWNLOAD} if not null.
+	 * 
+	 * @param flightEvent
+	 *        The flight event or null
+	 * @param artifact
+	 *        The artifact source
+	 * @param chunk
+	 *        The chunk number, or 0 if not split into chunks
+	 * @param bytes
+	 *        The downloaded byte count
+	 * @param time
+	 *        When the download started, as {@link System#nanoTime()}
+	 */
+	protected static void commit( FlightEvent flightEvent, Object artifact, int chunk, long bytes, long time )
+	{
+		if( flightEvent != null )
+		{
+			long duration = System.nanoTime() - time;
+			double throughput = duration > 0 ? bytes * 1000000000.0 / duration : 0;
+			flightEvent.commit( artifact.toString(), chunk, bytes, throughput );
+		}
+	}
+
 	// //////////////////////////////////////////////////////////////////////////
 	// Private
 
@@ -0,0 +1,290 @@
+/**
+ * Copyright 2015-2017 Three Crickets LLC.
+ * <p>
+ * The contents of this file are subject to the terms of the LGPL version 3.0:
+ * http://www.gnu.org/copyleft/lesser.html
+ * <p>
+ * Alternatively, you can obtain a royalty free commercial license with less
+ * limitations, transferable or non-transferable, directly from Three Crickets
+ * at http://threecrickets.com/
+ */
+
+package com.threecrickets.creel.event;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An event handler that queues events and sends them to another event handler
+ * on a single dedicated thread, so that the threads firing the events do not
+ * have to wait for slow handlers (such as console output).
+ * <p>
+ * Events are delivered in the order in which they were queued. The queue is
+ * bounded: when it is full, {@link Event.Type#UPDATE} events can be dropped
+ * (see {@link Overflow}), while all other events wait for room.
+ * <p>
+ * Because events are handled later, {@link #handleEvent(Event)} cannot know
+ * whether the event was swallowed, and always returns false.
+ * 
+ * @author Tal Liron
+ */
+public class AsynchronousEventHandler implements EventHandler, Closeable
+{
+	//
+	// Constants
+	//
+
+	/**
+	 * What to do when the queue is full.
+	 */
+	public enum Overflow
+	{
+		/**
+		 * Drop {@link Event.Type#UPDATE} events, wait for room for all other
+		 * events.
+		 */
+		DROP_UPDATES,
+		/**
+		 * Wait for room for all events.
+		 */
+		BLOCK
+	};
+
+	/**
+	 * The default queue capacity.
+	 */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	//
+	// Construction
+	//
+
+	/**
+	 * Constructor with default capacity, dropping updates on overflow.
+	 * 
+	 * @param eventHandler
+	 *        The event handler
+	 */
+	public AsynchronousEventHandler( EventHandler eventHandler )
+	{
+		this( eventHandler, DEFAULT_CAPACITY, Overflow.DROP_UPDATES );
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param eventHandler
+	 *        The event handler
+	 * @param capacity
+	 *        The queue capacity
+	 * @param overflow
+	 *        What to do when the queue is full
+	 */
+	public AsynchronousEventHandler( EventHandler eventHandler, int capacity, Overflow overflow )
+	{
+		this.eventHandler = eventHandler;
+		this.overflow = overflow;
+		queue = new ArrayBlockingQueue<Event>( capacity );
+		thread = new Thread( new Dispatch(), "creel-events" );
+		thread.setDaemon( true );
+		thread.start();
+	}
+
+	//
+	// Attributes
+	//
+
+	/**
+	 * The event handler.
+	 * 
+	 * @return The event handler
+	 */
+	public EventHandler getEventHandler()
+	{
+		return eventHandler;
+	}
+
+	/**
+	 * What to do when the queue is full.
+	 * 
+	 * @return The overflow policy
+	 */
+	public Overflow getOverflow()
+	{
+		return overflow;
+	}
+
+	/**
+	 * The number of events for which the event handler threw an exception.
+	 * Only the first of these is reported, to standard error.
+	 * 
+	 * @return The error count
+	 */
+	public long getErrorCount()
+	{
+		return errors.get();
+	}
+
+	/**
+	 * The number of events dropped because the queue was full.
+	 * 
+	 * @return The dropped count
+	 */
+	public long getDroppedCount()
+	{
+		return dropped.get();
+	}
+
+	//
+	// Operations
+	//
+
+	/**
+	 * Waits until all events queued so far have been handled.
+	 */
+	public void flush()
+	{
+		long target = queued.get();
+		synchronized( lock )
+		{
+			try
+			{
+				while( ( handled < target ) && thread.isAlive() )
+					lock.wait();
+			}
+			catch( InterruptedException x )
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	//
+	// EventHandler
+	//
+
+	public boolean handleEvent( Event event )
+	{
+		// Once closed, or if called from within the handler, handle directly
+		if( closed || ( Thread.currentThread() == thread ) )
+			return eventHandler.handleEvent( event );
+
+		if( queue.offer( event ) )
+			queued.incrementAndGet();
+		else if( ( overflow == Overflow.DROP_UPDATES ) && ( event.getType() == Event.Type.UPDATE ) )
+			dropped.incrementAndGet();
+		else
+		{
+			try
+			{
+				queue.put( event );
+				queued.incrementAndGet();
+			}
+			catch( InterruptedException x )
+			{
+				Thread.currentThread().interrupt();
+				return eventHandler.handleEvent( event );
+			}
+		}
+
+		return false;
+	}
+
+	//
+	// Closeable
+	//
+
+	/**
+	 * Handles all queued events and stops the thread. Events sent after
+	 * closing are handled directly.
+	 */
+	public void close()
+	{
+		flush();
+		closed = true;
+		thread.interrupt();
+		try
+		{
+			thread.join();
+		}
+		catch( InterruptedException x )
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		// Events that were queued while we were closing
+		Event event;
+		while( ( event = queue.poll() ) != null )
+			eventHandler.handleEvent( event );
+	}
+
+	// //////////////////////////////////////////////////////////////////////////
+	// Private
+
+	private final EventHandler eventHandler;
+
+	private final Overflow overflow;
+
+	private final BlockingQueue<Event> queue;
+
+	private final Thread thread;
+
+	private final AtomicLong queued = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final AtomicLong errors = new AtomicLong();
+
+	private final Object lock = new Object();
+
+	private long handled;
+
+	private volatile boolean closed;
+
+	private class Dispatch implements Runnable
+	{
+		public void run()
+		{
+			try
+			{
+				while( true )
+				{
+					Event event = queue.take();
+					try
+					{
+						eventHandler.handleEvent( event );
+					}
+					catch( RuntimeException x )
+					{
+						// There is no one else to report this to
+						if( errors.getAndIncrement() == 0 )
+						{
+							System.err.println( "Event handler error (further errors will not be reported): " + x );
+							x.printStackTrace( System.err );
+						}
+					}
+					finally
+					{
+						synchronized( lock )
+						{
+							handled++;
+							lock.notifyAll();
+						}
+					}
+				}
+			}
+			catch( InterruptedException x )
+			{
+			}
+			finally
+			{
+				synchronized( lock )
+				{
+					lock.notifyAll();
+				}
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -330,38 +330,10 @@ public class ConsoleEventHandler extends OngoingEventHandler
 
 	public synchronized boolean handleEvent( Event event )
 	{
-		// Move up before the ongoing block we printed last time
-		int ongoingEventsHeight = ongoingEvents.size();
-		if( ongoingEventsHeight > 0 )
-			ansi( Integer.toString( ongoingEventsHeight ) + 'A' );
-
 		super.handleEvent( event );
 
-		Event.Type type = event.getType();
-		if( type == Event.Type.END )
-			ansi( getEndGraphics() + 'm' );
-		else if( type == Event.Type.FAIL )
-			ansi( getFailGraphics() + 'm' );
-		else if( type == Event.Type.ERROR )
-			ansi( getErrorGraphics() + 'm' );
-		else if( type == Event.Type.INFO )
-			ansi( getDefaultGraphics() + 'm' );
-
-		if( ( type != Event.Type.BEGIN ) && ( type != Event.Type.UPDATE ) && ( type != Event.Type.DEBUG ) )
-			print( event );
-
-		// Print ongoing events block after everything else
-		if( isAnsi() )
-			for( Event ongoingEvent : ongoingEvents )
-			{
-				ansi( getOngoingGraphics() + 'm' );
-				print( ongoingEvent );
-			}
-
-		// Erase to end of screen
-		ansi( "0J" );
-
-		getOut().flush();
+		if( isRepaint( event ) )
+			repaint( event );
 
 		return false;
 	}
@@ -381,6 +353,65 @@ public class ConsoleEventHandler extends OngoingEventHandler
 		return Integer.MAX_VALUE;
 	}
 
+	/**
+	 * Whether to repaint after an event. Defaults to true. Override this to
+	 * repaint less often.
+	 * 
+	 * @param event
+	 *        The event
+	 * @return True to repaint
+	 */
+	protected boolean isRepaint( Event event )
+	{
+		return true;
+	}
+
+	/**
+	 * Prints an event if it should be printed, and then prints the ongoing
+	 * events block over the one we printed last time. Should be called while
+	 * synchronized on this handler.
+	 * 
+	 * @param event
+	 *        The event or null to only print the ongoing events block
+	 */
+	protected void repaint( Event event )
+	{
+		// Move up before the ongoing block we printed last time
+		if( ongoingEventsHeight > 0 )
+			ansi( Integer.toString( ongoingEventsHeight ) + 'A' );
+
+		if( event != null )
+		{
+			Event.Type type = event.getType();
+			if( type == Event.Type.END )
+				ansi( getEndGraphics() + 'm' );
+			else if( type == Event.Type.FAIL )
+				ansi( getFailGraphics() + 'm' );
+			else if( type == Event.Type.ERROR )
+				ansi( getErrorGraphics() + 'm' );
+			else if( type == Event.Type.INFO )
+				ansi( getDefaultGraphics() + 'm' );
+
+			if( ( type != Event.Type.BEGIN ) && ( type != Event.Type.UPDATE ) && ( type != Event.Type.DEBUG ) )
+				print( event );
+		}
+
+		// Print ongoing events block after everything else
+		ongoingEventsHeight = 0;
+		if( isAnsi() )
+			for( Event ongoingEvent : ongoingEvents.values() )
+			{
+				ansi( getOngoingGraphics() + 'm' );
+				print( ongoingEvent );
+				ongoingEventsHeight++;
+			}
+
+		// Erase to end of screen
+		ansi( "0J" );
+
+		getOut().flush();
+	}
+
 	/**
 	 * Prints an event, making sure to fit it in
 	 * {@link ConsoleEventHandler#getTerminalWidth()}.
@@ -489,4 +520,6 @@ public class ConsoleEventHandler extends OngoingEventHandler
 	private volatile String progressDone = "=";
 
 	private volatile String progressTodo = " ";
+
+	private int ongoingEventsHeight;
 }
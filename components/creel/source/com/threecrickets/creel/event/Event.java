@@ -76,12 +76,40 @@ public class Event
 	 *        The exception or null
 	 */
 	public Event( Type type, String id, CharSequence message, Double progress, Throwable exception )
+	{
+		this( type, id, null, message, progress, exception );
+	}
+
+	/**
+	 * Constructor.
+	 * <p>
+	 * The time and the current thread are recorded.
+	 * 
+	 * @param type
+	 *        The type
+	 * @param id
+	 *        The ID of an ongoing event or null
+	 * @param parentId
+	 *        The ID of the ongoing event that caused this one or null
+	 * @param message
+	 *        The message or null
+	 * @param progress
+	 *        The progress (0.0 to 1.0) or null
+	 * @param exception
+	 *        The exception or null
+	 */
+	public Event( Type type, String id, String parentId, CharSequence message, Double progress, Throwable exception )
 	{
 		this.type = type;
 		this.id = id;
+		this.parentId = parentId;
 		this.message = message;
 		this.progress = progress;
 		this.exception = exception;
+		timestamp = System.nanoTime();
+		Thread thread = Thread.currentThread();
+		threadId = thread.getId();
+		threadName = thread.getName();
 	}
 
 	//
@@ -108,6 +136,46 @@ public class Event
 		return id;
 	}
 
+	/**
+	 * The ID of the ongoing event that caused this one or null.
+	 * 
+	 * @return The parent ID or null
+	 */
+	public String getParentId()
+	{
+		return parentId;
+	}
+
+	/**
+	 * When the event was created, as {@link System#nanoTime()}.
+	 * 
+	 * @return The timestamp in nanoseconds
+	 */
+	public long getTimestamp()
+	{
+		return timestamp;
+	}
+
+	/**
+	 * The ID of the thread that created the event.
+	 * 
+	 * @return The thread ID
+	 */
+	public long getThreadId()
+	{
+		return threadId;
+	}
+
+	/**
+	 * The name of the thread that created the event.
+	 * 
+	 * @return The thread name
+	 */
+	public String getThreadName()
+	{
+		return threadName;
+	}
+
 	/**
 	 * The message or null.
 	 * 
@@ -160,6 +228,14 @@ public class Event
 
 	private final String id;
 
+	private final String parentId;
+
+	private final long timestamp;
+
+	private final long threadId;
+
+	private final String threadName;
+
 	private CharSequence message;
 
 	private Double progress;
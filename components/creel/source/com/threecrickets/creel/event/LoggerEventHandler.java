@@ -68,6 +68,16 @@ public class LoggerEventHandler implements EventHandler
 		if( type == Event.Type.UPDATE )
 			return false;
 
+		Level level = Level.INFO;
+		if( ( type == Event.Type.FAIL ) || ( type == Event.Type.ERROR ) )
+			level = Level.SEVERE;
+		else if( type == Event.Type.DEBUG )
+			level = Level.FINE;
+
+		// Avoid constructing the message if it will not be logged
+		if( !logger.isLoggable( level ) )
+			return false;
+
 		String message = null;
 		if( event.getMessage() != null )
 			message = event.getMessage().toString();
@@ -75,14 +85,7 @@ public class LoggerEventHandler implements EventHandler
 			message = event.getException().getMessage();
 
 		if( message != null )
-		{
-			Level level = Level.INFO;
-			if( ( type == Event.Type.FAIL ) || ( type == Event.Type.ERROR ) )
-				level = Level.SEVERE;
-			else if( type == Event.Type.DEBUG )
-				level = Level.FINE;
 			logger.log( level, message, event.getException() );
-		}
 
 		return false;
 	}
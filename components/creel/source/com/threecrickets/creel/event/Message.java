@@ -0,0 +1,85 @@
+/**
+ * Copyright 2015-2017 Three Crickets LLC.
+ * <p>
+ * The contents of this file are subject to the terms of the LGPL version 3.0:
+ * http://www.gnu.org/copyleft/lesser.html
+ * <p>
+ * Alternatively, you can obtain a royalty free commercial license with less
+ * limitations, transferable or non-transferable, directly from Three Crickets
+ * at http://threecrickets.com/
+ */
+
+package com.threecrickets.creel.event;
+
+/**
+ * An event message that is concatenated from its parts only when it is first
+ * used. If no event handler looks at the message, then the parts are never
+ * converted to strings.
+ * <p>
+ * Note that the parts are converted when the message is first used, not when
+ * it is created, so they should not be changed in between.
+ * 
+ * @author Tal Liron
+ */
+public class Message implements CharSequence
+{
+	//
+	// Construction
+	//
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param parts
+	 *        The parts (nulls are converted to "null")
+	 */
+	public Message( Object... parts )
+	{
+		this.parts = parts;
+	}
+
+	//
+	// CharSequence
+	//
+
+	public int length()
+	{
+		return toString().length();
+	}
+
+	public char charAt( int index )
+	{
+		return toString().charAt( index );
+	}
+
+	public CharSequence subSequence( int start, int end )
+	{
+		return toString().subSequence( start, end );
+	}
+
+	//
+	// Object
+	//
+
+	@Override
+	public String toString()
+	{
+		String string = this.string;
+		if( string == null )
+		{
+			StringBuilder builder = new StringBuilder();
+			for( Object part : parts )
+				builder.append( part );
+			string = builder.toString();
+			this.string = string;
+		}
+		return string;
+	}
+
+	// //////////////////////////////////////////////////////////////////////////
+	// Private
+
+	private final Object[] parts;
+
+	private volatile String string;
+}
\ No newline at end of file
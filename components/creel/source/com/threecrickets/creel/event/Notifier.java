@@ -11,7 +11,7 @@
 
 package com.threecrickets.creel.event;
 
-import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.threecrickets.creel.event.Event.Type;
 
@@ -86,13 +86,25 @@ public class Notifier
 	//
 
 	/**
-	 * Creates a unique ID to be used for ongoing events.
+	 * Whether events will be sent to a handler. When false, events are not
+	 * even created, so there is no need to construct messages for them.
+	 * 
+	 * @return True if enabled
+	 */
+	public boolean isEnabled()
+	{
+		return isEnabled( eventHandler );
+	}
+
+	/**
+	 * Creates a unique ID to be used for ongoing events. IDs are sequential,
+	 * and are unique within the JVM.
 	 * 
 	 * @return The unique ID
 	 */
 	public String newId()
 	{
-		return UUID.randomUUID().toString();
+		return Long.toString( nextId.incrementAndGet() );
 	}
 
 	/**
@@ -110,10 +122,34 @@ public class Notifier
 	 *        The exception or null
 	 */
 	public void fireEvent( Type type, String id, CharSequence message, Double progress, Throwable exception )
+	{
+		fireEvent( type, id, null, message, progress, exception );
+	}
+
+	/**
+	 * Sends an event to the event handler if its not null.
+	 * 
+	 * @param type
+	 *        The event type
+	 * @param id
+	 *        The ID of an ongoing event or null
+	 * @param parentId
+	 *        The ID of the ongoing event that caused this one or null
+	 * @param message
+	 *        The message or null
+	 * @param progress
+	 *        The progress (0.0 to 1.0) or null
+	 * @param exception
+	 *        The exception or null
+	 */
+	public void fireEvent( Type type, String id, String parentId, CharSequence message, Double progress, Throwable exception )
 	{
 		EventHandler eventHandler = this.eventHandler;
-		if( eventHandler != null )
-			eventHandler.handleEvent( new Event( type, id, message, progress, exception ) );
+		if( isEnabled( eventHandler ) )
+		{
+			EventHandler dispatcher = this.dispatcher;
+			( dispatcher != null ? dispatcher : eventHandler ).handleEvent( new Event( type, id, parentId, message, progress, exception ) );
+		}
 	}
 
 	/**
@@ -205,6 +241,23 @@ public class Notifier
 		return id;
 	}
 
+	/**
+	 * Sends a {@link Event.Type#BEGIN} event with a new, unique ongoing event
+	 * ID and returns it.
+	 * 
+	 * @param message
+	 *        The message or null
+	 * @param parentId
+	 *        The ID of the ongoing event that caused this one or null
+	 * @return The ongoing event ID
+	 */
+	public String begin( CharSequence message, String parentId )
+	{
+		String id = newId();
+		fireEvent( Event.Type.BEGIN, id, parentId, message, null, null );
+		return id;
+	}
+
 	/**
 	 * Sends a {@link Event.Type#UPDATE} event.
 	 * 
@@ -287,8 +340,38 @@ public class Notifier
 		fireEvent( Event.Type.FAIL, id, message, null, exception );
 	}
 
+	// //////////////////////////////////////////////////////////////////////////
+	// Protected
+
+	/**
+	 * Sends events through a dispatcher, such as an
+	 * {@link AsynchronousEventHandler} wrapping the event handler, without
+	 * replacing the event handler.
+	 * 
+	 * @param dispatcher
+	 *        The dispatcher or null to send events directly to the event
+	 *        handler
+	 */
+	protected void setDispatcher( EventHandler dispatcher )
+	{
+		this.dispatcher = dispatcher;
+	}
+
 	// //////////////////////////////////////////////////////////////////////////
 	// Private
 
+	private static final AtomicLong nextId = new AtomicLong();
+
 	private volatile EventHandler eventHandler;
+
+	private volatile EventHandler dispatcher;
+
+	private static boolean isEnabled( EventHandler eventHandler )
+	{
+		if( ( eventHandler == null ) || ( eventHandler instanceof NullEventHandler ) )
+			return false;
+		if( ( eventHandler instanceof EventHandlers ) && ( (EventHandlers) eventHandler ).isEmpty() )
+			return false;
+		return true;
+	}
 }
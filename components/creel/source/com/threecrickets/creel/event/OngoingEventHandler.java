@@ -11,9 +11,10 @@
 
 package com.threecrickets.creel.event;
 
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Base class for event handlers that maintain a list of ongoing events. Will
@@ -30,13 +31,13 @@ public abstract class OngoingEventHandler implements EventHandler
 	//
 
 	/**
-	 * The ongoing events.
+	 * The ongoing events, in the order in which they began.
 	 * 
-	 * @return The ongoing events
+	 * @return A snapshot of the ongoing events
 	 */
-	public Iterable<Event> getOngoingEvents()
+	public synchronized Iterable<Event> getOngoingEvents()
 	{
-		return Collections.unmodifiableCollection( ongoingEvents );
+		return Collections.unmodifiableCollection( new ArrayList<Event>( ongoingEvents.values() ) );
 	}
 
 	//
@@ -49,33 +50,26 @@ public abstract class OngoingEventHandler implements EventHandler
 		if( type == Event.Type.BEGIN )
 		{
 			// Add ongoing event
-			if( event.getId() != null )
-				ongoingEvents.add( event );
+			String id = event.getId();
+			if( id != null )
+				ongoingEvents.put( id, event );
 		}
 		else if( ( type == Event.Type.END ) || ( type == Event.Type.FAIL ) )
 		{
 			// Remove ongoing event
 			String id = event.getId();
-			for( Event ongoingEvent : ongoingEvents )
-			{
-				if( ongoingEvent.getId().equals( id ) )
-				{
-					ongoingEvents.remove( ongoingEvent );
-					break;
-				}
-			}
+			if( id != null )
+				ongoingEvents.remove( id );
 		}
 		else if( type == Event.Type.UPDATE )
 		{
 			// Update ongoing event
 			String id = event.getId();
-			for( Event ongoingEvent : ongoingEvents )
+			if( id != null )
 			{
-				if( ongoingEvent.getId().equals( id ) )
-				{
+				Event ongoingEvent = ongoingEvents.get( id );
+				if( ongoingEvent != null )
 					ongoingEvent.update( event );
-					break;
-				}
 			}
 		}
 
@@ -85,5 +79,9 @@ public abstract class OngoingEventHandler implements EventHandler
 	// //////////////////////////////////////////////////////////////////////////
 	// Protected
 
-	protected final Collection<Event> ongoingEvents = new CopyOnWriteArrayList<Event>();
+	/**
+	 * The ongoing events by ID, in the order in which they began. Should only
+	 * be accessed while synchronized on this handler.
+	 */
+	protected final Map<String, Event> ongoingEvents = new LinkedHashMap<String, Event>();
 }
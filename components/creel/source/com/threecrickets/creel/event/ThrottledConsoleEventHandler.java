@@ -0,0 +1,262 @@
+/**
+ * Copyright 2015-2017 Three Crickets LLC.
+ * <p>
+ * The contents of this file are subject to the terms of the LGPL version 3.0:
+ * http://www.gnu.org/copyleft/lesser.html
+ * <p>
+ * Alternatively, you can obtain a royalty free commercial license with less
+ * limitations, transferable or non-transferable, directly from Three Crickets
+ * at http://threecrickets.com/
+ */
+
+package com.threecrickets.creel.event;
+
+import java.io.Closeable;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+
+/**
+ * A console event handler that does not repaint the ongoing events block for
+ * every {@link Event.Type#BEGIN} and {@link Event.Type#UPDATE} event. Instead,
+ * updates are merged into their ongoing events, and the block is repainted at
+ * a fixed frame rate from a background thread. All other events are printed
+ * immediately.
+ * <p>
+ * Without ANSI there is no ongoing events block, so instead a summary of the
+ * ongoing events is printed at a fixed interval.
+ * <p>
+ * Make sure to call {@link #close()} when done in order to paint the last
+ * frame and stop the thread.
+ * 
+ * @author Tal Liron
+ */
+public class ThrottledConsoleEventHandler extends ConsoleEventHandler implements Closeable
+{
+	//
+	// Construction
+	//
+
+	/**
+	 * Constructor: standard out.
+	 * 
+	 * @param ansi
+	 *        Whether to output ANSI colors and animations
+	 * @param stacktrace
+	 *        Whether to print stack traces of exceptions
+	 */
+	public ThrottledConsoleEventHandler( boolean ansi, boolean stacktrace )
+	{
+		this( System.out, ansi, stacktrace );
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param out
+	 *        The output
+	 * @param ansi
+	 *        Whether to output ANSI colors and animations
+	 * @param stacktrace
+	 *        Whether to print stack traces of exceptions
+	 */
+	public ThrottledConsoleEventHandler( OutputStream out, boolean ansi, boolean stacktrace )
+	{
+		this( new PrintWriter( out ), ansi, stacktrace );
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param out
+	 *        The output
+	 * @param ansi
+	 *        Whether to output ANSI colors and animations
+	 * @param stacktrace
+	 *        Whether to print stack traces of exceptions
+	 */
+	public ThrottledConsoleEventHandler( PrintWriter out, boolean ansi, boolean stacktrace )
+	{
+		super( out, ansi, stacktrace );
+		thread = new Thread( new Frames(), "creel-console" );
+		thread.setDaemon( true );
+		thread.start();
+	}
+
+	//
+	// Attributes
+	//
+
+	/**
+	 * The number of times per second to repaint the ongoing events block.
+	 * Defaults to 10.
+	 * 
+	 * @return The frame rate
+	 */
+	public int getFrameRate()
+	{
+		return frameRate;
+	}
+
+	/**
+	 * The number of times per second to repaint the ongoing events block.
+	 * Defaults to 10.
+	 * 
+	 * @param frameRate
+	 *        The frame rate
+	 */
+	public void setFrameRate( int frameRate )
+	{
+		this.frameRate = frameRate;
+	}
+
+	/**
+	 * How often to print a summary of the ongoing events when not using ANSI,
+	 * in milliseconds. Defaults to 5000.
+	 * 
+	 * @return The summary interval
+	 */
+	public int getSummaryInterval()
+	{
+		return summaryInterval;
+	}
+
+	/**
+	 * How often to print a summary of the ongoing events when not using ANSI,
+	 * in milliseconds. Defaults to 5000.
+	 * 
+	 * @param summaryInterval
+	 *        The summary interval
+	 */
+	public void setSummaryInterval( int summaryInterval )
+	{
+		this.summaryInterval = summaryInterval;
+	}
+
+	//
+	// Closeable
+	//
+
+	/**
+	 * Stops the thread and paints the last frame. Events arriving after
+	 * closing are painted immediately.
+	 */
+	public void close()
+	{
+		closed = true;
+		thread.interrupt();
+		try
+		{
+			thread.join();
+		}
+		catch( InterruptedException x )
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		synchronized( this )
+		{
+			if( dirty )
+			{
+				repaint( null );
+				dirty = false;
+			}
+		}
+	}
+
+	// //////////////////////////////////////////////////////////////////////////
+	// Protected
+
+	@Override
+	protected boolean isRepaint( Event event )
+	{
+		Event.Type type = event.getType();
+		if( ( ( type == Event.Type.END ) || ( type == Event.Type.FAIL ) ) && ( event.getId() != null ) )
+			finished++;
+
+		if( closed )
+			return true;
+
+		if( ( type == Event.Type.BEGIN ) || ( type == Event.Type.UPDATE ) || ( type == Event.Type.DEBUG ) )
+		{
+			// Nothing to print now, so wait for the next frame
+			dirty = true;
+			return false;
+		}
+
+		// The ongoing events block will be repainted, too
+		dirty = false;
+		return true;
+	}
+
+	// //////////////////////////////////////////////////////////////////////////
+	// Private
+
+	private final Thread thread;
+
+	private volatile int frameRate = 10;
+
+	private volatile int summaryInterval = 5000;
+
+	private volatile boolean closed;
+
+	private boolean dirty;
+
+	private int finished;
+
+	private long lastSummary = System.currentTimeMillis();
+
+	private synchronized void frame()
+	{
+		if( isAnsi() )
+		{
+			if( dirty )
+			{
+				repaint( null );
+				dirty = false;
+			}
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		long elapsed = now - lastSummary;
+		if( elapsed < getSummaryInterval() )
+			return;
+
+		if( !ongoingEvents.isEmpty() )
+		{
+			int count = 0;
+			double progress = 0;
+			for( Event ongoingEvent : ongoingEvents.values() )
+			{
+				Double eventProgress = ongoingEvent.getProgress();
+				progress += eventProgress != null ? eventProgress : 0;
+				count++;
+			}
+
+			double seconds = elapsed / 1000.0;
+			getOut().println( String.format( "%d ongoing (%d%% done), %d finished in the last %.1f seconds (%.1f/s)", count, (int) ( progress * 100 / count ), finished, seconds, finished / seconds ) );
+			getOut().flush();
+		}
+
+		finished = 0;
+		lastSummary = now;
+	}
+
+	private class Frames implements Runnable
+	{
+		public void run()
+		{
+			try
+			{
+				while( !closed )
+				{
+					Thread.sleep( 1000 / Math.max( getFrameRate(), 1 ) );
+					frame();
+				}
+			}
+			catch( InterruptedException x )
+			{
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,388 @@
+/**
+ * Copyright 2015-2017 Three Crickets LLC.
+ * <p>
+ * The contents of this file are subject to the terms of the LGPL version 3.0:
+ * http://www.gnu.org/copyleft/lesser.html
+ * <p>
+ * Alternatively, you can obtain a royalty free commercial license with less
+ * limitations, transferable or non-transferable, directly from Three Crickets
+ * at http://threecrickets.com/
+ */
+
+package com.threecrickets.creel.event;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An event handler that writes ongoing events as a trace in the Chrome
+ * trace-event JSON format, which can be opened in Perfetto
+ * (https://ui.perfetto.dev/) or chrome://tracing.
+ * <p>
+ * Every ongoing event becomes a slice on the track of the thread that began it,
+ * named by its {@link Event.Type#BEGIN} message and categorized by the first
+ * word of that message ("Identifying", "Downloading", etc.). Events with a
+ * parent ID are linked to their parent with a flow arrow, so that you can
+ * follow an identification to the dependency identifications it spawned.
+ * {@link Event.Type#INFO} and {@link Event.Type#ERROR} events become instant
+ * events. {@link Event.Type#UPDATE} and {@link Event.Type#DEBUG} events are
+ * ignored.
+ * <p>
+ * Slices are written when they end, so slices that never end will not appear
+ * in the trace. Make sure to call {@link #close()} when done in order to
+ * complete the JSON. If writing fails, later events are ignored, and the
+ * failure is thrown by {@link #close()}.
+ * 
+ * @author Tal Liron
+ */
+public class TraceEventHandler implements EventHandler, Closeable
+{
+	//
+	// Constants
+	//
+
+	/**
+	 * The maximum number of slices to remember after they end, so that the
+	 * events they spawned can be linked to them.
+	 */
+	public static final int MAX_ENDED_SLICES = 1024;
+
+	//
+	// Construction
+	//
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param file
+	 *        The file
+	 * @throws IOException
+	 *         In case of an I/O error
+	 */
+	public TraceEventHandler( File file ) throws IOException
+	{
+		this( new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" ) );
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param writer
+	 *        The writer
+	 */
+	public TraceEventHandler( Writer writer )
+	{
+		out = new BufferedWriter( writer );
+		append( "[" );
+	}
+
+	//
+	// EventHandler
+	//
+
+	public synchronized boolean handleEvent( Event event )
+	{
+		if( closed || ( failure != null ) )
+			return false;
+
+		String id = event.getId();
+		switch( event.getType() )
+		{
+			case BEGIN:
+				if( id != null )
+					begin( event );
+				break;
+
+			case END:
+			case FAIL:
+				if( id != null )
+					end( event );
+				break;
+
+			case INFO:
+			case ERROR:
+				instant( event );
+				break;
+
+			default:
+				break;
+		}
+
+		return false;
+	}
+
+	//
+	// Closeable
+	//
+
+	/**
+	 * Completes the JSON and closes the writer. Events arriving after closing
+	 * are ignored.
+	 * 
+	 * @throws IOException
+	 *         If writing the trace failed at any point
+	 */
+	public synchronized void close() throws IOException
+	{
+		if( closed )
+			return;
+		closed = true;
+		append( "]\n" );
+		try
+		{
+			out.close();
+		}
+		catch( IOException x )
+		{
+			if( failure == null )
+				failure = x;
+		}
+		if( failure != null )
+			throw new IOException( "Could not write trace", failure );
+	}
+
+	// //////////////////////////////////////////////////////////////////////////
+	// Private
+
+	private final Writer out;
+
+	private final long origin = System.nanoTime();
+
+	private final Map<String, Slice> slices = new HashMap<String, Slice>();
+
+	// Some ended slices are kept, because dependencies begin only after the
+	// identification that spawned them has ended
+	private final Map<String, Slice> endedSlices = new LinkedHashMap<String, Slice>()
+	{
+		@Override
+		protected boolean removeEldestEntry( Map.Entry<String, Slice> eldest )
+		{
+			return size() > MAX_ENDED_SLICES;
+		}
+
+		private static final long serialVersionUID = 1L;
+	};
+
+	private final Set<Long> threadIds = new HashSet<Long>();
+
+	private boolean first = true;
+
+	private boolean closed;
+
+	private IOException failure;
+
+	private void begin( Event event )
+	{
+		thread( event );
+
+		// The message may be changed by updates, so we take it now
+		Slice slice = new Slice( event );
+		slices.put( event.getId(), slice );
+
+		Slice parent = null;
+		if( event.getParentId() != null )
+		{
+			parent = slices.get( event.getParentId() );
+			if( parent == null )
+				parent = endedSlices.get( event.getParentId() );
+		}
+		if( parent != null )
+		{
+			// Flow from the start of the parent to the start of the child (both
+			// ends must have the same category and name)
+			StringBuilder json = start( "s", "flow", "spawned", parent.timestamp, parent.threadId );
+			json.append( ",\"id\":" );
+			appendString( json, event.getId() );
+			write( json );
+
+			json = start( "f", "flow", "spawned", slice.timestamp, slice.threadId );
+			json.append( ",\"id\":" );
+			appendString( json, event.getId() );
+			json.append( ",\"bp\":\"e\"" );
+			write( json );
+		}
+	}
+
+	private void end( Event event )
+	{
+		Slice slice = slices.remove( event.getId() );
+		if( slice == null )
+			return;
+		endedSlices.put( event.getId(), slice );
+
+		thread( event );
+
+		StringBuilder args = new StringBuilder( ",\"args\":{\"id\":" );
+		appendString( args, event.getId() );
+		if( slice.parentId != null )
+		{
+			args.append( ",\"parent\":" );
+			appendString( args, slice.parentId );
+		}
+		if( event.getMessage() != null )
+		{
+			args.append( ",\"result\":" );
+			appendString( args, event.getMessage().toString() );
+		}
+		if( event.getType() == Event.Type.FAIL )
+			args.append( ",\"failed\":true" );
+		if( event.getException() != null )
+		{
+			args.append( ",\"exception\":" );
+			appendString( args, event.getException().toString() );
+		}
+		args.append( '}' );
+
+		if( event.getThreadId() == slice.threadId )
+		{
+			StringBuilder json = start( "X", slice.category, slice.name, slice.timestamp, slice.threadId );
+			json.append( ",\"dur\":" );
+			json.append( ( event.getTimestamp() - slice.timestamp ) / 1000 );
+			json.append( args );
+			write( json );
+		}
+		else
+		{
+			// Ended on another thread, so it cannot be a slice on a single
+			// thread's track
+			StringBuilder json = start( "b", slice.category, slice.name, slice.timestamp, slice.threadId );
+			json.append( ",\"id\":" );
+			appendString( json, event.getId() );
+			write( json );
+
+			json = start( "e", slice.category, slice.name, event.getTimestamp(), event.getThreadId() );
+			json.append( ",\"id\":" );
+			appendString( json, event.getId() );
+			json.append( args );
+			write( json );
+		}
+	}
+
+	private void instant( Event event )
+	{
+		thread( event );
+
+		String name = event.getMessage() != null ? event.getMessage().toString() : ( event.getException() != null ? event.getException().toString() : "" );
+		StringBuilder json = start( "i", event.getType() == Event.Type.ERROR ? "error" : "info", name, event.getTimestamp(), event.getThreadId() );
+		json.append( ",\"s\":\"t\"" );
+		write( json );
+	}
+
+	private void thread( Event event )
+	{
+		if( threadIds.add( event.getThreadId() ) )
+		{
+			StringBuilder json = new StringBuilder( "{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":1,\"tid\":" );
+			json.append( event.getThreadId() );
+			json.append( ",\"args\":{\"name\":" );
+			appendString( json, event.getThreadName() );
+			json.append( '}' );
+			write( json );
+		}
+	}
+
+	private StringBuilder start( String phase, String category, String name, long timestamp, long threadId )
+	{
+		StringBuilder json = new StringBuilder( "{\"ph\":\"" );
+		json.append( phase );
+		json.append( "\",\"cat\":" );
+		appendString( json, category );
+		json.append( ",\"name\":" );
+		appendString( json, name );
+		json.append( ",\"ts\":" );
+		json.append( ( timestamp - origin ) / 1000 );
+		json.append( ",\"pid\":1,\"tid\":" );
+		json.append( threadId );
+		return json;
+	}
+
+	private void write( StringBuilder json )
+	{
+		json.append( '}' );
+		if( first )
+			first = false;
+		else
+			append( ",\n" );
+		append( json );
+	}
+
+	private void append( CharSequence text )
+	{
+		if( failure != null )
+			return;
+		try
+		{
+			out.append( text );
+		}
+		catch( IOException x )
+		{
+			failure = x;
+		}
+	}
+
+	private static void appendString( StringBuilder json, String string )
+	{
+		json.append( '"' );
+		for( int i = 0, length = string.length(); i < length; i++ )
+		{
+			char c = string.charAt( i );
+			switch( c )
+			{
+				case '"':
+					json.append( "\\\"" );
+					break;
+				case '\\':
+					json.append( "\\\\" );
+					break;
+				case '\n':
+					json.append( "\\n" );
+					break;
+				case '\r':
+					json.append( "\\r" );
+					break;
+				case '\t':
+					json.append( "\\t" );
+					break;
+				default:
+					if( c < 0x20 )
+						json.append( String.format( "\\u%04x", (int) c ) );
+					else
+						json.append( c );
+			}
+		}
+		json.append( '"' );
+	}
+
+	private static class Slice
+	{
+		public Slice( Event event )
+		{
+			name = event.getMessage() != null ? event.getMessage().toString() : "";
+			int space = name.indexOf( ' ' );
+			category = space != -1 ? name.substring( 0, space ) : name;
+			parentId = event.getParentId();
+			timestamp = event.getTimestamp();
+			threadId = event.getThreadId();
+		}
+
+		public final String name;
+
+		public final String category;
+
+		public final String parentId;
+
+		public final long timestamp;
+
+		public final long threadId;
+	}
+}
\ No newline at end of file
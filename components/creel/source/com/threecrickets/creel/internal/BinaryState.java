@@ -0,0 +1,347 @@
+/**
+ * Copyright 2015-2017 Three Crickets LLC.
+ * <p>
+ * The contents of this file are subject to the terms of the LGPL version 3.0:
+ * http://www.gnu.org/copyleft/lesser.html
+ * <p>
+ * Alternatively, you can obtain a royalty free commercial license with less
+ * limitations, transferable or non-transferable, directly from Three Crickets
+ * at http://threecrickets.com/
+ */
+
+package com.threecrickets.creel.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.threecrickets.creel.util.IoUtil;
+
+/**
+ * Compact binary format for the state file.
+ * <p>
+ * All integers are 32-bit big-endian. The layout is:
+ * <ul>
+ * <li>Header: magic ("CREL"), format version, generation (incremented
+ * whenever the file is written)</li>
+ * <li>Index: string count, string offsets; module count, module offsets;
+ * artifact count, artifact offsets; fingerprint count, fingerprint offsets.
+ * Offsets are relative to the start of the data section.</li>
+ * <li>Data: strings (byte length followed by UTF-8 bytes), then records (entry
+ * count followed by key and value string indexes)</li>
+ * </ul>
+ * Each distinct string is stored only once, and the index allows for random
+ * access to strings and records directly from the buffer.
+ * 
+ * @author Tal Liron
+ */
+public abstract class BinaryState
+{
+	//
+	// Constants
+	//
+
+	/**
+	 * Magic number: "CREL".
+	 */
+	public static final int MAGIC = 0x4352454C;
+
+	/**
+	 * Format version.
+	 */
+	public static final int VERSION = 1;
+
+	//
+	// Static operations
+	//
+
+	/**
+	 * Checks whether a buffer is in the binary format.
+	 * 
+	 * @param buffer
+	 *        The buffer
+	 * @return True if binary
+	 */
+	public static boolean isBinary( ByteBuffer buffer )
+	{
+		return ( buffer.limit() >= 8 ) && ( buffer.getInt( 0 ) == MAGIC );
+	}
+
+	/**
+	 * Reads module, artifact, and fingerprint configs from a buffer in the
+	 * binary format.
+	 * 
+	 * @param buffer
+	 *        The buffer
+	 * @param modules
+	 *        The collection to which to add the module configs
+	 * @param artifacts
+	 *        The collection to which to add the artifact configs
+	 * @param fingerprints
+	 *        The collection to which to add the fingerprint configs
+	 * @return The generation
+	 * @throws IOException
+	 *         If the buffer is not in the binary format or is corrupt
+	 */
+	public static int read( ByteBuffer buffer, Collection<Map<String, String>> modules, Collection<Map<String, String>> artifacts, Collection<Map<String, String>> fingerprints ) throws IOException
+	{
+		buffer = buffer.duplicate();
+		try
+		{
+			if( buffer.getInt() != MAGIC )
+				throw new IOException( "Not a binary state file" );
+			int version = buffer.getInt();
+			if( version != VERSION )
+				throw new IOException( "Unsupported state file version: " + version );
+			int generation = buffer.getInt();
+
+			int stringCount = readCount( buffer, 4 );
+			int stringsIndex = buffer.position();
+			buffer.position( stringsIndex + stringCount * 4 );
+			int moduleCount = readCount( buffer, 4 );
+			int modulesIndex = buffer.position();
+			buffer.position( modulesIndex + moduleCount * 4 );
+			int artifactCount = readCount( buffer, 4 );
+			int artifactsIndex = buffer.position();
+			buffer.position( artifactsIndex + artifactCount * 4 );
+			int fingerprintCount = readCount( buffer, 4 );
+			int fingerprintsIndex = buffer.position();
+			int data = fingerprintsIndex + fingerprintCount * 4;
+
+			String[] strings = new String[stringCount];
+			byte[] bytes = new byte[0];
+			for( int i = 0; i < stringCount; i++ )
+			{
+				buffer.position( data + buffer.getInt( stringsIndex + i * 4 ) );
+				int length = readCount( buffer, 1 );
+				if( bytes.length < length )
+					bytes = new byte[length];
+				buffer.get( bytes, 0, length );
+				strings[i] = new String( bytes, 0, length, StandardCharsets.UTF_8 );
+			}
+
+			for( int i = 0; i < moduleCount; i++ )
+				modules.add( readRecord( buffer, data + buffer.getInt( modulesIndex + i * 4 ), strings ) );
+
+			for( int i = 0; i < artifactCount; i++ )
+				artifacts.add( readRecord( buffer, data + buffer.getInt( artifactsIndex + i * 4 ), strings ) );
+
+			for( int i = 0; i < fingerprintCount; i++ )
+				fingerprints.add( readRecord( buffer, data + buffer.getInt( fingerprintsIndex + i * 4 ), strings ) );
+
+			return generation;
+		}
+		catch( BufferUnderflowException x )
+		{
+			throw new IOException( "Corrupt binary state file", x );
+		}
+		catch( IndexOutOfBoundsException x )
+		{
+			throw new IOException( "Corrupt binary state file", x );
+		}
+		catch( IllegalArgumentException x )
+		{
+			// Position out of bounds
+			throw new IOException( "Corrupt binary state file", x );
+		}
+	}
+
+	/**
+	 * Reads module, artifact, and fingerprint configs from a file in the
+	 * binary format.
+	 * 
+	 * @param file
+	 *        The file
+	 * @param modules
+	 *        The collection to which to add the module configs
+	 * @param artifacts
+	 *        The collection to which to add the artifact configs
+	 * @param fingerprints
+	 *        The collection to which to add the fingerprint configs
+	 * @return The generation
+	 * @throws IOException
+	 *         In case of an I/O error
+	 */
+	public static int read( File file, Collection<Map<String, String>> modules, Collection<Map<String, String>> artifacts, Collection<Map<String, String>> fingerprints ) throws IOException
+	{
+		// We are not memory-mapping the file, because the mapping would keep
+		// it open (on Windows, until garbage collection), preventing it from
+		// being replaced
+		byte[] bytes = IoUtil.readBytes( file );
+		if( bytes == null )
+			throw new IOException( "Could not read " + file );
+		return read( ByteBuffer.wrap( bytes ), modules, artifacts, fingerprints );
+	}
+
+	/**
+	 * Writes module, artifact, and fingerprint configs to a file in the binary
+	 * format. Values are converted to strings, and null values are left out.
+	 * The file is forced to the storage device and replaced atomically, so
+	 * that readers never see a partially written file.
+	 * 
+	 * @param file
+	 *        The file
+	 * @param generation
+	 *        The generation
+	 * @param modules
+	 *        The module configs
+	 * @param artifacts
+	 *        The artifact configs
+	 * @param fingerprints
+	 *        The fingerprint configs
+	 * @throws IOException
+	 *         In case of an I/O error
+	 */
+	public static void write( File file, int generation, Iterable<? extends Map<String, ?>> modules, Iterable<? extends Map<String, ?>> artifacts, Iterable<? extends Map<String, ?>> fingerprints ) throws IOException
+	{
+		Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+		List<String> strings = new ArrayList<String>();
+
+		// Encode records, while building the string table
+		List<int[]> moduleRecords = new ArrayList<int[]>();
+		for( Map<String, ?> config : modules )
+			moduleRecords.add( toRecord( config, stringIndexes, strings ) );
+		List<int[]> artifactRecords = new ArrayList<int[]>();
+		for( Map<String, ?> config : artifacts )
+			artifactRecords.add( toRecord( config, stringIndexes, strings ) );
+		List<int[]> fingerprintRecords = new ArrayList<int[]>();
+		for( Map<String, ?> config : fingerprints )
+			fingerprintRecords.add( toRecord( config, stringIndexes, strings ) );
+
+		// Data section
+		ByteArrayOutputStream dataBytes = new ByteArrayOutputStream( IoUtil.bufferSize );
+		DataOutputStream data = new DataOutputStream( dataBytes );
+		int[] stringOffsets = new int[strings.size()];
+		for( int i = 0, size = strings.size(); i < size; i++ )
+		{
+			stringOffsets[i] = data.size();
+			byte[] bytes = strings.get( i ).getBytes( StandardCharsets.UTF_8 );
+			data.writeInt( bytes.length );
+			data.write( bytes );
+		}
+		int[] moduleOffsets = writeRecords( data, moduleRecords );
+		int[] artifactOffsets = writeRecords( data, artifactRecords );
+		int[] fingerprintOffsets = writeRecords( data, fingerprintRecords );
+		data.flush();
+
+		File tempFile = new File( file.getPath() + ".tmp" );
+		FileOutputStream stream = new FileOutputStream( tempFile );
+		DataOutputStream out = new DataOutputStream( new BufferedOutputStream( stream, IoUtil.bufferSize ) );
+		try
+		{
+			out.writeInt( MAGIC );
+			out.writeInt( VERSION );
+			out.writeInt( generation );
+			writeIndex( out, stringOffsets );
+			writeIndex( out, moduleOffsets );
+			writeIndex( out, artifactOffsets );
+			writeIndex( out, fingerprintOffsets );
+			dataBytes.writeTo( out );
+			out.flush();
+
+			// Make sure the content is durable before it replaces the old
+			// file
+			stream.getChannel().force( true );
+		}
+		finally
+		{
+			out.close();
+		}
+
+		Files.move( tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+	}
+
+	// //////////////////////////////////////////////////////////////////////////
+	// Private
+
+	private BinaryState()
+	{
+	}
+
+	/**
+	 * Reads a count, making sure that there is enough room left in the buffer
+	 * for that many elements.
+	 */
+	private static int readCount( ByteBuffer buffer, int elementSize ) throws IOException
+	{
+		int count = buffer.getInt();
+		if( ( count < 0 ) || ( count > buffer.remaining() / elementSize ) )
+			throw new IOException( "Corrupt binary state file: invalid count " + count );
+		return count;
+	}
+
+	private static Map<String, String> readRecord( ByteBuffer buffer, int offset, String[] strings ) throws IOException
+	{
+		buffer.position( offset );
+		int count = readCount( buffer, 8 );
+		Map<String, String> config = new HashMap<String, String>( count * 2 );
+		for( int i = 0; i < count; i++ )
+		{
+			String key = strings[buffer.getInt()];
+			String value = strings[buffer.getInt()];
+			config.put( key, value );
+		}
+		return config;
+	}
+
+	private static int[] toRecord( Map<String, ?> config, Map<String, Integer> stringIndexes, List<String> strings )
+	{
+		int[] record = new int[config.size() * 2];
+		int i = 0;
+		for( Map.Entry<String, ?> entry : config.entrySet() )
+		{
+			if( entry.getValue() == null )
+				continue;
+			record[i++] = toStringIndex( entry.getKey(), stringIndexes, strings );
+			record[i++] = toStringIndex( entry.getValue().toString(), stringIndexes, strings );
+		}
+		return i < record.length ? Arrays.copyOf( record, i ) : record;
+	}
+
+	private static int toStringIndex( String string, Map<String, Integer> stringIndexes, List<String> strings )
+	{
+		Integer index = stringIndexes.get( string );
+		if( index == null )
+		{
+			index = strings.size();
+			strings.add( string );
+			stringIndexes.put( string, index );
+		}
+		return index;
+	}
+
+	private static int[] writeRecords( DataOutputStream data, List<int[]> records ) throws IOException
+	{
+		int[] offsets = new int[records.size()];
+		for( int i = 0, size = records.size(); i < size; i++ )
+		{
+			int[] record = records.get( i );
+			offsets[i] = data.size();
+			data.writeInt( record.length / 2 );
+			for( int value : record )
+				data.writeInt( value );
+		}
+		return offsets;
+	}
+
+	private static void writeIndex( DataOutputStream out, int[] offsets ) throws IOException
+	{
+		out.writeInt( offsets.length );
+		for( int offset : offsets )
+			out.writeInt( offset );
+	}
+}
\ No newline at end of file
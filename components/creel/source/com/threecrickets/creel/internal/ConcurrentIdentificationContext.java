@@ -13,7 +13,6 @@ package com.threecrickets.creel.internal;
 
 import java.io.Closeable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Phaser;
 
 import com.threecrickets.creel.Engine;
@@ -39,7 +38,7 @@ public class ConcurrentIdentificationContext implements Closeable
 	 */
 	public ConcurrentIdentificationContext( int threads )
 	{
-		executor = Executors.newFixedThreadPool( threads, DaemonThreadFactory.INSTANCE );
+		executor = new ResizableThreadPool( threads );
 	}
 
 	//
@@ -56,6 +55,47 @@ public class ConcurrentIdentificationContext implements Closeable
 		return executor;
 	}
 
+	/**
+	 * Number of threads for the executor.
+	 * 
+	 * @return Number of threads
+	 */
+	public int getThreads()
+	{
+		return executor.getThreads();
+	}
+
+	/**
+	 * Number of threads for the executor.
+	 * 
+	 * @param threads
+	 *        Number of threads
+	 */
+	public void setThreads( int threads )
+	{
+		executor.setThreads( threads );
+	}
+
+	/**
+	 * Number of tasks waiting for a thread.
+	 * 
+	 * @return The queue depth
+	 */
+	public int getQueueDepth()
+	{
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Number of threads running tasks.
+	 * 
+	 * @return The active thread count
+	 */
+	public int getActiveThreads()
+	{
+		return executor.getActiveCount();
+	}
+
 	/**
 	 * The phaser.
 	 * 
@@ -88,6 +128,10 @@ public class ConcurrentIdentificationContext implements Closeable
 	 */
 	public void identifyModule( Engine.IdentifyModule identifyModule )
 	{
+		if( executor.isShutdown() )
+			// Cancelled
+			return;
+
 		getPhaser().register();
 		getExecutor().submit( identifyModule );
 	}
@@ -130,6 +174,16 @@ public class ConcurrentIdentificationContext implements Closeable
 		getJobs().notifyEnd( module.getSpecification().hashCode() );
 	}
 
+	/**
+	 * Stops identifying: queued tasks are dropped, running tasks are
+	 * interrupted, and {@link #close()} will not wait for them.
+	 */
+	public void cancel()
+	{
+		phaser.forceTermination();
+		executor.shutdownNow();
+	}
+
 	//
 	// Closeable
 	//
@@ -143,7 +197,7 @@ public class ConcurrentIdentificationContext implements Closeable
 	// //////////////////////////////////////////////////////////////////////////
 	// Private
 
-	private final ExecutorService executor;
+	private final ResizableThreadPool executor;
 
 	private final Phaser phaser = new Phaser( 1 );
 
@@ -57,6 +57,17 @@ public class IdentificationContext
 		return repositories;
 	}
 
+	/**
+	 * Repositories removed from {@link #getRepositories()} by learned routing.
+	 * They should be queried if none of the repositories have the module.
+	 * 
+	 * @return The skipped repositories
+	 */
+	public Collection<Repository> getSkippedRepositories()
+	{
+		return skippedRepositories;
+	}
+
 	/**
 	 * Whether we should exclude the current module.
 	 * 
@@ -104,6 +115,8 @@ public class IdentificationContext
 
 	private final Collection<Repository> repositories = new ArrayList<Repository>();
 
+	private final Collection<Repository> skippedRepositories = new ArrayList<Repository>();
+
 	private boolean exclude;
 
 	private boolean recursive;
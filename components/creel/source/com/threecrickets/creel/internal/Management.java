@@ -0,0 +1,92 @@
+/**
+ * Copyright 2015-2017 Three Crickets LLC.
+ * <p>
+ * The contents of this file are subject to the terms of the LGPL version 3.0:
+ * http://www.gnu.org/copyleft/lesser.html
+ * <p>
+ * Alternatively, you can obtain a royalty free commercial license with less
+ * limitations, transferable or non-transferable, directly from Three Crickets
+ * at http://threecrickets.com/
+ */
+
+package com.threecrickets.creel.internal;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.threecrickets.creel.exception.CreelException;
+
+/**
+ * JMX utilities.
+ * 
+ * @author Tal Liron
+ */
+public abstract class Management
+{
+	//
+	// Constants
+	//
+
+	/**
+	 * The JMX domain.
+	 */
+	public static final String DOMAIN = "com.threecrickets.creel";
+
+	//
+	// Static operations
+	//
+
+	/**
+	 * Registers an MXBean with the platform MBean server under a new, unique
+	 * name.
+	 * 
+	 * @param mxbean
+	 *        The MXBean
+	 * @param type
+	 *        The type
+	 * @return The name
+	 */
+	public static ObjectName register( Object mxbean, String type )
+	{
+		try
+		{
+			ObjectName name = new ObjectName( DOMAIN + ":type=" + type + ",id=" + nextId.incrementAndGet() );
+			ManagementFactory.getPlatformMBeanServer().registerMBean( mxbean, name );
+			return name;
+		}
+		catch( JMException x )
+		{
+			throw new CreelException( "Could not register MXBean: " + type, x );
+		}
+	}
+
+	/**
+	 * Unregisters an MXBean from the platform MBean server.
+	 * 
+	 * @param name
+	 *        The name
+	 */
+	public static void unregister( ObjectName name )
+	{
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean( name );
+		}
+		catch( JMException x )
+		{
+			throw new CreelException( "Could not unregister MXBean: " + name, x );
+		}
+	}
+
+	// //////////////////////////////////////////////////////////////////////////
+	// Private
+
+	private static final AtomicInteger nextId = new AtomicInteger();
+
+	private Management()
+	{
+	}
+}
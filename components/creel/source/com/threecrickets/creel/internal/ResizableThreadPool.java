@@ -0,0 +1,77 @@
+/**
+ * Copyright 2015-2017 Three Crickets LLC.
+ * <p>
+ * The contents of this file are subject to the terms of the LGPL version 3.0:
+ * http://www.gnu.org/copyleft/lesser.html
+ * <p>
+ * Alternatively, you can obtain a royalty free commercial license with less
+ * limitations, transferable or non-transferable, directly from Three Crickets
+ * at http://threecrickets.com/
+ */
+
+package com.threecrickets.creel.internal;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed thread pool of daemon threads (like
+ * {@link java.util.concurrent.Executors#newFixedThreadPool(int)}) that can be
+ * resized while running.
+ * 
+ * @author Tal Liron
+ */
+public class ResizableThreadPool extends ThreadPoolExecutor
+{
+	//
+	// Construction
+	//
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param threads
+	 *        Number of threads
+	 */
+	public ResizableThreadPool( int threads )
+	{
+		super( threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), DaemonThreadFactory.INSTANCE );
+	}
+
+	//
+	// Attributes
+	//
+
+	/**
+	 * Number of threads.
+	 * 
+	 * @return Number of threads
+	 */
+	public int getThreads()
+	{
+		return getCorePoolSize();
+	}
+
+	/**
+	 * Number of threads. When shrinking, busy threads will finish their
+	 * current task first.
+	 * 
+	 * @param threads
+	 *        Number of threads
+	 */
+	public synchronized void setThreads( int threads )
+	{
+		// The core size may never be larger than the maximum size
+		if( threads > getMaximumPoolSize() )
+		{
+			setMaximumPoolSize( threads );
+			setCorePoolSize( threads );
+		}
+		else
+		{
+			setCorePoolSize( threads );
+			setMaximumPoolSize( threads );
+		}
+	}
+}
@@ -0,0 +1,299 @@
+/**
+ * Copyright 2015-2017 Three Crickets LLC.
+ * <p>
+ * The contents of this file are subject to the terms of the LGPL version 3.0:
+ * http://www.gnu.org/copyleft/lesser.html
+ * <p>
+ * Alternatively, you can obtain a royalty free commercial license with less
+ * limitations, transferable or non-transferable, directly from Three Crickets
+ * at http://threecrickets.com/
+ */
+
+package com.threecrickets.creel.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.threecrickets.creel.Repository;
+import com.threecrickets.creel.util.IoUtil;
+import com.threecrickets.creel.util.SortedProperties;
+
+/**
+ * Learned routing table: remembers which repositories served (or did not
+ * serve) modules per routing key prefix (for Maven, the group), and uses this
+ * to filter the repositories for later queries.
+ * <p>
+ * Repositories that repeatedly did not serve a prefix, and never did, are
+ * skipped, but are probed again once in a while to stay correct. The
+ * configured order of the remaining repositories is kept, because it decides
+ * which repository serves a module available from several.
+ * <p>
+ * Thread-safe.
+ * 
+ * @author Tal Liron
+ */
+public class Routes
+{
+	//
+	// Constants
+	//
+
+	/**
+	 * Number of consecutive misses after which a repository is skipped for a
+	 * prefix.
+	 */
+	public static final int MISSES_TO_SKIP = 3;
+
+	/**
+	 * How long in milliseconds to skip a repository before probing it again.
+	 */
+	public static final long REPROBE_INTERVAL = 7L * 24 * 60 * 60 * 1000;
+
+	/**
+	 * Minimum number of parts in a prefix.
+	 */
+	public static final int MINIMUM_PREFIX_PARTS = 2;
+
+	//
+	// Construction
+	//
+
+	/**
+	 * Constructor. Will load the routes from the file if it exists.
+	 * 
+	 * @param file
+	 *        The file or null to keep the routes only in memory
+	 * @throws IOException
+	 *         In case the file could not be read
+	 */
+	public Routes( File file ) throws IOException
+	{
+		this.file = file;
+
+		if( file != null )
+		{
+			Properties properties = IoUtil.loadProperties( file );
+
+			for( Map.Entry<Object, Object> entry : properties.entrySet() )
+			{
+				String[] values = entry.getValue().toString().split( "," );
+				if( values.length != 3 )
+					continue;
+				try
+				{
+					Route route = new Route();
+					route.hits.set( Integer.parseInt( values[0] ) );
+					route.misses.set( Integer.parseInt( values[1] ) );
+					route.lastProbe = Long.parseLong( values[2] );
+					routes.put( entry.getKey().toString(), route );
+				}
+				catch( NumberFormatException x )
+				{
+					// Ignore corrupt entries
+				}
+			}
+		}
+	}
+
+	//
+	// Attributes
+	//
+
+	/**
+	 * The file.
+	 * 
+	 * @return The file or null
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+
+	//
+	// Operations
+	//
+
+	/**
+	 * Removes the repositories that are known to not serve the key, keeping
+	 * the order of the rest. Will never remove all repositories.
+	 * <p>
+	 * The removed repositories are returned, so that they can be queried after
+	 * all if none of the remaining ones serve the key.
+	 * 
+	 * @param key
+	 *        The routing key or null
+	 * @param repositories
+	 *        The repositories (will be modified in place)
+	 * @return The removed repositories
+	 */
+	public Collection<Repository> route( String key, Collection<Repository> repositories )
+	{
+		if( ( key == null ) || ( repositories.size() < 2 ) )
+			return Collections.emptyList();
+
+		Collection<Repository> skipped = new ArrayList<Repository>();
+		long now = System.currentTimeMillis();
+		for( Repository repository : repositories )
+		{
+			Route route = getRoute( key, repository );
+			if( route == null )
+				continue;
+			if( ( route.hits.get() == 0 ) && ( route.misses.get() >= MISSES_TO_SKIP ) && ( now - route.lastProbe < REPROBE_INTERVAL ) )
+				skipped.add( repository );
+		}
+
+		if( skipped.size() < repositories.size() )
+			repositories.removeAll( skipped );
+		else
+			skipped.clear();
+		return skipped;
+	}
+
+	/**
+	 * Records that a repository served the key.
+	 * 
+	 * @param key
+	 *        The routing key or null
+	 * @param repository
+	 *        The repository
+	 */
+	public void hit( String key, Repository repository )
+	{
+		if( key == null )
+			return;
+		long now = System.currentTimeMillis();
+		for( String prefix : getPrefixes( key ) )
+		{
+			Route route = obtainRoute( prefix, repository );
+			route.hits.incrementAndGet();
+			route.misses.set( 0 );
+			route.lastProbe = now;
+		}
+		changed = true;
+	}
+
+	/**
+	 * Records that a repository did not serve the key.
+	 * 
+	 * @param key
+	 *        The routing key or null
+	 * @param repository
+	 *        The repository
+	 */
+	public void miss( String key, Repository repository )
+	{
+		if( key == null )
+			return;
+		long now = System.currentTimeMillis();
+
+		// Only the full key: a miss for a group says nothing about its
+		// siblings
+		Route route = obtainRoute( key, repository );
+		route.misses.incrementAndGet();
+		route.lastProbe = now;
+		changed = true;
+	}
+
+	/**
+	 * Saves the routes to the file, if they have changed.
+	 * 
+	 * @throws IOException
+	 *         In case the file could not be written
+	 */
+	public void save() throws IOException
+	{
+		if( ( file == null ) || !changed )
+			return;
+		changed = false;
+
+		Properties properties = new SortedProperties();
+		for( Map.Entry<String, Route> entry : routes.entrySet() )
+		{
+			Route route = entry.getValue();
+			properties.put( entry.getKey(), route.hits.get() + "," + route.misses.get() + "," + route.lastProbe );
+		}
+
+		IoUtil.storeProperties( properties, file, "Managed by Creel" );
+	}
+
+	// //////////////////////////////////////////////////////////////////////////
+	// Private
+
+	private final File file;
+
+	private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<String, Route>();
+
+	private volatile boolean changed;
+
+	private static class Route
+	{
+		final AtomicInteger hits = new AtomicInteger();
+
+		final AtomicInteger misses = new AtomicInteger();
+
+		volatile long lastProbe;
+	}
+
+	private static String getRouteKey( String prefix, Repository repository )
+	{
+		return repository.getId() + '|' + prefix;
+	}
+
+	private static Iterable<String> getPrefixes( String key )
+	{
+		List<String> prefixes = new ArrayList<String>();
+		prefixes.add( key );
+		String[] parts = key.split( "\\." );
+		StringBuilder prefix = new StringBuilder();
+		for( int i = 0; i < parts.length - 1; i++ )
+		{
+			if( i > 0 )
+				prefix.append( '.' );
+			prefix.append( parts[i] );
+			if( i + 1 >= MINIMUM_PREFIX_PARTS )
+				prefixes.add( prefix.toString() );
+		}
+		return prefixes;
+	}
+
+	/**
+	 * Finds the route for the longest known prefix of the key.
+	 */
+	private Route getRoute( String key, Repository repository )
+	{
+		String prefix = key;
+		while( true )
+		{
+			Route route = routes.get( getRouteKey( prefix, repository ) );
+			if( route != null )
+				return route;
+			int dot = prefix.lastIndexOf( '.' );
+			if( dot == -1 )
+				return null;
+			prefix = prefix.substring( 0, dot );
+		}
+	}
+
+	private Route obtainRoute( String prefix, Repository repository )
+	{
+		String routeKey = getRouteKey( prefix, repository );
+		Route route = routes.get( routeKey );
+		if( route == null )
+		{
+			route = new Route();
+			Route existing = routes.putIfAbsent( routeKey, route );
+			if( existing != null )
+				route = existing;
+		}
+		return route;
+	}
+}
\ No newline at end of file
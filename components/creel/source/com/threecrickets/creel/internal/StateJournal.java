@@ -0,0 +1,383 @@
+/**
+ * Copyright 2015-2017 Three Crickets LLC.
+ * <p>
+ * The contents of this file are subject to the terms of the LGPL version 3.0:
+ * http://www.gnu.org/copyleft/lesser.html
+ * <p>
+ * Alternatively, you can obtain a royalty free commercial license with less
+ * limitations, transferable or non-transferable, directly from Three Crickets
+ * at http://threecrickets.com/
+ */
+
+package com.threecrickets.creel.internal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.threecrickets.creel.util.IoUtil;
+
+/**
+ * Append-only journal of changes to the state file.
+ * <p>
+ * Each record is framed by its length and a CRC32 checksum, followed by the
+ * record type and its key/value pairs. A record that was only partially
+ * written (for example, if the process was killed) fails the checksum, and it
+ * and everything after it are ignored when reading.
+ * <p>
+ * The journal is emptied when the state is compacted into the state file. It
+ * starts with the generation of the state file to which it applies, so that a
+ * journal that was left behind by an interrupted compaction is ignored.
+ * 
+ * @author Tal Liron
+ */
+public class StateJournal
+{
+	//
+	// Constants
+	//
+
+	/**
+	 * Record type: a module was added.
+	 */
+	public static final byte ADD_MODULE = 1;
+
+	/**
+	 * Record type: an artifact was added or replaced.
+	 */
+	public static final byte PUT_ARTIFACT = 2;
+
+	/**
+	 * Record type: an artifact was removed.
+	 */
+	public static final byte REMOVE_ARTIFACT = 3;
+
+	/**
+	 * Record type: a package fingerprint was added or replaced.
+	 */
+	public static final byte PUT_FINGERPRINT = 4;
+
+	/**
+	 * Record type: a package fingerprint was removed.
+	 */
+	public static final byte REMOVE_FINGERPRINT = 5;
+
+	/**
+	 * Record type: the generation of the state file to which the journal
+	 * applies. Always the first record.
+	 */
+	public static final byte GENERATION = 6;
+
+	//
+	// Static operations
+	//
+
+	/**
+	 * The journal file for a state file.
+	 * 
+	 * @param stateFile
+	 *        The state file
+	 * @return The journal file
+	 */
+	public static File getFile( File stateFile )
+	{
+		return new File( stateFile.getPath() + ".journal" );
+	}
+
+	//
+	// Construction
+	//
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param stateFile
+	 *        The state file
+	 */
+	public StateJournal( File stateFile )
+	{
+		file = getFile( stateFile );
+	}
+
+	//
+	// Attributes
+	//
+
+	/**
+	 * The journal file.
+	 * 
+	 * @return The journal file
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * The size of the journal file.
+	 * 
+	 * @return The size in bytes, or 0 if it does not exist
+	 */
+	public long length()
+	{
+		return file.length();
+	}
+
+	//
+	// Operations
+	//
+
+	/**
+	 * Reads all intact records. If the journal ends with a partially written
+	 * record, it is truncated so that later records can be appended safely.
+	 * If the journal belongs to a different generation of the state file, it
+	 * is deleted and no records are returned.
+	 * 
+	 * @param generation
+	 *        The generation of the state file
+	 * @return The records
+	 * @throws IOException
+	 *         In case of an I/O error
+	 */
+	public Iterable<Record> read( int generation ) throws IOException
+	{
+		List<Record> records = new ArrayList<Record>();
+		DataInputStream in;
+		try
+		{
+			in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), IoUtil.bufferSize ) );
+		}
+		catch( FileNotFoundException x )
+		{
+			return records;
+		}
+		long intactLength = 0;
+		try
+		{
+			CRC32 crc = new CRC32();
+			while( true )
+			{
+				byte[] payload;
+				try
+				{
+					int length = in.readInt();
+					int checksum = in.readInt();
+					if( length < 0 )
+						break;
+					payload = new byte[length];
+					in.readFully( payload );
+					crc.reset();
+					crc.update( payload );
+					if( (int) crc.getValue() != checksum )
+						break;
+				}
+				catch( EOFException x )
+				{
+					// Truncated record
+					break;
+				}
+
+				DataInputStream record = new DataInputStream( new ByteArrayInputStream( payload ) );
+				byte type = record.readByte();
+				int count = record.readInt();
+				Map<String, String> config = new HashMap<String, String>( count * 2 );
+				for( int i = 0; i < count; i++ )
+				{
+					String key = record.readUTF();
+					String value = record.readUTF();
+					config.put( key, value );
+				}
+				records.add( new Record( type, config ) );
+				intactLength += 8 + payload.length;
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+
+		if( intactLength < file.length() )
+		{
+			FileOutputStream stream = new FileOutputStream( file, true );
+			try
+			{
+				stream.getChannel().truncate( intactLength );
+			}
+			finally
+			{
+				stream.close();
+			}
+		}
+
+		if( records.isEmpty() )
+			return records;
+
+		// A journal left behind by an interrupted compaction belongs to an
+		// older generation
+		Record first = records.remove( 0 );
+		if( ( first.getType() != GENERATION ) || !String.valueOf( generation ).equals( first.getConfig().get( "generation" ) ) )
+		{
+			delete();
+			return Collections.<Record> emptyList();
+		}
+
+		return records;
+	}
+
+	/**
+	 * Appends records and forces them to the storage device. A new journal
+	 * starts with the generation of the state file.
+	 * 
+	 * @param records
+	 *        The records
+	 * @param generation
+	 *        The generation of the state file
+	 * @throws IOException
+	 *         In case of an I/O error
+	 */
+	public void append( Iterable<Record> records, int generation ) throws IOException
+	{
+		Iterator<Record> i = records.iterator();
+		if( !i.hasNext() )
+			return;
+		List<Record> allRecords = new ArrayList<Record>();
+		if( length() == 0 )
+			allRecords.add( new Record( GENERATION, Collections.singletonMap( "generation", generation ) ) );
+		while( i.hasNext() )
+			allRecords.add( i.next() );
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream( bytes );
+		ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+		DataOutputStream payload = new DataOutputStream( payloadBytes );
+		CRC32 crc = new CRC32();
+		for( Record record : allRecords )
+		{
+			payloadBytes.reset();
+			payload.writeByte( record.getType() );
+			payload.writeInt( record.getConfig().size() );
+			for( Map.Entry<String, String> entry : record.getConfig().entrySet() )
+			{
+				payload.writeUTF( entry.getKey() );
+				payload.writeUTF( entry.getValue() );
+			}
+			payload.flush();
+
+			crc.reset();
+			crc.update( payloadBytes.toByteArray() );
+			out.writeInt( payloadBytes.size() );
+			out.writeInt( (int) crc.getValue() );
+			payloadBytes.writeTo( out );
+		}
+		out.flush();
+
+		if( bytes.size() == 0 )
+			return;
+
+		FileOutputStream stream = new FileOutputStream( file, true );
+		try
+		{
+			bytes.writeTo( stream );
+			stream.getChannel().force( false );
+		}
+		finally
+		{
+			stream.close();
+		}
+	}
+
+	/**
+	 * Deletes the journal file. If it cannot be deleted, it is emptied, so
+	 * that new records will not be appended to a journal of an older
+	 * generation.
+	 */
+	public void delete()
+	{
+		if( !file.delete() && file.exists() )
+		{
+			try
+			{
+				new FileOutputStream( file ).close();
+			}
+			catch( IOException x )
+			{
+			}
+		}
+	}
+
+	//
+	// Classes
+	//
+
+	/**
+	 * A journal record.
+	 */
+	public static class Record
+	{
+		/**
+		 * Constructor.
+		 * 
+		 * @param type
+		 *        The record type
+		 * @param config
+		 *        The config (values are converted to strings, and null values
+		 *        are left out)
+		 */
+		public Record( byte type, Map<String, ?> config )
+		{
+			this.type = type;
+			Map<String, String> strings = new HashMap<String, String>();
+			for( Map.Entry<String, ?> entry : config.entrySet() )
+				if( entry.getValue() != null )
+					strings.put( entry.getKey(), entry.getValue().toString() );
+			this.config = Collections.unmodifiableMap( strings );
+		}
+
+		/**
+		 * The record type.
+		 * 
+		 * @return The record type
+		 */
+		public byte getType()
+		{
+			return type;
+		}
+
+		/**
+		 * The config.
+		 * 
+		 * @return The config
+		 */
+		public Map<String, String> getConfig()
+		{
+			return config;
+		}
+
+		// //////////////////////////////////////////////////////////////////////////
+		// Private
+
+		private final byte type;
+
+		private final Map<String, String> config;
+	}
+
+	// //////////////////////////////////////////////////////////////////////////
+	// Private
+
+	private final File file;
+}
\ No newline at end of file
@@ -285,6 +285,25 @@ public class MavenModuleSpecification extends ModuleSpecification
 		return allowed;
 	}
 
+	public String getRoutingKey()
+	{
+		// The group, if all options share the same group and it is not a glob
+		String group = null;
+		for( SpecificationOption option : getOptions() )
+		{
+			if( option.isExclude() )
+				continue;
+			String optionGroup = option.getGroup();
+			if( ( optionGroup == null ) || ( optionGroup.indexOf( '*' ) != -1 ) || ( optionGroup.indexOf( '?' ) != -1 ) )
+				return null;
+			if( group == null )
+				group = optionGroup;
+			else if( !group.equals( optionGroup ) )
+				return null;
+		}
+		return group;
+	}
+
 	//
 	// Cloneable
 	//
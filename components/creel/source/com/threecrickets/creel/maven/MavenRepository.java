@@ -13,15 +13,25 @@ package com.threecrickets.creel.maven;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import com.threecrickets.creel.Artifact;
 import com.threecrickets.creel.Command;
@@ -30,16 +40,24 @@ import com.threecrickets.creel.ModuleIdentifier;
 import com.threecrickets.creel.ModuleSpecification;
 import com.threecrickets.creel.Repository;
 import com.threecrickets.creel.Rule;
+import com.threecrickets.creel.RunStatistics;
+import com.threecrickets.creel.event.Message;
 import com.threecrickets.creel.event.Notifier;
 import com.threecrickets.creel.exception.CreelException;
 import com.threecrickets.creel.exception.IncompatiblePlatformException;
 import com.threecrickets.creel.exception.InvalidArtifactException;
+import com.threecrickets.creel.maven.internal.Dependency;
+import com.threecrickets.creel.maven.internal.EffectivePOM;
+import com.threecrickets.creel.maven.internal.Exclusion;
+import com.threecrickets.creel.maven.internal.InvalidSignatureException;
 import com.threecrickets.creel.maven.internal.MetaData;
 import com.threecrickets.creel.maven.internal.POM;
 import com.threecrickets.creel.maven.internal.Signature;
 import com.threecrickets.creel.maven.internal.SpecificationOption;
 import com.threecrickets.creel.util.ConfigHelper;
+import com.threecrickets.creel.util.HexUtil;
 import com.threecrickets.creel.util.IoUtil;
+import com.threecrickets.creel.util.NegativeCache;
 
 /**
  * Creel implementation of <a href="https://maven.apache.org/">Maven</a> m2
@@ -50,6 +68,15 @@ import com.threecrickets.creel.util.IoUtil;
  * (group/name/version), applying version ranges, downloading ".jar" files, and
  * validating against signatures in ".sha1" or ".md5" files.
  * <p>
+ * Dependencies are resolved against the "effective POM": properties,
+ * dependencies, and &lt;dependencyManagement&gt; are inherited from the parent
+ * chain, and managed dependencies can be imported from "bill of materials"
+ * (BOM) POMs. A dependency's &lt;exclusions&gt; are applied to its entire
+ * dependency subtree. Effective POMs are cached in the repository instance, so that
+ * shared parents and BOMs are fetched and parsed only once. Optionally, set
+ * "pomCache" to a directory in which validated POM files will be stored
+ * between runs (snapshots are never stored).
+ * <p>
  * Supports the following rules:
  * <ul>
  * <li><b>exclude</b>: Excludes modules from installation. Note that their
@@ -121,11 +148,35 @@ public class MavenRepository extends Repository
 	 *        secure) if SHA-1 signatures are not available
 	 */
 	public MavenRepository( String id, boolean all, URL url, boolean checkSignatures, boolean allowMd5 )
+	{
+		this( id, all, url, checkSignatures, allowMd5, null );
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param id
+	 *        The repository ID (should be unique in the engine)
+	 * @param all
+	 *        Whether the engine should attempt to identify all modules in this
+	 *        repository
+	 * @param url
+	 *        The root URL
+	 * @param checkSignatures
+	 *        Whether we should check signatures for all downloaded files
+	 * @param allowMd5
+	 *        Whether we should allow for MD5 signatures (considered less
+	 *        secure) if SHA-1 signatures are not available
+	 * @param pomCache
+	 *        The directory in which to store validated POM files or null
+	 */
+	public MavenRepository( String id, boolean all, URL url, boolean checkSignatures, boolean allowMd5, File pomCache )
 	{
 		super( id, all );
 		this.url = url;
 		this.checkSignatures = checkSignatures;
 		this.allowMd5 = allowMd5;
+		this.pomCache = pomCache;
 	}
 
 	/**
@@ -148,6 +199,8 @@ public class MavenRepository extends Repository
 		}
 		checkSignatures = configHelper.getBoolean( "checkSignatures", true );
 		allowMd5 = configHelper.getBoolean( "allowMd5" );
+		String pomCache = configHelper.getString( "pomCache" );
+		this.pomCache = pomCache != null ? new File( pomCache ) : null;
 	}
 
 	//
@@ -185,6 +238,16 @@ public class MavenRepository extends Repository
 		return allowMd5;
 	}
 
+	/**
+	 * The directory in which to store validated POM files between runs.
+	 * 
+	 * @return The POM cache directory or null
+	 */
+	public File getPomCache()
+	{
+		return pomCache;
+	}
+
 	/**
 	 * Gets a local file representing a module artifact in the repository.
 	 * 
@@ -353,12 +416,95 @@ public class MavenRepository extends Repository
 		if( notifier == null )
 			notifier = new Notifier();
 
-		// TODO: cache POMs?
 		URL url = getUrl( moduleIdentifier, "pom", null );
+		File cachedFile = ( pomCache != null ) && !moduleIdentifier.getVersion().endsWith( "-SNAPSHOT" ) ? getFile( moduleIdentifier, "pom", null, pomCache, false ) : null;
 		try
 		{
-			Signature signature = isCheckSignatures() ? new Signature( url, isAllowMd5() ) : null;
-			POM pom = new POM( url, signature );
+			POM pom = null;
+			if( ( cachedFile != null ) && cachedFile.isFile() )
+			{
+				pom = getCachedPom( cachedFile );
+				if( pom != null )
+				{
+					addCacheLookup( RunStatistics.Cache.POM, true );
+					notifier.debug( new Message( "Cached POM: ", cachedFile ) );
+				}
+				else
+					notifier.debug( new Message( "Cached POM was not validated: ", cachedFile ) );
+			}
+
+			if( pom == null )
+			{
+				if( isKnownMissing( url ) )
+				{
+					notifier.debug( new Message( "No POM (cached): ", url ) );
+					return null;
+				}
+
+				if( cachedFile != null )
+					addCacheLookup( RunStatistics.Cache.POM, false );
+
+				Signature signature;
+				try
+				{
+					signature = isCheckSignatures() ? new Signature( url, isAllowMd5(), getStatistics() ) : null;
+				}
+				catch( FileNotFoundException x )
+				{
+					// A missing signature does not mean that the POM is missing
+					setMissingIfNotFound( url );
+					notifier.debug( new Message( "No POM signature: ", url ) );
+					return null;
+				}
+				if( cachedFile != null )
+				{
+					// Download to a temporary file, which we will keep only if
+					// it is valid
+					File tempFile = new File( cachedFile.getPath() + ".tmp" + Thread.currentThread().getId() );
+					tempFile.getParentFile().mkdirs();
+					try
+					{
+						try
+						{
+							IoUtil.copy( url, tempFile, null );
+							addRequest( RunStatistics.Request.POM, url, null );
+							addBytes( url, tempFile.length() );
+						}
+						catch( IOException x )
+						{
+							addRequest( RunStatistics.Request.POM, url, x );
+							throw x;
+						}
+						pom = new POM( tempFile.toURI().toURL(), signature );
+						if( moduleIdentifier.equals( pom.getModuleIdentifier( this ) ) )
+						{
+							// Store the signature with the POM, so that we
+							// will know that it was validated
+							storeSignature( cachedFile, signature );
+							if( !tempFile.renameTo( cachedFile ) )
+								notifier.debug( new Message( "Could not cache POM: ", cachedFile ) );
+						}
+					}
+					finally
+					{
+						tempFile.delete();
+					}
+				}
+				else
+				{
+					try
+					{
+						pom = new POM( url, signature );
+						addRequest( RunStatistics.Request.POM, url, null );
+					}
+					catch( IOException x )
+					{
+						addRequest( RunStatistics.Request.POM, url, x );
+						throw x;
+					}
+				}
+			}
+
 			if( !moduleIdentifier.equals( pom.getModuleIdentifier( this ) ) )
 			{
 				notifier.error( "Invalid POM: " + url );
@@ -368,7 +514,8 @@ public class MavenRepository extends Repository
 		}
 		catch( FileNotFoundException x )
 		{
-			notifier.debug( "No POM: " + url );
+			setMissing( url );
+			notifier.debug( new Message( "No POM: ", url ) );
 			return null;
 		}
 		catch( InvalidArtifactException x )
@@ -382,6 +529,22 @@ public class MavenRepository extends Repository
 		}
 	}
 
+	/**
+	 * Gets a module's effective POM, merged with its parent chain and imported
+	 * BOMs. Effective POMs are cached for the duration of the run, so each is
+	 * fetched and parsed only once even when requested concurrently.
+	 * 
+	 * @param moduleIdentifier
+	 *        The module identifier
+	 * @param notifier
+	 *        The notifier or null
+	 * @return The effective POM or null if not found
+	 */
+	public EffectivePOM getEffectivePom( MavenModuleIdentifier moduleIdentifier, Notifier notifier )
+	{
+		return getEffectivePom( moduleIdentifier, notifier, Collections.<MavenModuleIdentifier> emptySet() );
+	}
+
 	/**
 	 * Loads a "maven-metadata.xml", validates it against its signature, and
 	 * parses it.
@@ -401,10 +564,39 @@ public class MavenRepository extends Repository
 
 		// TODO: cache metadata?
 		URL url = getMetaDataUrl( group, name );
+		if( isKnownMissing( url ) )
+		{
+			notifier.debug( new Message( "No metadata (cached): ", url ) );
+			return null;
+		}
+
 		try
 		{
-			Signature signature = isCheckSignatures() ? new Signature( url, isAllowMd5() ) : null;
-			MetaData metadata = new MetaData( url, signature );
+			Signature signature;
+			try
+			{
+				signature = isCheckSignatures() ? new Signature( url, isAllowMd5(), getStatistics() ) : null;
+			}
+			catch( FileNotFoundException x )
+			{
+				// A missing signature does not mean that the metadata is
+				// missing
+				setMissingIfNotFound( url );
+				notifier.debug( new Message( "No metadata signature: ", url ) );
+				return null;
+			}
+
+			MetaData metadata;
+			try
+			{
+				metadata = new MetaData( url, signature );
+				addRequest( RunStatistics.Request.METADATA, url, null );
+			}
+			catch( IOException x )
+			{
+				addRequest( RunStatistics.Request.METADATA, url, x );
+				throw x;
+			}
 			if( !group.equals( metadata.getGroupId() ) || !name.equals( metadata.getArtifactId() ) )
 			{
 				notifier.error( "Invalid metadata: " + url );
@@ -414,7 +606,8 @@ public class MavenRepository extends Repository
 		}
 		catch( FileNotFoundException x )
 		{
-			notifier.debug( "No metadata: " + url );
+			setMissing( url );
+			notifier.debug( new Message( "No metadata: ", url ) );
 			return null;
 		}
 		catch( InvalidArtifactException x )
@@ -432,6 +625,12 @@ public class MavenRepository extends Repository
 	// Repository
 	//
 
+	@Override
+	public void reset()
+	{
+		effectivePoms.clear();
+	}
+
 	public Iterable<ModuleIdentifier> getAllowedModuleIdentifiers( ModuleSpecification moduleSpecification, Notifier notifier )
 	{
 		MavenModuleSpecification mavenModuleSpecification = MavenModuleSpecification.cast( moduleSpecification );
@@ -465,7 +664,18 @@ public class MavenRepository extends Repository
 	{
 		MavenModuleIdentifier mavenModuleIdentifier = MavenModuleIdentifier.cast( moduleIdentifier );
 		URL url = getUrl( mavenModuleIdentifier, "pom", null );
-		return IoUtil.exists( url );
+		if( isKnownMissing( url ) )
+			return false;
+		int status = IoUtil.probe( url );
+		boolean exists = status == RunStatistics.OK;
+		RunStatistics statistics = getStatistics();
+		if( statistics != null )
+			statistics.addRequest( RunStatistics.Request.HEAD, url, RunStatistics.getStatus( status ) );
+		if( exists )
+			return true;
+		if( IoUtil.isMissing( status ) )
+			setMissing( url );
+		return false;
 	}
 
 	public Module getModule( ModuleIdentifier moduleIdentifier, Notifier notifier )
@@ -474,14 +684,28 @@ public class MavenRepository extends Repository
 		if( notifier == null )
 			notifier = new Notifier();
 
-		POM pom = getPom( mavenModuleIdentifier, notifier );
+		EffectivePOM pom = getEffectivePom( mavenModuleIdentifier, notifier );
 		if( pom == null )
 			return null;
 
 		Module module = new Module( false, moduleIdentifier, null );
-		for( MavenModuleSpecification moduleSpecification : pom.getDependencyModuleSpecifications() )
+		for( Dependency dependency : pom.getDependencies() )
 		{
-			Module dependencyModule = new Module( false, null, moduleSpecification );
+			if( dependency.isOmitted() )
+				continue;
+			Module dependencyModule = new Module( false, null, new MavenModuleSpecification( dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion(), true ) );
+
+			// <exclusions> apply to the dependency's entire subtree
+			for( Exclusion exclusion : dependency.getExclusions() )
+			{
+				Rule rule = new Rule( "mvn", "exclude" );
+				if( exclusion.getGroupId() != null )
+					rule.put( "group", exclusion.getGroupId() );
+				if( exclusion.getArtifactId() != null )
+					rule.put( "name", exclusion.getArtifactId() );
+				dependencyModule.addExclusion( rule );
+			}
+
 			dependencyModule.addSupplicant( module );
 			module.addDependency( dependencyModule );
 		}
@@ -500,8 +724,8 @@ public class MavenRepository extends Repository
 
 		try
 		{
-			Signature signature = new Signature( artifact.getSourceUrl(), allowMd5 );
-			if( !signature.validate( artifact.getFile() ) )
+			Signature signature = new Signature( artifact.getSourceUrl(), allowMd5, getStatistics() );
+			if( !signature.validate( artifact.getFile(), getDigestCache() ) )
 			{
 				notifier.error( "Invalid, so deleting " + artifact.getFile() );
 				artifact.getFile().delete();
@@ -606,7 +830,10 @@ public class MavenRepository extends Repository
 
 	public MavenRepository clone()
 	{
-		return new MavenRepository( getId(), isAll(), getUrl(), isCheckSignatures(), isAllowMd5() );
+		MavenRepository repository = new MavenRepository( getId(), isAll(), getUrl(), isCheckSignatures(), isAllowMd5(), getPomCache() );
+		repository.setNegativeCache( getNegativeCache() );
+		repository.setStatistics( getStatistics() );
+		return repository;
 	}
 
 	//
@@ -642,4 +869,260 @@ public class MavenRepository extends Repository
 	private final boolean checkSignatures;
 
 	private final boolean allowMd5;
+
+	private final File pomCache;
+
+	/**
+	 * Maximum depth of parent and import chains.
+	 */
+	private static final int MAX_POM_DEPTH = 32;
+
+	private final ConcurrentMap<MavenModuleIdentifier, EffectivePOMTask> effectivePoms = new ConcurrentHashMap<MavenModuleIdentifier, EffectivePOMTask>();
+
+	/**
+	 * The effective POM task that each thread is waiting for.
+	 */
+	private final ConcurrentMap<Thread, EffectivePOMTask> waitingForEffectivePoms = new ConcurrentHashMap<Thread, EffectivePOMTask>();
+
+	/**
+	 * Loads a cached POM. When checking signatures, the POM must have been
+	 * stored together with its signature, and must still match it.
+	 */
+	private POM getCachedPom( File cachedFile ) throws IOException
+	{
+		URL url = cachedFile.toURI().toURL();
+		Signature signature = null;
+		if( isCheckSignatures() )
+		{
+			try
+			{
+				signature = new Signature( url, isAllowMd5() );
+			}
+			catch( FileNotFoundException x )
+			{
+				// Stored without validation
+				return null;
+			}
+		}
+
+		try
+		{
+			return new POM( url, signature );
+		}
+		catch( InvalidSignatureException x )
+		{
+			// Modified since it was stored
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the signature next to a cached file, or deletes the stored
+	 * signatures if the file was not validated.
+	 */
+	private static void storeSignature( File cachedFile, Signature signature ) throws IOException
+	{
+		File sha1File = new File( cachedFile.getPath() + ".sha1" );
+		File md5File = new File( cachedFile.getPath() + ".md5" );
+		sha1File.delete();
+		md5File.delete();
+		if( signature == null )
+			return;
+
+		File signatureFile = "MD5".equals( signature.getAlgorithm() ) ? md5File : sha1File;
+		Writer writer = new OutputStreamWriter( new FileOutputStream( signatureFile ), StandardCharsets.UTF_8 );
+		try
+		{
+			writer.write( HexUtil.toHex( signature.getDigest() ) );
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	/**
+	 * Checks if waiting for the task would deadlock, by following the chain of
+	 * threads waiting for each other's tasks back to the current thread.
+	 */
+	private boolean isWaitingForCurrentThread( EffectivePOMTask task )
+	{
+		Thread currentThread = Thread.currentThread();
+		for( int i = 0; ( task != null ) && ( i <= waitingForEffectivePoms.size() ); i++ )
+		{
+			if( task.owner == currentThread )
+				return true;
+			task = waitingForEffectivePoms.get( task.owner );
+		}
+		return false;
+	}
+
+	private boolean isKnownMissing( URL url )
+	{
+		NegativeCache negativeCache = getNegativeCache();
+		return ( negativeCache != null ) && negativeCache.isMissing( url );
+	}
+
+	private void setMissing( URL url )
+	{
+		NegativeCache negativeCache = getNegativeCache();
+		if( negativeCache != null )
+			negativeCache.setMissing( url );
+	}
+
+	/**
+	 * Checks the URL itself, because we failed for another reason (such as a
+	 * missing signature).
+	 */
+	private void setMissingIfNotFound( URL url )
+	{
+		NegativeCache negativeCache = getNegativeCache();
+		if( negativeCache == null )
+			return;
+		int status = IoUtil.probe( url );
+		RunStatistics statistics = getStatistics();
+		if( statistics != null )
+			statistics.addRequest( RunStatistics.Request.HEAD, url, RunStatistics.getStatus( status ) );
+		if( IoUtil.isMissing( status ) )
+			negativeCache.setMissing( url );
+	}
+
+	private void addRequest( RunStatistics.Request request, URL url, IOException x )
+	{
+		RunStatistics statistics = getStatistics();
+		if( statistics != null )
+			statistics.addRequest( request, url, x != null ? RunStatistics.getStatus( x ) : RunStatistics.OK );
+	}
+
+	private void addBytes( URL url, long bytes )
+	{
+		RunStatistics statistics = getStatistics();
+		if( statistics != null )
+			statistics.addBytes( url, bytes );
+	}
+
+	private void addCacheLookup( RunStatistics.Cache cache, boolean hit )
+	{
+		RunStatistics statistics = getStatistics();
+		if( statistics != null )
+			statistics.addCacheLookup( cache, hit );
+	}
+
+	private EffectivePOM getEffectivePom( final MavenModuleIdentifier moduleIdentifier, final Notifier notifier, final Set<MavenModuleIdentifier> chain )
+	{
+		if( chain.contains( moduleIdentifier ) )
+		{
+			notifier.error( "Circular POM inheritance or import: " + moduleIdentifier );
+			return null;
+		}
+		if( chain.size() >= MAX_POM_DEPTH )
+		{
+			notifier.error( "POM inheritance or import is too deep: " + moduleIdentifier );
+			return null;
+		}
+
+		EffectivePOMTask task = new EffectivePOMTask( new Callable<EffectivePOM>()
+		{
+			public EffectivePOM call()
+			{
+				return createEffectivePom( moduleIdentifier, notifier, chain );
+			}
+		} );
+		EffectivePOMTask existing = effectivePoms.putIfAbsent( moduleIdentifier, task );
+		if( existing != null )
+			task = existing;
+		else
+			task.run();
+
+		try
+		{
+			if( !task.isDone() )
+			{
+				// Register before checking, so that of two threads waiting for
+				// each other at least one will notice
+				Thread currentThread = Thread.currentThread();
+				waitingForEffectivePoms.put( currentThread, task );
+				try
+				{
+					// The task is being created by a thread that is (perhaps
+					// indirectly) waiting for us, so we must create the
+					// effective POM ourselves, in which case the circularity
+					// will be detected in our chain
+					if( isWaitingForCurrentThread( task ) )
+						return createEffectivePom( moduleIdentifier, notifier, chain );
+
+					return task.get();
+				}
+				finally
+				{
+					waitingForEffectivePoms.remove( currentThread );
+				}
+			}
+
+			return task.get();
+		}
+		catch( InterruptedException x )
+		{
+			Thread.currentThread().interrupt();
+			throw new CreelException( x );
+		}
+		catch( ExecutionException x )
+		{
+			// Don't cache failures caused by I/O errors
+			effectivePoms.remove( moduleIdentifier, task );
+			if( x.getCause() instanceof RuntimeException )
+				throw (RuntimeException) x.getCause();
+			throw new CreelException( x.getCause() );
+		}
+	}
+
+	private EffectivePOM createEffectivePom( MavenModuleIdentifier moduleIdentifier, Notifier notifier, Set<MavenModuleIdentifier> chain )
+	{
+		POM pom = getPom( moduleIdentifier, notifier );
+		if( pom == null )
+			return null;
+
+		Set<MavenModuleIdentifier> subChain = new LinkedHashSet<MavenModuleIdentifier>( chain );
+		subChain.add( moduleIdentifier );
+
+		// <parent>
+		EffectivePOM parent = null;
+		MavenModuleIdentifier parentModuleIdentifier = pom.getParentModuleIdentifier( this );
+		if( parentModuleIdentifier != null )
+		{
+			parent = getEffectivePom( parentModuleIdentifier, notifier, subChain );
+			if( parent == null )
+				notifier.info( "Missing parent POM for " + moduleIdentifier + ": " + parentModuleIdentifier );
+		}
+
+		EffectivePOM effectivePom = new EffectivePOM( pom, parent );
+
+		// <dependencyManagement> imports
+		for( Dependency dependency : effectivePom.getImports() )
+		{
+			if( ( dependency.getGroupId() == null ) || ( dependency.getArtifactId() == null ) || ( dependency.getVersion() == null ) )
+				continue;
+			MavenModuleIdentifier bomModuleIdentifier = new MavenModuleIdentifier( this, dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion() );
+			EffectivePOM bom = getEffectivePom( bomModuleIdentifier, notifier, subChain );
+			if( bom != null )
+				effectivePom.importManagedDependencies( bom );
+			else
+				notifier.info( "Missing imported POM for " + moduleIdentifier + ": " + bomModuleIdentifier );
+		}
+
+		return effectivePom;
+	}
+
+	/**
+	 * Remembers which thread is creating the effective POM.
+	 */
+	private static class EffectivePOMTask extends FutureTask<EffectivePOM>
+	{
+		public EffectivePOMTask( Callable<EffectivePOM> callable )
+		{
+			super( callable );
+		}
+
+		private final Thread owner = Thread.currentThread();
+	}
 }
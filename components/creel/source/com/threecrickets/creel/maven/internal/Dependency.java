@@ -15,7 +15,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 
-import org.w3c.dom.Element;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import com.threecrickets.creel.util.XmlUtil;
 
@@ -31,31 +32,124 @@ public class Dependency
 	//
 
 	/**
-	 * Constructor.
+	 * Constructor. Reads the raw (not interpolated) dependency from a streaming
+	 * reader positioned at the start of the &lt;dependency&gt; element. Leaves
+	 * the reader at the end of the element.
 	 * 
-	 * @param element
-	 *        The XML element
+	 * @param reader
+	 *        The XML reader
+	 * @throws XMLStreamException
+	 *         In case of an XML parsing error
+	 */
+	public Dependency( XMLStreamReader reader ) throws XMLStreamException
+	{
+		String groupId = null, artifactId = null, version = null, type = null, scope = null, optional = null;
+		while( XmlUtil.nextChildElement( reader ) )
+		{
+			String tag = reader.getLocalName();
+			if( "groupId".equals( tag ) )
+				groupId = XmlUtil.getElementText( reader );
+			else if( "artifactId".equals( tag ) )
+				artifactId = XmlUtil.getElementText( reader );
+			else if( "version".equals( tag ) )
+				version = XmlUtil.getElementText( reader );
+			else if( "type".equals( tag ) )
+				type = XmlUtil.getElementText( reader );
+			else if( "scope".equals( tag ) )
+				scope = XmlUtil.getElementText( reader );
+			else if( "optional".equals( tag ) )
+				optional = XmlUtil.getElementText( reader );
+			else if( "exclusions".equals( tag ) )
+			{
+				// <exclusions>, <exclusion>
+				while( XmlUtil.nextChildElement( reader ) )
+				{
+					if( "exclusion".equals( reader.getLocalName() ) )
+						exclusions.add( new Exclusion( reader ) );
+					else
+						XmlUtil.skipElement( reader );
+				}
+			}
+			else
+				XmlUtil.skipElement( reader );
+		}
+		this.groupId = groupId;
+		this.artifactId = artifactId;
+		this.version = version;
+		this.type = type;
+		this.scope = scope;
+		this.optional = optional;
+	}
+
+	/**
+	 * Interpolating copy constructor.
+	 * 
+	 * @param dependency
+	 *        The raw dependency
 	 * @param properties
 	 *        The parsed Maven properties
 	 */
-	public Dependency( Element element, Properties properties )
+	public Dependency( Dependency dependency, Properties properties )
+	{
+		groupId = properties.interpolate( dependency.getGroupId() );
+		artifactId = properties.interpolate( dependency.getArtifactId() );
+		version = properties.interpolate( dependency.getVersion() );
+		type = properties.interpolate( dependency.getType() );
+		scope = properties.interpolate( dependency.getScope() );
+		optional = properties.interpolate( dependency.optional );
+		for( Exclusion exclusion : dependency.getExclusions() )
+			exclusions.add( new Exclusion( exclusion, properties ) );
+	}
+
+	/**
+	 * Managed copy constructor. Values missing from the dependency (version,
+	 * scope, and exclusions) are taken from the managed dependency, as in
+	 * Maven's &lt;dependencyManagement&gt;.
+	 * 
+	 * @param dependency
+	 *        The dependency
+	 * @param managed
+	 *        The managed dependency
+	 */
+	public Dependency( Dependency dependency, Dependency managed )
 	{
-		groupId = properties.interpolate( XmlUtil.getFirstElementText( element, "groupId" ) );
-		artifactId = properties.interpolate( XmlUtil.getFirstElementText( element, "artifactId" ) );
-		version = properties.interpolate( XmlUtil.getFirstElementText( element, "version" ) );
-		type = properties.interpolate( XmlUtil.getFirstElementText( element, "type" ) );
-		scope = properties.interpolate( XmlUtil.getFirstElementText( element, "scope" ) );
-		optional = "true".equals( properties.interpolate( XmlUtil.getFirstElementText( element, "optional" ) ) );
-
-		// <exclusions>, <exclusion>
-		for( Element exclusion : new XmlUtil.Elements( XmlUtil.getFirstElement( element, "exclusions" ), "exclusion" ) )
-			this.exclusions.add( new Exclusion( exclusion, properties ) );
+		groupId = dependency.getGroupId();
+		artifactId = dependency.getArtifactId();
+		version = dependency.getVersion() != null ? dependency.getVersion() : managed.getVersion();
+		type = dependency.getType() != null ? dependency.getType() : managed.getType();
+		scope = dependency.getScope() != null ? dependency.getScope() : managed.getScope();
+		optional = dependency.optional != null ? dependency.optional : managed.optional;
+		for( Exclusion exclusion : ( dependency.exclusions.isEmpty() ? managed : dependency ).getExclusions() )
+			exclusions.add( exclusion );
 	}
 
 	//
 	// Attributes
 	//
 
+	/**
+	 * The key used to match dependencies to managed dependencies: group ID,
+	 * artifact ID, and type (if not "jar").
+	 * 
+	 * @return The key
+	 */
+	public String getManagementKey()
+	{
+		if( ( type == null ) || "jar".equals( type ) )
+			return groupId + ':' + artifactId;
+		return groupId + ':' + artifactId + ':' + type;
+	}
+
+	/**
+	 * Whether this is a managed import of a "bill of materials" (BOM) POM.
+	 * 
+	 * @return True if a BOM import
+	 */
+	public boolean isImport()
+	{
+		return "import".equals( scope ) && "pom".equals( type );
+	}
+
 	/**
 	 * The group ID.
 	 * 
@@ -113,7 +207,7 @@ public class Dependency
 	 */
 	public boolean isOptional()
 	{
-		return optional;
+		return "true".equals( optional );
 	}
 
 	/**
@@ -134,7 +228,7 @@ public class Dependency
 	 */
 	public boolean isOmitted()
 	{
-		return optional || "provided".equals( scope ) || "system".equals( scope ) || "test".equals( scope );
+		return isOptional() || "provided".equals( scope ) || "system".equals( scope ) || "test".equals( scope );
 	}
 
 	// //////////////////////////////////////////////////////////////////////////
@@ -150,7 +244,7 @@ public class Dependency
 
 	private final String scope;
 
-	private final boolean optional;
+	private final String optional;
 
 	private final Collection<Exclusion> exclusions = new ArrayList<Exclusion>();
 }
\ No newline at end of file
@@ -0,0 +1,203 @@
+/**
+ * Copyright 2015-2017 Three Crickets LLC.
+ * <p>
+ * The contents of this file are subject to the terms of the LGPL version 3.0:
+ * http://www.gnu.org/copyleft/lesser.html
+ * <p>
+ * Alternatively, you can obtain a royalty free commercial license with less
+ * limitations, transferable or non-transferable, directly from Three Crickets
+ * at http://threecrickets.com/
+ */
+
+package com.threecrickets.creel.maven.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.threecrickets.creel.maven.MavenModuleIdentifier;
+import com.threecrickets.creel.maven.MavenModuleSpecification;
+import com.threecrickets.creel.maven.MavenRepository;
+
+/**
+ * A POM merged with its parent chain and imported "bill of materials" (BOM)
+ * POMs, similar to Maven's "effective POM". Only the parts Creel uses are
+ * merged: properties, dependencies, and managed dependencies.
+ * <p>
+ * Inherited dependencies are interpolated using the merged properties, so that
+ * a child can override a property used by its parent. Managed dependencies are
+ * applied to dependencies that do not specify their own version, scope, or
+ * exclusions.
+ * <p>
+ * Instances are immutable once {@link EffectivePOM#importManagedDependencies}
+ * calls are done, and so can be safely shared between children.
+ * 
+ * @author Tal Liron
+ */
+public class EffectivePOM
+{
+	//
+	// Construction
+	//
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param pom
+	 *        The POM
+	 * @param parent
+	 *        The parent effective POM or null
+	 */
+	public EffectivePOM( POM pom, EffectivePOM parent )
+	{
+		this.pom = pom;
+
+		// Child properties override parent properties
+		if( parent != null )
+			properties.putAll( parent.properties );
+		properties.putAll( pom.getProperties() );
+
+		// Child dependencies override parent dependencies
+		if( parent != null )
+			rawDependencies.putAll( parent.rawDependencies );
+		for( Dependency dependency : pom.getRawDependencies() )
+			rawDependencies.put( dependency.getManagementKey(), dependency );
+
+		// Child managed dependencies override parent managed dependencies
+		Map<String, Dependency> rawManagedDependencies = new LinkedHashMap<String, Dependency>();
+		if( parent != null )
+			rawManagedDependencies.putAll( parent.rawManagedDependencies );
+		for( Dependency dependency : pom.getRawManagedDependencies() )
+			rawManagedDependencies.put( dependency.getManagementKey(), dependency );
+		this.rawManagedDependencies = rawManagedDependencies;
+
+		for( Dependency dependency : rawManagedDependencies.values() )
+		{
+			dependency = new Dependency( dependency, properties );
+			if( dependency.isImport() )
+				imports.add( dependency );
+			else
+				managedDependencies.put( dependency.getManagementKey(), dependency );
+		}
+	}
+
+	//
+	// Attributes
+	//
+
+	/**
+	 * The POM.
+	 * 
+	 * @return The POM
+	 */
+	public POM getPom()
+	{
+		return pom;
+	}
+
+	/**
+	 * The merged properties.
+	 * 
+	 * @return The properties
+	 */
+	public Map<String, String> getProperties()
+	{
+		return Collections.unmodifiableMap( properties );
+	}
+
+	/**
+	 * The managed imports of BOM POMs, including inherited ones.
+	 * 
+	 * @return The imports
+	 */
+	public Iterable<Dependency> getImports()
+	{
+		return Collections.unmodifiableCollection( imports );
+	}
+
+	/**
+	 * The interpolated dependencies, with managed dependencies applied.
+	 * 
+	 * @return The dependencies
+	 */
+	public Iterable<Dependency> getDependencies()
+	{
+		Collection<Dependency> dependencies = new ArrayList<Dependency>();
+		for( Dependency dependency : rawDependencies.values() )
+		{
+			dependency = new Dependency( dependency, properties );
+			Dependency managed = managedDependencies.get( dependency.getManagementKey() );
+			if( managed != null )
+				dependency = new Dependency( dependency, managed );
+			dependencies.add( dependency );
+		}
+		return Collections.unmodifiableCollection( dependencies );
+	}
+
+	/**
+	 * The dependencies as module specifications.
+	 * 
+	 * @return The module specifications
+	 */
+	public Iterable<MavenModuleSpecification> getDependencyModuleSpecifications()
+	{
+		Collection<MavenModuleSpecification> moduleSpecifications = new ArrayList<MavenModuleSpecification>();
+		for( Dependency dependency : getDependencies() )
+		{
+			if( dependency.isOmitted() )
+				continue;
+			moduleSpecifications.add( new MavenModuleSpecification( dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion(), true ) );
+		}
+		return Collections.unmodifiableCollection( moduleSpecifications );
+	}
+
+	/**
+	 * As a module identifier.
+	 * 
+	 * @param repository
+	 *        The repository
+	 * @return The module identifier
+	 */
+	public MavenModuleIdentifier getModuleIdentifier( MavenRepository repository )
+	{
+		return pom.getModuleIdentifier( repository );
+	}
+
+	//
+	// Operations
+	//
+
+	/**
+	 * Adds the managed dependencies of an imported BOM. As in Maven, they do
+	 * not override managed dependencies that are already declared.
+	 * <p>
+	 * Should only be called during construction of the effective POM, before
+	 * it is shared.
+	 * 
+	 * @param bom
+	 *        The imported BOM's effective POM
+	 */
+	public void importManagedDependencies( EffectivePOM bom )
+	{
+		for( Map.Entry<String, Dependency> entry : bom.managedDependencies.entrySet() )
+			if( !managedDependencies.containsKey( entry.getKey() ) )
+				managedDependencies.put( entry.getKey(), entry.getValue() );
+	}
+
+	// //////////////////////////////////////////////////////////////////////////
+	// Private
+
+	private final POM pom;
+
+	private final Properties properties = new Properties();
+
+	private final Map<String, Dependency> rawDependencies = new LinkedHashMap<String, Dependency>();
+
+	private final Map<String, Dependency> rawManagedDependencies;
+
+	private final Map<String, Dependency> managedDependencies = new LinkedHashMap<String, Dependency>();
+
+	private final Collection<Dependency> imports = new ArrayList<Dependency>();
+}
\ No newline at end of file
@@ -11,7 +11,8 @@
 
 package com.threecrickets.creel.maven.internal;
 
-import org.w3c.dom.Element;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import com.threecrickets.creel.util.XmlUtil;
 
@@ -27,17 +28,44 @@ public class Exclusion
 	//
 
 	/**
-	 * Constructor.
+	 * Constructor. Reads the raw (not interpolated) exclusion from a streaming
+	 * reader positioned at the start of the &lt;exclusion&gt; element. Leaves
+	 * the reader at the end of the element.
 	 * 
-	 * @param element
-	 *        The XML element
+	 * @param reader
+	 *        The XML reader
+	 * @throws XMLStreamException
+	 *         In case of an XML parsing error
+	 */
+	public Exclusion( XMLStreamReader reader ) throws XMLStreamException
+	{
+		String groupId = null, artifactId = null;
+		while( XmlUtil.nextChildElement( reader ) )
+		{
+			String tag = reader.getLocalName();
+			if( "groupId".equals( tag ) )
+				groupId = XmlUtil.getElementText( reader );
+			else if( "artifactId".equals( tag ) )
+				artifactId = XmlUtil.getElementText( reader );
+			else
+				XmlUtil.skipElement( reader );
+		}
+		this.groupId = groupId;
+		this.artifactId = artifactId;
+	}
+
+	/**
+	 * Interpolating copy constructor.
+	 * 
+	 * @param exclusion
+	 *        The raw exclusion
 	 * @param properties
 	 *        The parsed Maven properties
 	 */
-	public Exclusion( Element element, Properties properties )
+	public Exclusion( Exclusion exclusion, Properties properties )
 	{
-		groupId = properties.interpolate( XmlUtil.getFirstElementText( element, "groupId" ) );
-		artifactId = properties.interpolate( XmlUtil.getFirstElementText( element, "artifactId" ) );
+		groupId = properties.interpolate( exclusion.getGroupId() );
+		artifactId = properties.interpolate( exclusion.getArtifactId() );
 	}
 
 	//
@@ -12,18 +12,17 @@
 package com.threecrickets.creel.maven.internal;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import com.threecrickets.creel.exception.CreelException;
 import com.threecrickets.creel.maven.MavenModuleIdentifier;
@@ -45,8 +44,8 @@ public class MetaData
 	//
 
 	/**
-	 * Constructor. Loads the metadata from the URL, optionally validates it
-	 * against a signature, and parses it.
+	 * Constructor. Streams the metadata from the URL and parses it, optionally
+	 * validating it against a signature on the fly.
 	 * 
 	 * @param url
 	 *        The source URL
@@ -57,47 +56,45 @@ public class MetaData
 	 */
 	public MetaData( URL url, Signature signature ) throws IOException
 	{
-		Document document;
+		MessageDigest digest = signature != null ? signature.newDigest() : null;
+		InputStream stream = IoUtil.openStream( url );
 		try
 		{
-			byte[] bytes = IoUtil.readBytes( url, null );
-			if( ( signature != null ) && !signature.validate( bytes ) )
-				throw new InvalidSignatureException();
-			String text = new String( bytes, StandardCharsets.UTF_8 );
-			document = XmlUtil.parse( text );
-		}
-		catch( ParserConfigurationException x )
-		{
-			throw new CreelException( x );
-		}
-		catch( SAXException x )
-		{
-			throw new CreelException( "Invalid metadata", x );
-		}
-
-		// <metadata>
-		Element metadata = XmlUtil.getElement( document, "metadata" );
-		if( metadata == null )
-			throw new CreelException( "Invalid metadata: no <metadata>" );
-
-		groupId = XmlUtil.getFirstElementText( metadata, "groupId" );
-		artifactId = XmlUtil.getFirstElementText( metadata, "artifactId" );
-
-		// <versioning>
-		Element versioning = XmlUtil.getFirstElement( metadata, "versioning" );
-		if( versioning == null )
-		{
-			release = null;
-			return;
+			if( digest != null )
+				stream = new DigestInputStream( stream, digest );
+
+			try
+			{
+				XMLStreamReader reader = XmlUtil.newStreamReader( stream );
+				try
+				{
+					// <metadata>
+					if( !XmlUtil.nextChildElement( reader ) || !"metadata".equals( reader.getLocalName() ) )
+						throw new CreelException( "Invalid metadata: no <metadata>" );
+					parse( reader );
+				}
+				finally
+				{
+					reader.close();
+				}
+			}
+			catch( XMLStreamException x )
+			{
+				throw new CreelException( "Invalid metadata", x );
+			}
+
+			if( digest != null )
+			{
+				// The signature covers the whole file, including what we did
+				// not parse
+				IoUtil.drain( stream );
+				if( !signature.validateDigest( digest.digest() ) )
+					throw new InvalidSignatureException();
+			}
 		}
-
-		release = XmlUtil.getFirstElementText( versioning, "release" );
-
-		// <versions>, <version>
-		for( Element version : new XmlUtil.Elements( XmlUtil.getFirstElement( versioning, "versions" ), "version" ) )
+		finally
 		{
-			String versionString = version.getTextContent();
-			this.versions.add( versionString );
+			stream.close();
 		}
 	}
 
@@ -176,11 +173,57 @@ public class MetaData
 	// //////////////////////////////////////////////////////////////////////////
 	// Private
 
-	private final String groupId;
+	private String groupId;
 
-	private final String artifactId;
+	private String artifactId;
 
-	private final String release;
+	private String release;
 
 	private final Collection<String> versions = new ArrayList<String>();
+
+	/**
+	 * Reads the values from a streaming reader positioned at the start of the
+	 * &lt;metadata&gt; element.
+	 * 
+	 * @param reader
+	 *        The XML reader
+	 * @throws XMLStreamException
+	 *         In case of an XML parsing error
+	 */
+	private void parse( XMLStreamReader reader ) throws XMLStreamException
+	{
+		while( XmlUtil.nextChildElement( reader ) )
+		{
+			String tag = reader.getLocalName();
+			if( "groupId".equals( tag ) )
+				groupId = XmlUtil.getElementText( reader );
+			else if( "artifactId".equals( tag ) )
+				artifactId = XmlUtil.getElementText( reader );
+			else if( "versioning".equals( tag ) )
+			{
+				// <versioning>
+				while( XmlUtil.nextChildElement( reader ) )
+				{
+					tag = reader.getLocalName();
+					if( "release".equals( tag ) )
+						release = XmlUtil.getElementText( reader );
+					else if( "versions".equals( tag ) )
+					{
+						// <versions>, <version>
+						while( XmlUtil.nextChildElement( reader ) )
+						{
+							if( "version".equals( reader.getLocalName() ) )
+								versions.add( XmlUtil.getElementText( reader ) );
+							else
+								XmlUtil.skipElement( reader );
+						}
+					}
+					else
+						XmlUtil.skipElement( reader );
+				}
+			}
+			else
+				XmlUtil.skipElement( reader );
+		}
+	}
 }
@@ -12,18 +12,17 @@
 package com.threecrickets.creel.maven.internal;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
 
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import com.threecrickets.creel.exception.CreelException;
 import com.threecrickets.creel.maven.MavenModuleIdentifier;
@@ -44,8 +43,9 @@ public class POM
 	//
 
 	/**
-	 * Constructor. Loads the POM from the URL, optionally validates it against
-	 * a signature, and parses it.
+	 * Constructor. Streams the POM from the URL and parses it, optionally
+	 * validating it against a signature. The digest is calculated on the fly,
+	 * so the POM is never held in memory as a whole.
 	 * 
 	 * @param url
 	 *        The source URL
@@ -56,54 +56,60 @@ public class POM
 	 */
 	public POM( URL url, Signature signature ) throws IOException
 	{
-		Document document;
+		MessageDigest digest = signature != null ? signature.newDigest() : null;
+		InputStream stream = IoUtil.openStream( url );
 		try
 		{
-			byte[] bytes = IoUtil.readBytes( url, null );
-			if( ( signature != null ) && !signature.validate( bytes ) )
-				throw new InvalidSignatureException();
-			String text = new String( bytes, StandardCharsets.UTF_8 );
-			document = XmlUtil.parse( text );
-		}
-		catch( ParserConfigurationException x )
-		{
-			throw new CreelException( x );
+			if( digest != null )
+				stream = new DigestInputStream( stream, digest );
+
+			try
+			{
+				XMLStreamReader reader = XmlUtil.newStreamReader( stream );
+				try
+				{
+					// <project>
+					if( !XmlUtil.nextChildElement( reader ) || !"project".equals( reader.getLocalName() ) )
+						throw new CreelException( "Invalid POM: no <project>" );
+					parse( reader );
+				}
+				finally
+				{
+					reader.close();
+				}
+			}
+			catch( XMLStreamException x )
+			{
+				throw new CreelException( "Invalid POM", x );
+			}
+
+			if( digest != null )
+			{
+				// The signature covers the whole file, including what we did
+				// not parse
+				IoUtil.drain( stream );
+				if( !signature.validateDigest( digest.digest() ) )
+					throw new InvalidSignatureException();
+			}
 		}
-		catch( SAXException x )
+		finally
 		{
-			throw new CreelException( "Invalid POM", x );
+			stream.close();
 		}
 
-		// <project>
-		Element project = XmlUtil.getElement( document, "project" );
-		if( project == null )
-			throw new CreelException( "Invalid POM: no <project>" );
-
-		// <properties>
-		properties = new Properties( XmlUtil.getFirstElement( project, "properties" ) );
-
 		// <parent>
-		Element parent = XmlUtil.getFirstElement( project, "parent" );
-		if( parent != null )
-		{
-			parentGroupId = properties.interpolate( XmlUtil.getFirstElementText( parent, "groupId" ), "project.groupId" );
-			parentVersion = properties.interpolate( XmlUtil.getFirstElementText( parent, "version" ), "project.version" );
-		}
-		else
-		{
-			parentGroupId = null;
-			parentVersion = null;
-		}
-
-		groupId = properties.interpolate( XmlUtil.getFirstElementText( project, "groupId" ), "project.groupId" );
-		artifactId = properties.interpolate( XmlUtil.getFirstElementText( project, "artifactId" ), "project.artifactId" );
-		version = properties.interpolate( XmlUtil.getFirstElementText( project, "version" ), "project.version" );
-		name = properties.interpolate( XmlUtil.getFirstElementText( project, "name" ), "project.name" );
-		description = properties.interpolate( XmlUtil.getFirstElementText( project, "description" ), "project.description" );
-
-		// <dependencies>, <dependency>
-		for( Element dependency : new XmlUtil.Elements( XmlUtil.getFirstElement( project, "dependencies" ), "dependency" ) )
-			this.dependencies.add( new Dependency( dependency, properties ) );
+		parentGroupId = properties.interpolate( rawParentGroupId, "project.groupId" );
+		parentArtifactId = properties.interpolate( rawParentArtifactId );
+		parentVersion = properties.interpolate( rawParentVersion, "project.version" );
+
+		groupId = properties.interpolate( rawGroupId, "project.groupId" );
+		artifactId = properties.interpolate( rawArtifactId, "project.artifactId" );
+		version = properties.interpolate( rawVersion, "project.version" );
+		name = properties.interpolate( rawName, "project.name" );
+		description = properties.interpolate( rawDescription, "project.description" );
+
+		for( Dependency dependency : rawDependencies )
+			dependencies.add( new Dependency( dependency, properties ) );
 	}
 
 	//
@@ -130,6 +136,16 @@ public class POM
 		return parentGroupId;
 	}
 
+	/**
+	 * The parent artifact ID.
+	 * 
+	 * @return The parent artifact ID
+	 */
+	public String getParentArtifactId()
+	{
+		return parentArtifactId;
+	}
+
 	/**
 	 * The parent version.
 	 * 
@@ -200,6 +216,41 @@ public class POM
 		return Collections.unmodifiableCollection( dependencies );
 	}
 
+	/**
+	 * The raw (not interpolated) dependencies.
+	 * 
+	 * @return The raw dependencies
+	 */
+	public Iterable<Dependency> getRawDependencies()
+	{
+		return Collections.unmodifiableCollection( rawDependencies );
+	}
+
+	/**
+	 * The raw (not interpolated) managed dependencies, from
+	 * &lt;dependencyManagement&gt;.
+	 * 
+	 * @return The raw managed dependencies
+	 */
+	public Iterable<Dependency> getRawManagedDependencies()
+	{
+		return Collections.unmodifiableCollection( rawManagedDependencies );
+	}
+
+	/**
+	 * The parent as a module identifier.
+	 * 
+	 * @param repository
+	 *        The repository
+	 * @return The parent module identifier or null if there is no parent
+	 */
+	public MavenModuleIdentifier getParentModuleIdentifier( MavenRepository repository )
+	{
+		if( ( getParentGroupId() == null ) || ( getParentArtifactId() == null ) || ( getParentVersion() == null ) )
+			return null;
+		return new MavenModuleIdentifier( repository, getParentGroupId(), getParentArtifactId(), getParentVersion() );
+	}
+
 	/**
 	 * As a module identifier.
 	 * 
@@ -232,10 +283,12 @@ public class POM
 	// //////////////////////////////////////////////////////////////////////////
 	// Private
 
-	private final Properties properties;
+	private Properties properties = new Properties();
 
 	private final String parentGroupId;
 
+	private final String parentArtifactId;
+
 	private final String parentVersion;
 
 	private final String groupId;
@@ -249,4 +302,107 @@ public class POM
 	private final String description;
 
 	private final Collection<Dependency> dependencies = new ArrayList<Dependency>();
+
+	private String rawParentGroupId;
+
+	private String rawParentArtifactId;
+
+	private String rawParentVersion;
+
+	private String rawGroupId;
+
+	private String rawArtifactId;
+
+	private String rawVersion;
+
+	private String rawName;
+
+	private String rawDescription;
+
+	private final Collection<Dependency> rawDependencies = new ArrayList<Dependency>();
+
+	private final Collection<Dependency> rawManagedDependencies = new ArrayList<Dependency>();
+
+	/**
+	 * Reads the raw (not interpolated) values from a streaming reader
+	 * positioned at the start of the &lt;project&gt; element. Elements we do not
+	 * need are skipped without being built into a tree.
+	 * 
+	 * @param reader
+	 *        The XML reader
+	 * @throws XMLStreamException
+	 *         In case of an XML parsing error
+	 */
+	private void parse( XMLStreamReader reader ) throws XMLStreamException
+	{
+		while( XmlUtil.nextChildElement( reader ) )
+		{
+			String tag = reader.getLocalName();
+			if( "properties".equals( tag ) )
+				properties = new Properties( reader );
+			else if( "parent".equals( tag ) )
+			{
+				while( XmlUtil.nextChildElement( reader ) )
+				{
+					tag = reader.getLocalName();
+					if( "groupId".equals( tag ) )
+						rawParentGroupId = XmlUtil.getElementText( reader );
+					else if( "artifactId".equals( tag ) )
+						rawParentArtifactId = XmlUtil.getElementText( reader );
+					else if( "version".equals( tag ) )
+						rawParentVersion = XmlUtil.getElementText( reader );
+					else
+						XmlUtil.skipElement( reader );
+				}
+			}
+			else if( "groupId".equals( tag ) )
+				rawGroupId = XmlUtil.getElementText( reader );
+			else if( "artifactId".equals( tag ) )
+				rawArtifactId = XmlUtil.getElementText( reader );
+			else if( "version".equals( tag ) )
+				rawVersion = XmlUtil.getElementText( reader );
+			else if( "name".equals( tag ) )
+				rawName = XmlUtil.getElementText( reader );
+			else if( "description".equals( tag ) )
+				rawDescription = XmlUtil.getElementText( reader );
+			else if( "dependencies".equals( tag ) )
+				parseDependencies( reader, rawDependencies );
+			else if( "dependencyManagement".equals( tag ) )
+			{
+				// <dependencyManagement>, <dependencies>
+				while( XmlUtil.nextChildElement( reader ) )
+				{
+					if( "dependencies".equals( reader.getLocalName() ) )
+						parseDependencies( reader, rawManagedDependencies );
+					else
+						XmlUtil.skipElement( reader );
+				}
+			}
+			else
+				XmlUtil.skipElement( reader );
+		}
+	}
+
+	/**
+	 * Reads raw dependencies from a streaming reader positioned at the start of
+	 * a &lt;dependencies&gt; element.
+	 * 
+	 * @param reader
+	 *        The XML reader
+	 * @param dependencies
+	 *        The collection to which to add the dependencies
+	 * @throws XMLStreamException
+	 *         In case of an XML parsing error
+	 */
+	private static void parseDependencies( XMLStreamReader reader, Collection<Dependency> dependencies ) throws XMLStreamException
+	{
+		// <dependencies>, <dependency>
+		while( XmlUtil.nextChildElement( reader ) )
+		{
+			if( "dependency".equals( reader.getLocalName() ) )
+				dependencies.add( new Dependency( reader ) );
+			else
+				XmlUtil.skipElement( reader );
+		}
+	}
 }
\ No newline at end of file
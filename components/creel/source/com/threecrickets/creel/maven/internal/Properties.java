@@ -15,7 +15,8 @@ import java.util.HashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.w3c.dom.Element;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import com.threecrickets.creel.util.XmlUtil;
 
@@ -32,19 +33,29 @@ public class Properties extends HashMap<String, String>
 
 	/**
 	 * Constructor.
+	 */
+	public Properties()
+	{
+	}
+
+	/**
+	 * Constructor. Reads the properties from a streaming reader positioned at
+	 * the start of the &lt;properties&gt; element. Leaves the reader at the end
+	 * of the element.
 	 * 
-	 * @param element
-	 *        The XML element
+	 * @param reader
+	 *        The XML reader
+	 * @throws XMLStreamException
+	 *         In case of an XML parsing error
 	 */
-	public Properties( Element element )
+	public Properties( XMLStreamReader reader ) throws XMLStreamException
 	{
-		if( element != null )
-			for( Element property : new XmlUtil.Elements( element ) )
-			{
-				String name = property.getTagName();
-				String value = property.getTextContent();
-				put( name, value );
-			}
+		while( XmlUtil.nextChildElement( reader ) )
+		{
+			String name = reader.getLocalName();
+			String value = XmlUtil.getElementText( reader );
+			put( name, value );
+		}
 	}
 
 	//
@@ -14,9 +14,12 @@ package com.threecrickets.creel.maven.internal;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.security.MessageDigest;
 import java.util.Arrays;
 
+import com.threecrickets.creel.RunStatistics;
 import com.threecrickets.creel.exception.CreelException;
+import com.threecrickets.creel.util.DigestCache;
 import com.threecrickets.creel.util.DigestUtil;
 import com.threecrickets.creel.util.HexUtil;
 import com.threecrickets.creel.util.IoUtil;
@@ -44,13 +47,31 @@ public class Signature
 	 *         In case of an I/O error
 	 */
 	public Signature( URL url, boolean allowMd5 ) throws IOException
+	{
+		this( url, allowMd5, null );
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param url
+	 *        The source URL
+	 * @param allowMd5
+	 *        Whether we should allow for MD5 signatures (considered less
+	 *        secure) if SHA-1 signatures are not available
+	 * @param statistics
+	 *        Where to count requests or null
+	 * @throws IOException
+	 *         In case of an I/O error
+	 */
+	public Signature( URL url, boolean allowMd5, RunStatistics statistics ) throws IOException
 	{
 		// Try SHA-1 first
 		String algorithm, content;
 		URL signatureUrl = new URL( url.toString() + ".sha1" );
 		try
 		{
-			content = IoUtil.readText( signatureUrl, null );
+			content = read( signatureUrl, statistics );
 			content = content.substring( 0, 40 ).toUpperCase();
 			if( content.length() != 40 )
 				throw new CreelException( "SHA-1 signatures must have 40 characters" );
@@ -62,7 +83,7 @@ public class Signature
 			{
 				// Fallback to MD5
 				signatureUrl = new URL( url.toString() + ".md5" );
-				content = IoUtil.readText( signatureUrl, null );
+				content = read( signatureUrl, statistics );
 				content = content.substring( 0, 32 );
 				if( content.length() != 32 )
 					throw new CreelException( "MD5 signatures must have 32 characters" );
@@ -104,6 +125,20 @@ public class Signature
 	// Operations
 	//
 
+	/**
+	 * Creates a digest for the signature's algorithm. Use it to calculate the
+	 * digest while streaming content, and then call
+	 * {@link Signature#validateDigest(byte[])}.
+	 * 
+	 * @return The digest
+	 * @throws IOException
+	 *         In case the algorithm is not found
+	 */
+	public MessageDigest newDigest() throws IOException
+	{
+		return DigestUtil.newDigest( algorithm );
+	}
+
 	/**
 	 * Validates content against the signature.
 	 * 
@@ -129,7 +164,24 @@ public class Signature
 	 */
 	public boolean validate( File file ) throws IOException
 	{
-		return validateDigest( DigestUtil.getDigest( file, algorithm ) );
+		return validate( file, null );
+	}
+
+	/**
+	 * Validates a file's content against the signature, using a digest cache
+	 * to avoid reading the file if it has not changed.
+	 * 
+	 * @param file
+	 *        The file
+	 * @param digestCache
+	 *        The digest cache or null
+	 * @return True if valid
+	 * @throws IOException
+	 *         In case of an I/O error
+	 */
+	public boolean validate( File file, DigestCache digestCache ) throws IOException
+	{
+		return validateDigest( digestCache != null ? digestCache.getDigest( file, algorithm ) : DigestUtil.getDigest( file, algorithm ) );
 	}
 
 	/**
@@ -180,4 +232,21 @@ public class Signature
 	private final String algorithm;
 
 	private final byte[] digest;
+
+	private static String read( URL url, RunStatistics statistics ) throws IOException
+	{
+		try
+		{
+			String content = IoUtil.readText( url, null );
+			if( statistics != null )
+				statistics.addRequest( RunStatistics.Request.SIGNATURE, url, RunStatistics.OK );
+			return content;
+		}
+		catch( IOException x )
+		{
+			if( statistics != null )
+				statistics.addRequest( RunStatistics.Request.SIGNATURE, url, RunStatistics.getStatus( x ) );
+			throw x;
+		}
+	}
 }
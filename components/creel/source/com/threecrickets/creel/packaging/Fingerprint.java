@@ -0,0 +1,229 @@
+/**
+ * Copyright 2015-2017 Three Crickets LLC.
+ * <p>
+ * The contents of this file are subject to the terms of the LGPL version 3.0:
+ * http://www.gnu.org/copyleft/lesser.html
+ * <p>
+ * Alternatively, you can obtain a royalty free commercial license with less
+ * limitations, transferable or non-transferable, directly from Three Crickets
+ * at http://threecrickets.com/
+ */
+
+package com.threecrickets.creel.packaging;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.threecrickets.creel.exception.CreelException;
+import com.threecrickets.creel.util.HexUtil;
+
+/**
+ * Records the digest of a Jar and the files that were unpacked from it. If the
+ * Jar has not changed, it is unpacked into the same root directory, and none of
+ * these files were touched, then there is no need to scan the Jar again.
+ * <p>
+ * A Jar that is not a package is recorded with no files.
+ * 
+ * @author Tal Liron
+ * @see Package
+ */
+public class Fingerprint
+{
+	//
+	// Construction
+	//
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param file
+	 *        The Jar file
+	 * @param digest
+	 *        The Jar digest
+	 * @param digestAlgorithm
+	 *        The digest algorithm
+	 * @param rootDir
+	 *        The root directory into which the Jar was unpacked
+	 * @param outputs
+	 *        The unpacked files
+	 */
+	public Fingerprint( File file, byte[] digest, String digestAlgorithm, File rootDir, Iterable<File> outputs )
+	{
+		this.file = file;
+		this.digest = digest;
+		this.digestAlgorithm = digestAlgorithm;
+		this.rootDir = rootDir;
+		for( File output : outputs )
+			this.outputs.add( output );
+	}
+
+	/**
+	 * Config constructor.
+	 * 
+	 * @param config
+	 *        The config
+	 */
+	public Fingerprint( Map<String, String> config )
+	{
+		String file = config.get( "file" );
+		if( file == null )
+			throw new CreelException( "Missing file" );
+		this.file = new File( file );
+		String digest = config.get( "digest" );
+		if( digest == null )
+			throw new CreelException( "Missing digest" );
+		this.digest = HexUtil.fromHex( digest );
+		digestAlgorithm = config.get( "digestAlgorithm" );
+		if( digestAlgorithm == null )
+			throw new CreelException( "Missing digest algorithm" );
+		// Fingerprints from older versions have no root directory, and so
+		// will never match
+		String rootDir = config.get( "rootDir" );
+		this.rootDir = rootDir != null ? new File( rootDir ) : null;
+		String outputs = config.get( "outputs" );
+		int count;
+		try
+		{
+			count = outputs != null ? Integer.parseInt( outputs ) : 0;
+		}
+		catch( NumberFormatException x )
+		{
+			throw new CreelException( "Bad outputs: " + outputs );
+		}
+		for( int i = 0; i < count; i++ )
+		{
+			String output = config.get( "output." + i );
+			if( output == null )
+				throw new CreelException( "Missing output: " + i );
+			this.outputs.add( new File( output ) );
+		}
+	}
+
+	//
+	// Attributes
+	//
+
+	/**
+	 * The Jar file.
+	 * 
+	 * @return The Jar file
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * The Jar digest.
+	 * 
+	 * @return The digest
+	 */
+	public byte[] getDigest()
+	{
+		return digest;
+	}
+
+	/**
+	 * The digest algorithm.
+	 * 
+	 * @return The digest algorithm
+	 */
+	public String getDigestAlgorithm()
+	{
+		return digestAlgorithm;
+	}
+
+	/**
+	 * The root directory into which the Jar was unpacked.
+	 * 
+	 * @return The root directory or null if unknown
+	 */
+	public File getRootDir()
+	{
+		return rootDir;
+	}
+
+	/**
+	 * The unpacked files.
+	 * 
+	 * @return The unpacked files
+	 */
+	public Iterable<File> getOutputs()
+	{
+		return Collections.unmodifiableCollection( outputs );
+	}
+
+	/**
+	 * Whether the Jar digest is the same.
+	 * 
+	 * @param digest
+	 *        The current Jar digest
+	 * @return True if the same
+	 */
+	public boolean matches( byte[] digest )
+	{
+		return Arrays.equals( this.digest, digest );
+	}
+
+	/**
+	 * Whether the Jar digest and the root directory are the same.
+	 * 
+	 * @param digest
+	 *        The current Jar digest
+	 * @param rootDir
+	 *        The current root directory
+	 * @return True if the same
+	 */
+	public boolean matches( byte[] digest, File rootDir )
+	{
+		return matches( digest ) && ( rootDir != null ) && rootDir.equals( this.rootDir );
+	}
+
+	/**
+	 * Represents the fingerprint as a config.
+	 * 
+	 * @return The config
+	 */
+	public Map<String, Object> toConfig()
+	{
+		Map<String, Object> config = new HashMap<String, Object>();
+		config.put( "file", getFile().getPath() );
+		config.put( "digest", HexUtil.toHex( getDigest() ) );
+		config.put( "digestAlgorithm", getDigestAlgorithm() );
+		if( getRootDir() != null )
+			config.put( "rootDir", getRootDir().getPath() );
+		config.put( "outputs", outputs.size() );
+		int i = 0;
+		for( File output : outputs )
+			config.put( "output." + i++, output.getPath() );
+		return Collections.unmodifiableMap( config );
+	}
+
+	//
+	// Object
+	//
+
+	@Override
+	public String toString()
+	{
+		return "file: " + file + ", outputs: " + outputs.size();
+	}
+
+	// //////////////////////////////////////////////////////////////////////////
+	// Private
+
+	private final File file;
+
+	private final byte[] digest;
+
+	private final String digestAlgorithm;
+
+	private final File rootDir;
+
+	private final Collection<File> outputs = new ArrayList<File>();
+}
\ No newline at end of file
@@ -11,8 +11,11 @@
 
 package com.threecrickets.creel.packaging;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 import java.util.Iterator;
+import java.util.zip.ZipFile;
 
 import com.threecrickets.creel.Artifact;
 
@@ -66,7 +69,7 @@ import com.threecrickets.creel.Artifact;
  * 
  * @author Tal Liron
  */
-public class Package implements Iterable<Artifact>
+public class Package implements Iterable<Artifact>, Closeable
 {
 	//
 	// Construction
@@ -85,10 +88,31 @@ public class Package implements Iterable<Artifact>
 	 *        The artifacts
 	 */
 	public Package( String installer, String uninstaller, File sourceFile, Iterable<Artifact> artifacts )
+	{
+		this( installer, uninstaller, sourceFile, null, artifacts );
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param installer
+	 *        Installer command or null
+	 * @param uninstaller
+	 *        Uninstaller command or null
+	 * @param sourceFile
+	 *        The source file
+	 * @param archive
+	 *        The open source Jar or null (will be closed by
+	 *        {@link Package#close()})
+	 * @param artifacts
+	 *        The artifacts
+	 */
+	public Package( String installer, String uninstaller, File sourceFile, ZipFile archive, Iterable<Artifact> artifacts )
 	{
 		this.installer = installer;
 		this.uninstaller = uninstaller;
 		this.sourceFile = sourceFile;
+		this.archive = archive;
 		this.artifacts = artifacts;
 	}
 
@@ -126,6 +150,18 @@ public class Package implements Iterable<Artifact>
 		return sourceFile;
 	}
 
+	/**
+	 * The open source Jar, which can be used to extract the artifacts without
+	 * opening it again.
+	 * 
+	 * @return The archive or null
+	 * @see PackagingUtil#extract(Package, Iterable, java.util.concurrent.ExecutorService)
+	 */
+	public ZipFile getArchive()
+	{
+		return archive;
+	}
+
 	//
 	// Iterable
 	//
@@ -136,6 +172,16 @@ public class Package implements Iterable<Artifact>
 		return artifacts.iterator();
 	}
 
+	//
+	// Closeable
+	//
+
+	public void close() throws IOException
+	{
+		if( archive != null )
+			archive.close();
+	}
+
 	//
 	// Object
 	//
@@ -155,5 +201,7 @@ public class Package implements Iterable<Artifact>
 
 	private final File sourceFile;
 
+	private final ZipFile archive;
+
 	private final Iterable<Artifact> artifacts;
 }
\ No newline at end of file
@@ -12,22 +12,37 @@
 package com.threecrickets.creel.packaging;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
 import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import com.threecrickets.creel.Artifact;
 import com.threecrickets.creel.exception.CreelException;
 import com.threecrickets.creel.packaging.internal.Jar;
 import com.threecrickets.creel.packaging.internal.Volatiles;
+import com.threecrickets.creel.util.IoUtil;
 
 /**
  * Utilities for packaging.
@@ -85,6 +100,137 @@ public abstract class PackagingUtil
 		return Collections.unmodifiableCollection( packages );
 	}
 
+	/**
+	 * Gets the packages in Jar files. The manifests are read directly from the
+	 * Jars, optionally in parallel, and only Jars with package manifests are
+	 * opened further. The returned packages hold their Jars open, and must be
+	 * closed when done.
+	 * 
+	 * @param jarFiles
+	 *        The Jar files
+	 * @param classLoader
+	 *        The class loader (used for package resources)
+	 * @param rootDir
+	 *        The root directory
+	 * @param executor
+	 *        The executor or null to scan on the calling thread
+	 * @return The packages mapped by Jar file, in the order of the Jar files
+	 * @throws IOException
+	 *         In case of an I/O error
+	 */
+	public static Map<File, Package> getPackages( Iterable<File> jarFiles, final ClassLoader classLoader, final File rootDir, ExecutorService executor ) throws IOException
+	{
+		Map<File, Package> packages = new LinkedHashMap<File, Package>();
+		if( executor == null )
+		{
+			try
+			{
+				for( File jarFile : jarFiles )
+				{
+					Package thePackage = getPackage( jarFile, classLoader, rootDir );
+					if( thePackage != null )
+						packages.put( jarFile, thePackage );
+				}
+			}
+			catch( IOException x )
+			{
+				close( packages.values() );
+				throw x;
+			}
+			catch( RuntimeException x )
+			{
+				close( packages.values() );
+				throw x;
+			}
+			return packages;
+		}
+
+		Map<File, Future<Package>> futures = new LinkedHashMap<File, Future<Package>>();
+		for( final File jarFile : jarFiles )
+		{
+			futures.put( jarFile, executor.submit( new Callable<Package>()
+			{
+				public Package call() throws IOException
+				{
+					return getPackage( jarFile, classLoader, rootDir );
+				}
+			} ) );
+		}
+
+		Throwable failure = null;
+		for( Map.Entry<File, Future<Package>> future : futures.entrySet() )
+		{
+			// Wait for all, so that no open Jar is left behind
+			try
+			{
+				Package thePackage = future.getValue().get();
+				if( thePackage != null )
+					packages.put( future.getKey(), thePackage );
+			}
+			catch( InterruptedException x )
+			{
+				Thread.currentThread().interrupt();
+				if( failure == null )
+					failure = new InterruptedIOException( "Scanning interrupted" );
+			}
+			catch( ExecutionException x )
+			{
+				if( failure == null )
+					failure = x.getCause();
+			}
+		}
+
+		if( failure != null )
+		{
+			close( packages.values() );
+			if( failure instanceof IOException )
+				throw (IOException) failure;
+			if( failure instanceof RuntimeException )
+				throw (RuntimeException) failure;
+			throw new IOException( failure );
+		}
+
+		return packages;
+	}
+
+	/**
+	 * Creates a package instance by interpreting the manifest in a Jar file.
+	 * The manifest is read directly from the Jar. The returned package holds
+	 * the Jar open, and must be closed when done.
+	 * 
+	 * @param jarFile
+	 *        The Jar file
+	 * @param classLoader
+	 *        The class loader (used for package resources)
+	 * @param rootDir
+	 *        The root directory
+	 * @return The package or null if the Jar has no package manifest
+	 * @throws IOException
+	 *         In case of an I/O error
+	 */
+	public static Package getPackage( File jarFile, ClassLoader classLoader, File rootDir ) throws IOException
+	{
+		Jar jar = new Jar( jarFile, rootDir );
+		Package thePackage = null;
+		try
+		{
+			Attributes manifest = jar.getManifest();
+			if( ( manifest == null ) || !isPackage( manifest ) )
+				return null;
+			thePackage = getPackage( manifest, jar, jar.getZipFile(), classLoader, rootDir );
+			return thePackage;
+		}
+		catch( MalformedURLException x )
+		{
+			throw new CreelException( "Parsing error in package: " + jarFile, x );
+		}
+		finally
+		{
+			if( thePackage == null )
+				jar.close();
+		}
+	}
+
 	/**
 	 * Creates a package instance by interpreting its manifest.
 	 * 
@@ -100,126 +246,366 @@ public abstract class PackagingUtil
 	 */
 	public static Package getPackage( URL manifestUrl, ClassLoader classLoader, File rootDir ) throws IOException
 	{
-		String installer = null;
-		String uninstaller = null;
-		Collection<Artifact> artifacts = new ArrayList<Artifact>();
+		Attributes manifest;
+		InputStream stream = manifestUrl.openStream();
+		try
+		{
+			manifest = new Manifest( stream ).getMainAttributes();
+		}
+		finally
+		{
+			stream.close();
+		}
 
 		Jar jar = null;
+		Object packageFolders = manifest.getValue( PACKAGE_FOLDERS );
+		Object packageFiles = manifest.getValue( PACKAGE_FILES );
+		Object packageResources = manifest.getValue( PACKAGE_RESOURCES );
+		if( packageFolders != null )
+			jar = new Jar( manifestUrl, rootDir, "Package folders " + packageFolders );
+		else if( packageFiles != null )
+			jar = new Jar( manifestUrl, rootDir, "Package files " + packageFiles );
+		else if( packageResources != null )
+			jar = new Jar( manifestUrl, rootDir, "Package resources " + packageResources );
 
 		try
 		{
-			InputStream stream = manifestUrl.openStream();
-			try
-			{
-				Attributes manifest = new Manifest( stream ).getMainAttributes();
+			return getPackage( manifest, jar, null, classLoader, rootDir );
+		}
+		catch( MalformedURLException x )
+		{
+			throw new CreelException( "Parsing error in package: " + manifestUrl, x );
+		}
+		finally
+		{
+			if( jar != null )
+				jar.close();
+		}
+	}
 
-				// Package installer
-				Object packageInstaller = manifest.getValue( PACKAGE_INSTALLER );
-				if( packageInstaller != null )
-					installer = packageInstaller.toString();
+	/**
+	 * Copies the artifacts' files from their sources.
+	 * <p>
+	 * Artifacts whose source is an entry in a zip or jar file are extracted
+	 * in one pass per archive: each archive is opened once, and the entries
+	 * are streamed in central directory order. Other artifacts are copied
+	 * individually.
+	 * 
+	 * @param artifacts
+	 *        The artifacts
+	 * @throws IOException
+	 *         In case of an I/O error
+	 */
+	public static void extract( Iterable<Artifact> artifacts ) throws IOException
+	{
+		extract( artifacts, null );
+	}
 
-				// Package uninstaller
-				Object packageUninstaller = manifest.getValue( PACKAGE_UNINSTALLER );
-				if( packageUninstaller != null )
-					uninstaller = packageUninstaller.toString();
+	/**
+	 * Copies the artifacts' files from their sources, optionally in parallel.
+	 * <p>
+	 * Artifacts whose source is an entry in a zip or jar file are extracted
+	 * with each archive opened once. The entries are partitioned by target
+	 * directory, so that each directory is created and written to by only one
+	 * task, and each partition is streamed in central directory order. Other
+	 * artifacts are copied individually.
+	 * 
+	 * @param artifacts
+	 *        The artifacts
+	 * @param executor
+	 *        The executor or null to extract on the calling thread
+	 * @throws IOException
+	 *         In case of an I/O error
+	 */
+	public static void extract( Iterable<Artifact> artifacts, ExecutorService executor ) throws IOException
+	{
+		extract( artifacts, null, executor );
+	}
 
-				Volatiles volatiles = null;
+	/**
+	 * Copies the artifacts' files from their sources, optionally in parallel,
+	 * using the package's open Jar instead of opening it again.
+	 * 
+	 * @param thePackage
+	 *        The package
+	 * @param artifacts
+	 *        The artifacts
+	 * @param executor
+	 *        The executor or null to extract on the calling thread
+	 * @throws IOException
+	 *         In case of an I/O error
+	 * @see PackagingUtil#extract(Iterable, ExecutorService)
+	 */
+	public static void extract( Package thePackage, Iterable<Artifact> artifacts, ExecutorService executor ) throws IOException
+	{
+		extract( artifacts, thePackage.getArchive(), executor );
+	}
 
-				// Package folders
-				Object packageFolders = manifest.getValue( PACKAGE_FOLDERS );
-				if( packageFolders != null )
-				{
-					if( jar == null )
-						jar = new Jar( manifestUrl, rootDir, "Package folders " + packageFolders );
-					if( volatiles == null )
-						volatiles = new Volatiles( manifest );
+	// //////////////////////////////////////////////////////////////////////////
+	// Private
 
-					for( String packageFolder : packageFolders.toString().split( "," ) )
-					{
-						String prefix = packageFolder;
-						if( !prefix.endsWith( "/" ) )
-							prefix += "/";
-						int prefixLength = prefix.length();
+	private PackagingUtil()
+	{
+	}
+
+	private static void extract( Iterable<Artifact> artifacts, ZipFile openZipFile, ExecutorService executor ) throws IOException
+	{
+		File openArchive = openZipFile != null ? new File( openZipFile.getName() ) : null;
+		Map<File, Map<String, Collection<Artifact>>> archives = new LinkedHashMap<File, Map<String, Collection<Artifact>>>();
+		for( Artifact artifact : artifacts )
+		{
+			File archive = artifact.getSourceArchive();
+			if( archive == null )
+			{
+				artifact.copy( null );
+				continue;
+			}
+
+			Map<String, Collection<Artifact>> entries = archives.get( archive );
+			if( entries == null )
+			{
+				entries = new HashMap<String, Collection<Artifact>>();
+				archives.put( archive, entries );
+			}
+			Collection<Artifact> targets = entries.get( artifact.getSourceEntryName() );
+			if( targets == null )
+			{
+				targets = new ArrayList<Artifact>( 1 );
+				entries.put( artifact.getSourceEntryName(), targets );
+			}
+			targets.add( artifact );
+		}
 
-						URL urlContext = new URL( "jar:" + jar.getUrl() + "!/" + packageFolder );
-						for( JarEntry entry : jar.getEntries() )
+		for( Map.Entry<File, Map<String, Collection<Artifact>>> archive : archives.entrySet() )
+		{
+			Map<String, Collection<Artifact>> entries = archive.getValue();
+			boolean isOpen = archive.getKey().equals( openArchive );
+			ZipFile zipFile = isOpen ? openZipFile : new ZipFile( archive.getKey() );
+			try
+			{
+				// Partition by target directory
+				Map<File, Extraction> extractions = new LinkedHashMap<File, Extraction>();
+				for( Enumeration<? extends ZipEntry> e = zipFile.entries(); e.hasMoreElements() && !entries.isEmpty(); )
+				{
+					ZipEntry entry = e.nextElement();
+					Collection<Artifact> targets = entries.remove( entry.getName() );
+					if( targets == null )
+						continue;
+					for( Artifact artifact : targets )
+					{
+						File dir = artifact.getFile().getParentFile();
+						Extraction extraction = extractions.get( dir );
+						if( extraction == null )
 						{
-							String name = entry.getName();
-							if( name.startsWith( prefix ) && name.length() > prefixLength )
-							{
-								URL url = new URL( urlContext, name );
-								artifacts.add( new Artifact( new File( rootDir, name.substring( prefixLength ) ), url, volatiles.contains( name ) ) );
-							}
+							extraction = new Extraction( zipFile, dir );
+							extractions.put( dir, extraction );
 						}
+						extraction.add( entry, artifact );
 					}
 				}
 
-				// Package files
-				Object packageFiles = manifest.getValue( PACKAGE_FILES );
-				if( packageFiles != null )
-				{
-					if( jar == null )
-						jar = new Jar( manifestUrl, rootDir, "Package files " + packageFiles );
-					if( volatiles == null )
-						volatiles = new Volatiles( manifest );
+				if( !entries.isEmpty() )
+					throw new FileNotFoundException( "Entries not found in " + archive.getKey() + ": " + entries.keySet() );
 
-					for( String packageFile : packageFiles.toString().split( "," ) )
+				if( executor == null )
+				{
+					for( Extraction extraction : extractions.values() )
+						extraction.call();
+				}
+				else
+				{
+					List<Future<Void>> futures = new ArrayList<Future<Void>>( extractions.size() );
+					for( Extraction extraction : extractions.values() )
+						futures.add( executor.submit( extraction ) );
+					try
 					{
-						boolean found = false;
-						for( JarEntry entry : jar.getEntries() )
-						{
-							if( packageFile.equals( entry.getName() ) )
-							{
-								URL url = new URL( "jar:" + jar.getUrl() + "!/" + packageFile );
-								artifacts.add( new Artifact( new File( rootDir, packageFile ), url, volatiles.contains( packageFile ) ) );
-								found = true;
-								break;
-							}
-						}
-						if( !found )
-							throw new CreelException( "Package file " + packageFile + " not found in " + jar.getFile() );
+						for( Future<Void> future : futures )
+							future.get();
+					}
+					catch( InterruptedException x )
+					{
+						for( Future<Void> future : futures )
+							future.cancel( true );
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException( "Extraction interrupted" );
+					}
+					catch( ExecutionException x )
+					{
+						for( Future<Void> future : futures )
+							future.cancel( true );
+						if( x.getCause() instanceof IOException )
+							throw (IOException) x.getCause();
+						throw new IOException( x.getCause() );
 					}
 				}
+			}
+			finally
+			{
+				if( !isOpen )
+					zipFile.close();
+			}
+		}
+	}
 
-				// Package resources
-				Object packageResources = manifest.getValue( PACKAGE_RESOURCES );
-				if( packageResources != null )
-				{
-					if( jar == null )
-						jar = new Jar( manifestUrl, rootDir, "Package resources " + packageResources );
-					if( volatiles == null )
-						volatiles = new Volatiles( manifest );
+	private static boolean isPackage( Attributes manifest )
+	{
+		for( Object name : manifest.keySet() )
+			if( name.toString().startsWith( "Package-" ) )
+				return true;
+		return false;
+	}
 
-					for( String name : packageResources.toString().split( "," ) )
-					{
-						URL url = classLoader.getResource( name );
-						if( url == null )
-							throw new CreelException( "Could not find packaged resource " + name + " from " + jar.getFile() );
+	private static Package getPackage( Attributes manifest, Jar jar, ZipFile archive, ClassLoader classLoader, File rootDir ) throws MalformedURLException
+	{
+		String installer = null;
+		String uninstaller = null;
+		Collection<Artifact> artifacts = new ArrayList<Artifact>();
+
+		// Package installer
+		Object packageInstaller = manifest.getValue( PACKAGE_INSTALLER );
+		if( packageInstaller != null )
+			installer = packageInstaller.toString();
+
+		// Package uninstaller
+		Object packageUninstaller = manifest.getValue( PACKAGE_UNINSTALLER );
+		if( packageUninstaller != null )
+			uninstaller = packageUninstaller.toString();
+
+		Volatiles volatiles = null;
+
+		// Package folders
+		Object packageFolders = manifest.getValue( PACKAGE_FOLDERS );
+		if( packageFolders != null )
+		{
+			if( volatiles == null )
+				volatiles = new Volatiles( manifest );
+
+			for( String packageFolder : packageFolders.toString().split( "," ) )
+			{
+				String prefix = packageFolder;
+				if( !prefix.endsWith( "/" ) )
+					prefix += "/";
+				int prefixLength = prefix.length();
 
-						artifacts.add( new Artifact( new File( rootDir, name ), url, volatiles.contains( name ) ) );
+				String urlPrefix = "jar:" + jar.getUrl() + "!/";
+				for( ZipEntry entry : jar.getEntries() )
+				{
+					String name = entry.getName();
+					if( name.startsWith( prefix ) && name.length() > prefixLength )
+					{
+						URL url = new URL( urlPrefix + name );
+						artifacts.add( new Artifact( new File( rootDir, name.substring( prefixLength ) ), url, volatiles.contains( name ), jar.getAbsoluteFile(), entry ) );
 					}
 				}
 			}
-			finally
+		}
+
+		// Package files
+		Object packageFiles = manifest.getValue( PACKAGE_FILES );
+		if( packageFiles != null )
+		{
+			if( volatiles == null )
+				volatiles = new Volatiles( manifest );
+
+			for( String packageFile : packageFiles.toString().split( "," ) )
 			{
-				stream.close();
+				ZipEntry entry = jar.getEntry( packageFile );
+				if( entry == null )
+					throw new CreelException( "Package file " + packageFile + " not found in " + jar.getFile() );
+				URL url = new URL( "jar:" + jar.getUrl() + "!/" + packageFile );
+				artifacts.add( new Artifact( new File( rootDir, packageFile ), url, volatiles.contains( packageFile ), jar.getAbsoluteFile(), entry ) );
 			}
 		}
-		catch( MalformedURLException x )
+
+		// Package resources
+		Object packageResources = manifest.getValue( PACKAGE_RESOURCES );
+		if( packageResources != null )
 		{
-			throw new CreelException( "Parsing error in package: " + manifestUrl, x );
+			if( volatiles == null )
+				volatiles = new Volatiles( manifest );
+
+			for( String name : packageResources.toString().split( "," ) )
+			{
+				URL url = classLoader.getResource( name );
+				if( url == null )
+					throw new CreelException( "Could not find packaged resource " + name + " from " + jar.getFile() );
+
+				artifacts.add( new Artifact( new File( rootDir, name ), url, volatiles.contains( name ) ) );
+			}
 		}
 
 		if( ( installer != null ) || ( uninstaller != null ) || !artifacts.isEmpty() )
-			return new Package( installer, uninstaller, jar != null ? jar.getFile() : null, artifacts );
+			return new Package( installer, uninstaller, jar != null ? jar.getFile() : null, archive, artifacts );
 
 		return null;
 	}
 
-	// //////////////////////////////////////////////////////////////////////////
-	// Private
+	private static void close( Iterable<Package> packages )
+	{
+		for( Package thePackage : packages )
+		{
+			try
+			{
+				thePackage.close();
+			}
+			catch( IOException x )
+			{
+			}
+		}
+	}
 
-	private PackagingUtil()
+	/**
+	 * Extracts zip entries into a single directory.
+	 */
+	private static class Extraction implements Callable<Void>
 	{
+		public Extraction( ZipFile zipFile, File dir )
+		{
+			this.zipFile = zipFile;
+			this.dir = dir;
+		}
+
+		public void add( ZipEntry entry, Artifact artifact )
+		{
+			entries.add( entry );
+			artifacts.add( artifact );
+		}
+
+		public Void call() throws IOException
+		{
+			Files.createDirectories( dir.toPath() );
+			byte[] buffer = new byte[IoUtil.bufferSize];
+			for( int i = 0, size = entries.size(); i < size; i++ )
+			{
+				InputStream in = zipFile.getInputStream( entries.get( i ) );
+				try
+				{
+					OutputStream out = new FileOutputStream( artifacts.get( i ).getFile() );
+					try
+					{
+						int count;
+						while( ( count = in.read( buffer ) ) != -1 )
+							out.write( buffer, 0, count );
+					}
+					finally
+					{
+						out.close();
+					}
+				}
+				finally
+				{
+					in.close();
+				}
+			}
+			return null;
+		}
+
+		private final ZipFile zipFile;
+
+		private final File dir;
+
+		private final List<ZipEntry> entries = new ArrayList<ZipEntry>();
+
+		private final List<Artifact> artifacts = new ArrayList<Artifact>();
 	}
 }
@@ -11,26 +11,36 @@
 
 package com.threecrickets.creel.packaging.internal;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.JarURLConnection;
+import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.jar.JarEntry;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
 import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import com.threecrickets.creel.exception.CreelException;
 
 /**
- * Utility class for working with Jars.
+ * Utility class for working with Jars. The Jar file is opened directly (not
+ * via the URL protocol handler), and remains open until closed. Its entries are
+ * indexed only when first needed.
  * 
  * @author Tal Liron
  */
-public class Jar
+public class Jar implements Closeable
 {
 	//
 	// Construction
@@ -48,43 +58,37 @@ public class Jar
 	 */
 	public Jar( URL manifestUrl, File rootDir, String errorMessage )
 	{
-		if( !"jar".equalsIgnoreCase( manifestUrl.getProtocol() ) )
-			throw new CreelException( errorMessage + " is not in a jar file: " + manifestUrl );
-
-		JarURLConnection connection;
-		try
-		{
-			connection = (JarURLConnection) manifestUrl.openConnection();
-		}
-		catch( IOException x )
-		{
-			throw new CreelException( "Could not read jar file: " + manifestUrl, x );
-		}
+		this( toJarFile( manifestUrl, errorMessage ), rootDir );
+	}
 
-		url = connection.getJarFileURL();
+	/**
+	 * Constructor.
+	 * 
+	 * @param jarFile
+	 *        The Jar file
+	 * @param rootDir
+	 *        The root directory
+	 */
+	public Jar( File jarFile, File rootDir )
+	{
+		absoluteFile = jarFile.getAbsoluteFile();
+		file = rootDir.toPath().relativize( absoluteFile.toPath() ).toFile();
 		try
 		{
-			file = rootDir.toPath().relativize( new File( url.toURI() ).toPath() ).toFile();
+			url = absoluteFile.toURI().toURL();
 		}
-		catch( URISyntaxException x )
+		catch( MalformedURLException x )
 		{
-			throw new CreelException( "Parsing error in package: " + manifestUrl, x );
+			throw new CreelException( "Parsing error in package: " + jarFile, x );
 		}
 
 		try
 		{
-			JarFile jarFile = connection.getJarFile();
-			entries = new ArrayList<JarEntry>( jarFile.size() );
-			for( Enumeration<JarEntry> e = jarFile.entries(); e.hasMoreElements(); )
-			{
-				JarEntry entry = e.nextElement();
-				if( !entry.isDirectory() )
-					entries.add( entry );
-			}
+			zipFile = new ZipFile( absoluteFile );
 		}
 		catch( IOException x )
 		{
-			throw new CreelException( "Could not unpack jar file: " + file, x );
+			throw new CreelException( "Could not read jar file: " + file, x );
 		}
 	}
 
@@ -113,15 +117,81 @@ public class Jar
 	}
 
 	/**
-	 * The Jar file entries.
+	 * The Jar file as an absolute path.
+	 * 
+	 * @return The Jar file
+	 */
+	public File getAbsoluteFile()
+	{
+		return absoluteFile;
+	}
+
+	/**
+	 * The open Jar file.
+	 * 
+	 * @return The zip file
+	 */
+	public ZipFile getZipFile()
+	{
+		return zipFile;
+	}
+
+	/**
+	 * The main attributes of the Jar's manifest.
+	 * 
+	 * @return The manifest attributes or null if there is no manifest
+	 * @throws IOException
+	 *         In case of an I/O error
+	 */
+	public Attributes getManifest() throws IOException
+	{
+		ZipEntry entry = zipFile.getEntry( JarFile.MANIFEST_NAME );
+		if( entry == null )
+			return null;
+		InputStream stream = zipFile.getInputStream( entry );
+		try
+		{
+			return new Manifest( stream ).getMainAttributes();
+		}
+		finally
+		{
+			stream.close();
+		}
+	}
+
+	/**
+	 * The Jar file entries, in central directory order.
 	 * 
 	 * @return The Jar file entries
 	 */
-	public Iterable<JarEntry> getEntries()
+	public Iterable<ZipEntry> getEntries()
 	{
+		index();
 		return Collections.unmodifiableCollection( entries );
 	}
 
+	/**
+	 * A Jar file entry.
+	 * 
+	 * @param name
+	 *        The entry name
+	 * @return The entry or null if not found
+	 */
+	public ZipEntry getEntry( String name )
+	{
+		index();
+		return entriesByName.get( name );
+	}
+
+	//
+	// Closeable
+	//
+
+	public void close() throws IOException
+	{
+		zipFile.close();
+	}
+
 	// //////////////////////////////////////////////////////////////////////////
 	// Private
 
@@ -129,5 +199,49 @@ public class Jar
 
 	private final File file;
 
-	private final Collection<JarEntry> entries;
+	private final File absoluteFile;
+
+	private final ZipFile zipFile;
+
+	private Collection<ZipEntry> entries;
+
+	private Map<String, ZipEntry> entriesByName;
+
+	private static File toJarFile( URL manifestUrl, String errorMessage )
+	{
+		if( !"jar".equalsIgnoreCase( manifestUrl.getProtocol() ) )
+			throw new CreelException( errorMessage + " is not in a jar file: " + manifestUrl );
+
+		try
+		{
+			// Does not connect
+			JarURLConnection connection = (JarURLConnection) manifestUrl.openConnection();
+			return new File( connection.getJarFileURL().toURI() );
+		}
+		catch( IOException x )
+		{
+			throw new CreelException( "Could not read jar file: " + manifestUrl, x );
+		}
+		catch( URISyntaxException x )
+		{
+			throw new CreelException( "Parsing error in package: " + manifestUrl, x );
+		}
+	}
+
+	private void index()
+	{
+		if( entries != null )
+			return;
+		entries = new ArrayList<ZipEntry>( zipFile.size() );
+		entriesByName = new HashMap<String, ZipEntry>( zipFile.size() * 2 );
+		for( Enumeration<? extends ZipEntry> e = zipFile.entries(); e.hasMoreElements(); )
+		{
+			ZipEntry entry = e.nextElement();
+			if( !entry.isDirectory() )
+			{
+				entries.add( entry );
+				entriesByName.put( entry.getName(), entry );
+			}
+		}
+	}
 }
\ No newline at end of file
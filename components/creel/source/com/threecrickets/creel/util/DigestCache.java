@@ -0,0 +1,313 @@
+/**
+ * Copyright 2015-2017 Three Crickets LLC.
+ * <p>
+ * The contents of this file are subject to the terms of the LGPL version 3.0:
+ * http://www.gnu.org/copyleft/lesser.html
+ * <p>
+ * Alternatively, you can obtain a royalty free commercial license with less
+ * limitations, transferable or non-transferable, directly from Three Crickets
+ * at http://threecrickets.com/
+ */
+
+package com.threecrickets.creel.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers file digests, so that files that have not changed are not read
+ * again. A cached digest is used only if the file's size, modification time,
+ * and file key (on most operating systems this is the inode) are all
+ * unchanged. Can be persisted to a file between runs.
+ * <p>
+ * Files modified very recently are not cached, because a later change within
+ * the timestamp granularity of the filesystem would not be noticed.
+ * <p>
+ * Thread-safe.
+ * 
+ * @author Tal Liron
+ */
+public class DigestCache
+{
+	//
+	// Constants
+	//
+
+	/**
+	 * Files modified less than this many milliseconds ago are not cached.
+	 */
+	public static final long MINIMUM_AGE = 2000;
+
+	//
+	// Construction
+	//
+
+	/**
+	 * Constructor. Will load the cache from the file if it exists.
+	 * 
+	 * @param file
+	 *        The file or null to keep the cache only in memory
+	 * @throws IOException
+	 *         In case the file could not be read
+	 */
+	public DigestCache( File file ) throws IOException
+	{
+		this.file = file;
+
+		if( file != null )
+		{
+			Properties properties = IoUtil.loadProperties( file );
+
+			for( Map.Entry<Object, Object> entry : properties.entrySet() )
+			{
+				String value = entry.getValue().toString();
+				int first = value.indexOf( ',' );
+				int second = value.indexOf( ',', first + 1 );
+				int last = value.lastIndexOf( ',' );
+				if( ( first == -1 ) || ( second == -1 ) || ( last <= second ) )
+					continue;
+				try
+				{
+					Entry cached = new Entry();
+					cached.size = Long.parseLong( value.substring( 0, first ) );
+					cached.modified = Long.parseLong( value.substring( first + 1, second ) );
+					cached.fileKey = value.substring( second + 1, last );
+					cached.digest = HexUtil.fromHex( value.substring( last + 1 ) );
+					entries.put( entry.getKey().toString(), cached );
+				}
+				catch( RuntimeException x )
+				{
+					// Ignore corrupt entries
+				}
+			}
+		}
+	}
+
+	//
+	// Attributes
+	//
+
+	/**
+	 * The file.
+	 * 
+	 * @return The file or null
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * The number of lookups since the cache was created.
+	 * 
+	 * @return The lookup count
+	 */
+	public long getLookupCount()
+	{
+		return lookupCount.get();
+	}
+
+	/**
+	 * The number of lookups that were answered by the cache since it was
+	 * created.
+	 * 
+	 * @return The hit count
+	 */
+	public long getHitCount()
+	{
+		return hitCount.get();
+	}
+
+	//
+	// Operations
+	//
+
+	/**
+	 * Gets the digest for a file, calculating it only if the file has changed
+	 * since it was last cached.
+	 * 
+	 * @param file
+	 *        The file
+	 * @param algorithm
+	 *        The algorithm
+	 * @return The digest
+	 * @throws IOException
+	 *         In case of an I/O error
+	 */
+	public byte[] getDigest( File file, String algorithm ) throws IOException
+	{
+		String key = getKey( file, algorithm );
+		Entry entry = getEntry( file, key );
+		byte[] digest = getCachedDigest( entry, key );
+		if( digest != null )
+			return digest;
+
+		digest = DigestUtil.getDigest( file, algorithm );
+		putEntry( entry, key, digest );
+		return digest;
+	}
+
+	/**
+	 * Gets the digests for many files, calculating in parallel only those
+	 * that have changed since they were last cached.
+	 * 
+	 * @param files
+	 *        The files
+	 * @param algorithm
+	 *        The algorithm
+	 * @param executor
+	 *        The executor on which to calculate the digests
+	 * @return The digests, in the same order as the files
+	 * @throws IOException
+	 *         In case of an I/O error for any of the files
+	 * @see DigestUtil#getDigests(Collection, String, ExecutorService)
+	 */
+	public Map<File, byte[]> getDigests( Collection<File> files, String algorithm, ExecutorService executor ) throws IOException
+	{
+		Map<File, byte[]> digests = new LinkedHashMap<File, byte[]>();
+		Map<File, Entry> changedEntries = new LinkedHashMap<File, Entry>();
+		for( File file : files )
+		{
+			String key = getKey( file, algorithm );
+			Entry entry = getEntry( file, key );
+			byte[] digest = getCachedDigest( entry, key );
+
+			// Keep the order of the files
+			digests.put( file, digest );
+			if( digest == null )
+				changedEntries.put( file, entry );
+		}
+
+		if( !changedEntries.isEmpty() )
+		{
+			for( Map.Entry<File, byte[]> digest : DigestUtil.getDigests( changedEntries.keySet(), algorithm, executor ).entrySet() )
+			{
+				File file = digest.getKey();
+				putEntry( changedEntries.get( file ), getKey( file, algorithm ), digest.getValue() );
+				digests.put( file, digest.getValue() );
+			}
+		}
+
+		return digests;
+	}
+
+	/**
+	 * Saves the cache to the file, if it has changed. Entries for files that no
+	 * longer exist are dropped.
+	 * 
+	 * @throws IOException
+	 *         In case the file could not be written
+	 */
+	public void save() throws IOException
+	{
+		if( ( file == null ) || !changed )
+			return;
+		changed = false;
+
+		Properties properties = new SortedProperties();
+		for( Map.Entry<String, Entry> entry : entries.entrySet() )
+		{
+			String key = entry.getKey();
+			if( !new File( key.substring( key.indexOf( '|' ) + 1 ) ).exists() )
+				continue;
+			Entry cached = entry.getValue();
+			properties.put( key, cached.size + "," + cached.modified + "," + cached.fileKey + "," + HexUtil.toHex( cached.digest ) );
+		}
+
+		IoUtil.storeProperties( properties, file, "Managed by Creel" );
+	}
+
+	// //////////////////////////////////////////////////////////////////////////
+	// Private
+
+	private final File file;
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	private volatile boolean changed;
+
+	private final AtomicLong lookupCount = new AtomicLong();
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private static class Entry
+	{
+		long size;
+
+		long modified;
+
+		String fileKey;
+
+		byte[] digest;
+
+		boolean matches( Entry entry )
+		{
+			return ( entry != null ) && ( entry.size == size ) && ( entry.modified == modified ) && entry.fileKey.equals( fileKey );
+		}
+	}
+
+	private static String getKey( File file, String algorithm )
+	{
+		return algorithm + '|' + file.getAbsolutePath();
+	}
+
+	/**
+	 * Reads the file's current attributes into an entry without a digest.
+	 */
+	private Entry getEntry( File file, String key ) throws IOException
+	{
+		BasicFileAttributes attributes;
+		try
+		{
+			attributes = Files.readAttributes( file.toPath(), BasicFileAttributes.class );
+		}
+		catch( IOException x )
+		{
+			if( entries.remove( key ) != null )
+				changed = true;
+			throw x;
+		}
+
+		Entry entry = new Entry();
+		entry.size = attributes.size();
+		entry.modified = attributes.lastModifiedTime().toMillis();
+		Object fileKey = attributes.fileKey();
+		entry.fileKey = fileKey != null ? fileKey.toString() : "";
+		return entry;
+	}
+
+	/**
+	 * The cached digest if the file is unchanged, otherwise null.
+	 */
+	private byte[] getCachedDigest( Entry entry, String key )
+	{
+		lookupCount.incrementAndGet();
+		Entry cached = entries.get( key );
+		if( ( cached == null ) || !cached.matches( entry ) )
+			return null;
+		hitCount.incrementAndGet();
+		return cached.digest.clone();
+	}
+
+	private void putEntry( Entry entry, String key, byte[] digest )
+	{
+		if( System.currentTimeMillis() - entry.modified >= MINIMUM_AGE )
+		{
+			entry.digest = digest.clone();
+			entries.put( key, entry );
+			changed = true;
+		}
+		else if( entries.remove( key ) != null )
+			changed = true;
+	}
+}
\ No newline at end of file
@@ -16,39 +16,85 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 
 /**
  * Utilities for cryptographic digests.
+ * <p>
+ * Digest instances and read buffers are pooled per thread, so the operations
+ * here are cheap to call repeatedly. Files are read through a channel into a
+ * direct buffer.
  * 
  * @author Tal Liron
  */
 public abstract class DigestUtil
 {
+	//
+	// Constants
+	//
+
+	/**
+	 * CRC-32 checksum (not cryptographic, but matches the checksums stored in
+	 * zip and jar entries). The digest is the checksum as 4 big-endian bytes.
+	 */
+	public static final String CRC_32 = "CRC-32";
+
+	/**
+	 * MD5 algorithm (considered insecure).
+	 */
+	public static final String MD5 = "MD5";
+
+	/**
+	 * SHA-1 algorithm.
+	 */
+	public static final String SHA_1 = "SHA-1";
+
+	/**
+	 * SHA-256 algorithm.
+	 */
+	public static final String SHA_256 = "SHA-256";
+
+	/**
+	 * SHA-512 algorithm.
+	 */
+	public static final String SHA_512 = "SHA-512";
+
 	//
 	// Static operations
 	//
 
 	/**
-	 * Calculates a digest for the content.
+	 * Creates a digest.
+	 * <p>
+	 * The digest is not pooled, so the caller may keep it.
 	 * 
-	 * @param content
-	 *        The content
 	 * @param algorithm
 	 *        The algorithm
 	 * @return The digest
 	 * @throws IOException
 	 *         In case the algorithm is not found
 	 */
-	public static byte[] getDigest( byte[] content, String algorithm ) throws IOException
+	public static MessageDigest newDigest( String algorithm ) throws IOException
 	{
+		if( CRC_32.equals( algorithm ) )
+			return new Crc32Digest();
 		try
 		{
-			MessageDigest digest = MessageDigest.getInstance( algorithm );
-			digest.reset();
-			digest.update( content );
-			return digest.digest();
+			return MessageDigest.getInstance( algorithm );
 		}
 		catch( NoSuchAlgorithmException x )
 		{
@@ -58,6 +104,40 @@ public abstract class DigestUtil
 		}
 	}
 
+	/**
+	 * Converts a CRC-32 checksum to the digest format used by
+	 * {@link DigestUtil#CRC_32}.
+	 * 
+	 * @param crc
+	 *        The checksum
+	 * @return The digest
+	 */
+	public static byte[] toCrc32Digest( long crc )
+	{
+		return new byte[]
+		{
+			(byte) ( crc >>> 24 ), (byte) ( crc >>> 16 ), (byte) ( crc >>> 8 ), (byte) crc
+		};
+	}
+
+	/**
+	 * Calculates a digest for the content.
+	 * 
+	 * @param content
+	 *        The content
+	 * @param algorithm
+	 *        The algorithm
+	 * @return The digest
+	 * @throws IOException
+	 *         In case the algorithm is not found
+	 */
+	public static byte[] getDigest( byte[] content, String algorithm ) throws IOException
+	{
+		MessageDigest digest = getPooledDigest( algorithm );
+		digest.update( content );
+		return digest.digest();
+	}
+
 	/**
 	 * Calculates a digest for a stream.
 	 * <p>
@@ -75,20 +155,13 @@ public abstract class DigestUtil
 	{
 		try
 		{
-			MessageDigest digest = MessageDigest.getInstance( algorithm );
-			digest.reset();
+			MessageDigest digest = getPooledDigest( algorithm );
 			byte[] buffer = new byte[IoUtil.bufferSize];
 			int length = 0;
 			while( ( length = stream.read( buffer ) ) != -1 )
 				digest.update( buffer, 0, length );
 			return digest.digest();
 		}
-		catch( NoSuchAlgorithmException x )
-		{
-			IOException io = new IOException();
-			io.initCause( x );
-			throw io;
-		}
 		finally
 		{
 			stream.close();
@@ -108,11 +181,34 @@ public abstract class DigestUtil
 	 */
 	public static byte[] getDigest( File file, String algorithm ) throws IOException
 	{
-		return getDigest( new FileInputStream( file ), algorithm );
+		MessageDigest digest = getPooledDigest( algorithm );
+		FileInputStream stream = new FileInputStream( file );
+		try
+		{
+			// Reading into a reused buffer is cheaper than creating a mapping
+			// per file
+			FileChannel channel = stream.getChannel();
+			ByteBuffer buffer = BUFFER.get();
+			buffer.clear();
+			while( channel.read( buffer ) != -1 )
+			{
+				buffer.flip();
+				digest.update( buffer );
+				buffer.clear();
+			}
+			return digest.digest();
+		}
+		finally
+		{
+			stream.close();
+		}
 	}
 
 	/**
 	 * Calculates a digest for a URL.
+	 * <p>
+	 * Uses {@link IoUtil#openStream(URL)}, so "file:" URLs are read directly
+	 * and network connections have timeouts.
 	 * 
 	 * @param url
 	 *        The URL
@@ -124,13 +220,151 @@ public abstract class DigestUtil
 	 */
 	public static byte[] getDigest( URL url, String algorithm ) throws IOException
 	{
-		return getDigest( url.openStream(), algorithm );
+		File file = IoUtil.toFile( url );
+		if( file != null )
+			return getDigest( file, algorithm );
+		return getDigest( IoUtil.openStream( url ), algorithm );
+	}
+
+	/**
+	 * Calculates digests for many files in parallel.
+	 * 
+	 * @param files
+	 *        The files
+	 * @param algorithm
+	 *        The algorithm
+	 * @param executor
+	 *        The executor on which to calculate the digests
+	 * @return The digests, in the same order as the files
+	 * @throws IOException
+	 *         In case of an I/O error for any of the files
+	 */
+	public static Map<File, byte[]> getDigests( Collection<File> files, final String algorithm, ExecutorService executor ) throws IOException
+	{
+		List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>( files.size() );
+		for( final File file : files )
+		{
+			futures.add( executor.submit( new Callable<byte[]>()
+			{
+				public byte[] call() throws IOException
+				{
+					return getDigest( file, algorithm );
+				}
+			} ) );
+		}
+
+		Map<File, byte[]> digests = new LinkedHashMap<File, byte[]>();
+		int i = 0;
+		try
+		{
+			for( File file : files )
+				digests.put( file, futures.get( i++ ).get() );
+		}
+		catch( InterruptedException x )
+		{
+			Thread.currentThread().interrupt();
+			IOException io = new IOException( "Interrupted" );
+			io.initCause( x );
+			throw io;
+		}
+		catch( ExecutionException x )
+		{
+			for( Future<byte[]> future : futures )
+				future.cancel( false );
+			if( x.getCause() instanceof IOException )
+				throw (IOException) x.getCause();
+			IOException io = new IOException();
+			io.initCause( x.getCause() );
+			throw io;
+		}
+		return digests;
 	}
 
 	// //////////////////////////////////////////////////////////////////////////
 	// Private
 
+	private static final ThreadLocal<Map<String, MessageDigest>> DIGESTS = new ThreadLocal<Map<String, MessageDigest>>()
+	{
+		@Override
+		protected Map<String, MessageDigest> initialValue()
+		{
+			return new HashMap<String, MessageDigest>();
+		}
+	};
+
+	private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<ByteBuffer>()
+	{
+		@Override
+		protected ByteBuffer initialValue()
+		{
+			return ByteBuffer.allocateDirect( 64 * 1024 );
+		}
+	};
+
 	private DigestUtil()
 	{
 	}
-}
+
+	/**
+	 * Adapts {@link CRC32} to the digest API.
+	 */
+	private static class Crc32Digest extends MessageDigest
+	{
+		public Crc32Digest()
+		{
+			super( CRC_32 );
+		}
+
+		@Override
+		protected void engineUpdate( byte input )
+		{
+			crc.update( input );
+		}
+
+		@Override
+		protected void engineUpdate( byte[] input, int offset, int length )
+		{
+			crc.update( input, offset, length );
+		}
+
+		@Override
+		protected int engineGetDigestLength()
+		{
+			return 4;
+		}
+
+		@Override
+		protected byte[] engineDigest()
+		{
+			byte[] digest = toCrc32Digest( crc.getValue() );
+			crc.reset();
+			return digest;
+		}
+
+		@Override
+		protected void engineReset()
+		{
+			crc.reset();
+		}
+
+		private final CRC32 crc = new CRC32();
+	}
+
+	/**
+	 * Gets a reset digest that is reused by the current thread. Must not be
+	 * kept by the caller.
+	 */
+	private static MessageDigest getPooledDigest( String algorithm ) throws IOException
+	{
+		Map<String, MessageDigest> digests = DIGESTS.get();
+		MessageDigest digest = digests.get( algorithm );
+		if( digest == null )
+		{
+			digest = newDigest( algorithm );
+			digests.put( algorithm, digest );
+		}
+		else
+			digest.reset();
+		return digest;
+	}
+}
\ No newline at end of file
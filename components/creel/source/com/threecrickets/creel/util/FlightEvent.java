@@ -0,0 +1,266 @@
+/**
+ * Copyright 2015-2017 Three Crickets LLC.
+ * <p>
+ * The contents of this file are subject to the terms of the LGPL version 3.0:
+ * http://www.gnu.org/copyleft/lesser.html
+ * <p>
+ * Alternatively, you can obtain a royalty free commercial license with less
+ * limitations, transferable or non-transferable, directly from Three Crickets
+ * at http://threecrickets.com/
+ */
+
+package com.threecrickets.creel.util;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A JDK Flight Recorder event.
+ * <p>
+ * The event types are created at runtime via reflection on the jdk.jfr
+ * dynamic event API, so that we do not depend on JFR when compiling, and can
+ * still run on JVMs that do not have it. On such JVMs, and when no recording
+ * has enabled the event type, {@link Type#begin()} returns null. Whether the
+ * event type is enabled is cached, and checked again via reflection at most
+ * once every {@link #ENABLED_CHECK_INTERVAL} milliseconds, so the cost is
+ * usually just a clock check.
+ * <p>
+ * Usage:
+ * 
+ * <pre>
+ * FlightEvent flightEvent = FlightEvent.REQUEST.begin();
+ * ...
+ * if( flightEvent != null )
+ * 	flightEvent.commit( url.toString(), status, bytes );
+ * </pre>
+ * 
+ * @author Tal Liron
+ */
+public class FlightEvent
+{
+	//
+	// Constants
+	//
+
+	/**
+	 * How often to check whether an event type has been enabled or disabled
+	 * by a recording, in milliseconds.
+	 */
+	public static final long ENABLED_CHECK_INTERVAL = 1000;
+
+	/**
+	 * An engine stage.
+	 */
+	public static final Type STAGE = new Type( "Stage", "Stage", "Engine stage", "stage", String.class );
+
+	/**
+	 * Identifying a module.
+	 */
+	public static final Type IDENTIFICATION = new Type( "Identification", "Identification", "Identifying a module", "module", String.class, "repository", String.class, "cacheHit", boolean.class );
+
+	/**
+	 * Reading from a URL or checking it.
+	 */
+	public static final Type REQUEST = new Type( "Request", "Request", "Reading from a URL or checking it", "url", String.class, "status", int.class, "bytes", long.class );
+
+	/**
+	 * Downloading an artifact or a chunk of it. The chunk is 0 if the artifact
+	 * was not split into chunks.
+	 */
+	public static final Type DOWNLOAD = new Type( "Download", "Download", "Downloading an artifact or a chunk of it", "artifact", String.class, "chunk", int.class, "bytes", long.class, "throughput", double.class );
+
+	//
+	// Operations
+	//
+
+	/**
+	 * Sets the field values and commits the event. The values must be in the
+	 * order and of the types with which the fields were defined.
+	 * 
+	 * @param values
+	 *        The field values
+	 */
+	public void commit( Object... values )
+	{
+		try
+		{
+			for( int i = 0; i < values.length; i++ )
+				type.set.invoke( event, i, values[i] );
+			type.commit.invoke( event );
+		}
+		catch( Exception x )
+		{
+			// Recording is a best effort
+		}
+	}
+
+	//
+	// Classes
+	//
+
+	/**
+	 * A flight event type.
+	 */
+	public static class Type
+	{
+		/**
+		 * Constructor.
+		 * 
+		 * @param name
+		 *        The name (will be prefixed by "com.threecrickets.creel.")
+		 * @param label
+		 *        The label
+		 * @param description
+		 *        The description
+		 * @param fields
+		 *        Alternating field names and types
+		 */
+		public Type( String name, String label, String description, Object... fields )
+		{
+			this.name = "com.threecrickets.creel." + name;
+
+			Object eventType = null;
+			Method isEnabled = null, newEvent = null, begin = null, set = null, commit = null;
+			Object factory = null;
+			try
+			{
+				Class<?> annotationElementClass = Class.forName( "jdk.jfr.AnnotationElement" );
+				Constructor<?> annotationElementConstructor = annotationElementClass.getConstructor( Class.class, Object.class );
+				List<Object> annotations = new ArrayList<Object>();
+				annotations.add( annotationElementConstructor.newInstance( Class.forName( "jdk.jfr.Name" ), this.name ) );
+				annotations.add( annotationElementConstructor.newInstance( Class.forName( "jdk.jfr.Label" ), label ) );
+				annotations.add( annotationElementConstructor.newInstance( Class.forName( "jdk.jfr.Description" ), description ) );
+				annotations.add( annotationElementConstructor.newInstance( Class.forName( "jdk.jfr.Category" ), new String[] { "Creel" } ) );
+
+				Constructor<?> valueDescriptorConstructor = Class.forName( "jdk.jfr.ValueDescriptor" ).getConstructor( Class.class, String.class );
+				List<Object> valueDescriptors = new ArrayList<Object>();
+				for( int i = 0; i < fields.length; i += 2 )
+					valueDescriptors.add( valueDescriptorConstructor.newInstance( fields[i + 1], fields[i] ) );
+
+				Class<?> eventFactoryClass = Class.forName( "jdk.jfr.EventFactory" );
+				factory = eventFactoryClass.getMethod( "create", List.class, List.class ).invoke( null, annotations, valueDescriptors );
+				eventType = eventFactoryClass.getMethod( "getEventType" ).invoke( factory );
+				isEnabled = Class.forName( "jdk.jfr.EventType" ).getMethod( "isEnabled" );
+				newEvent = eventFactoryClass.getMethod( "newEvent" );
+
+				Class<?> eventClass = Class.forName( "jdk.jfr.Event" );
+				begin = eventClass.getMethod( "begin" );
+				set = eventClass.getMethod( "set", int.class, Object.class );
+				commit = eventClass.getMethod( "commit" );
+			}
+			catch( Exception x )
+			{
+				// JFR is not available
+				factory = null;
+			}
+			catch( LinkageError x )
+			{
+				// JFR is not available
+				factory = null;
+			}
+
+			this.factory = factory;
+			this.eventType = eventType;
+			this.isEnabled = isEnabled;
+			this.newEvent = newEvent;
+			this.begin = begin;
+			this.set = set;
+			this.commit = commit;
+		}
+
+		/**
+		 * The full name.
+		 * 
+		 * @return The name
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * Whether JFR is available and a recording has enabled this event type.
+		 * The result may be up to {@link FlightEvent#ENABLED_CHECK_INTERVAL}
+		 * milliseconds old.
+		 * 
+		 * @return True if enabled
+		 */
+		public boolean isEnabled()
+		{
+			if( factory == null )
+				return false;
+			long now = System.nanoTime();
+			if( now - nextEnabledCheck < 0 )
+				return enabled;
+
+			boolean enabled;
+			try
+			{
+				enabled = (Boolean) isEnabled.invoke( eventType );
+			}
+			catch( Exception x )
+			{
+				enabled = false;
+			}
+			this.enabled = enabled;
+			nextEnabledCheck = now + ENABLED_CHECK_INTERVAL * 1000000L;
+			return enabled;
+		}
+
+		/**
+		 * Creates an event and starts timing it.
+		 * 
+		 * @return The event or null if not enabled
+		 */
+		public FlightEvent begin()
+		{
+			if( !isEnabled() )
+				return null;
+			try
+			{
+				Object event = newEvent.invoke( factory );
+				begin.invoke( event );
+				return new FlightEvent( this, event );
+			}
+			catch( Exception x )
+			{
+				return null;
+			}
+		}
+
+		private final String name;
+
+		private final Object factory;
+
+		private final Object eventType;
+
+		private final Method isEnabled;
+
+		private final Method newEvent;
+
+		private final Method begin;
+
+		private final Method set;
+
+		private final Method commit;
+
+		private volatile boolean enabled;
+
+		private volatile long nextEnabledCheck = System.nanoTime();
+	}
+
+	// //////////////////////////////////////////////////////////////////////////
+	// Private
+
+	private FlightEvent( Type type, Object event )
+	{
+		this.type = type;
+		this.event = event;
+	}
+
+	private final Type type;
+
+	private final Object event;
+}
\ No newline at end of file
@@ -16,6 +16,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -32,6 +33,7 @@ import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.util.Properties;
 
 /**
  * @author Tal Liron
@@ -102,6 +104,53 @@ public abstract class IoUtil
 		return connection;
 	}
 
+	/**
+	 * Opens a stream for a URL with sensible defaults.
+	 * <p>
+	 * Will detect "file:" URLs and optimize accordingly.
+	 * <p>
+	 * If {@link FlightEvent#REQUEST} is enabled, it is committed when the
+	 * stream is closed.
+	 * 
+	 * @param url
+	 *        The URL
+	 * @return The stream
+	 * @throws IOException
+	 *         In case of an I/O error
+	 */
+	public static InputStream openStream( URL url ) throws IOException
+	{
+		FlightEvent flightEvent = FlightEvent.REQUEST.begin();
+		File file = toFile( url );
+		if( file != null )
+		{
+			InputStream stream;
+			try
+			{
+				stream = new FileInputStream( file );
+			}
+			catch( IOException x )
+			{
+				commit( flightEvent, url, null, 0 );
+				throw x;
+			}
+			return flightEvent != null ? new RequestInputStream( stream, flightEvent, url, null ) : stream;
+		}
+
+		URLConnection connection = open( url );
+		InputStream stream;
+		try
+		{
+			stream = connection.getInputStream();
+		}
+		catch( IOException x )
+		{
+			commit( flightEvent, url, connection, 0 );
+			throw x;
+		}
+		return flightEvent != null ? new RequestInputStream( stream, flightEvent, url, connection ) : stream;
+	}
+
 	public static URLConnection openRange( URL url, int start, int length ) throws IOException
 	{
 		URLConnection connection = open( url );
@@ -117,32 +166,75 @@ public abstract class IoUtil
 	 * @return True if valid
 	 */
 	public static boolean exists( URL url )
+	{
+		return probe( url ) == HttpURLConnection.HTTP_OK;
+	}
+
+	/**
+	 * Checks if the URL points to a reachable resource (via a HEAD request for
+	 * HTTP).
+	 * <p>
+	 * Non-HTTP URLs are reported as if they were HTTP: 200 if reachable and 404
+	 * if not found.
+	 * 
+	 * @param url
+	 *        The URL
+	 * @return The HTTP status, or 0 if there was no response (timeout,
+	 *         connection reset, etc.)
+	 * @see #isMissing(int)
+	 */
+	public static int probe( URL url )
 	{
 		File file = toFile( url );
 		if( file != null )
-			return file.exists();
+			return file.exists() ? HttpURLConnection.HTTP_OK : HttpURLConnection.HTTP_NOT_FOUND;
 
+		FlightEvent flightEvent = FlightEvent.REQUEST.begin();
+		URLConnection connection = null;
 		try
 		{
-			URLConnection connection = open( url );
+			connection = open( url );
 			if( connection instanceof HttpURLConnection )
 			{
 				HttpURLConnection httpConnection = (HttpURLConnection) connection;
 				httpConnection.setRequestMethod( "HEAD" );
-				return httpConnection.getResponseCode() == HttpURLConnection.HTTP_OK;
+				return httpConnection.getResponseCode();
 			}
 			else
 			{
 				connection.getInputStream().close();
-				return true;
+				return HttpURLConnection.HTTP_OK;
 			}
 		}
+		catch( FileNotFoundException x )
+		{
+			return HttpURLConnection.HTTP_NOT_FOUND;
+		}
 		catch( IOException x )
 		{
-			return false;
+			return 0;
+		}
+		finally
+		{
+			commit( flightEvent, url, connection, 0 );
 		}
 	}
 
+	/**
+	 * True if the HTTP status definitely means that the resource does not
+	 * exist (404 or 410), as opposed to a failure to reach it. Only such
+	 * statuses should be remembered as missing.
+	 * 
+	 * @param status
+	 *        The HTTP status
+	 * @return True if missing
+	 * @see #probe(URL)
+	 */
+	public static boolean isMissing( int status )
+	{
+		return ( status == HttpURLConnection.HTTP_NOT_FOUND ) || ( status == HttpURLConnection.HTTP_GONE );
+	}
+
 	/**
 	 * Checks if the URL supports ranges.
 	 * 
@@ -155,11 +247,19 @@ public abstract class IoUtil
 	public static int supportsRanges( URL url ) throws IOException
 	{
 		// Make sure the host supports ranges
+		FlightEvent flightEvent = FlightEvent.REQUEST.begin();
 		URLConnection connection = open( url );
-		String acceptRanges = connection.getHeaderField( "Accept-Ranges" );
-		if( "bytes".equals( acceptRanges ) )
-			return connection.getContentLength();
-		return -1;
+		try
+		{
+			String acceptRanges = connection.getHeaderField( "Accept-Ranges" );
+			if( "bytes".equals( acceptRanges ) )
+				return connection.getContentLength();
+			return -1;
+		}
+		finally
+		{
+			commit( flightEvent, url, connection, 0 );
+		}
 	}
 
 	/**
@@ -306,32 +406,51 @@ public abstract class IoUtil
 	 */
 	public static void copy( URL source, File target, ProgressListener progressListener ) throws IOException
 	{
+		FlightEvent flightEvent = FlightEvent.REQUEST.begin();
 		File file = toFile( source );
 		if( file != null )
 		{
 			// Optimize for file copies
-			copy( file, target );
+			long bytes = 0;
+			try
+			{
+				copy( file, target );
+				bytes = target.length();
+			}
+			finally
+			{
+				commit( flightEvent, source, null, bytes );
+			}
 			return;
 		}
 
 		URLConnection connection = open( source );
-		InputStream in = connection.getInputStream();
+		long bytes = 0;
 		try
 		{
-			Files.createDirectories( target.toPath().getParent() );
-			OutputStream out = new FileOutputStream( target );
+			InputStream in = connection.getInputStream();
 			try
 			{
-				copy( in, out, progressListener, connection.getContentLength() );
+				Files.createDirectories( target.toPath().getParent() );
+				OutputStream out = new FileOutputStream( target );
+				try
+				{
+					copy( in, out, progressListener, connection.getContentLength() );
+				}
+				finally
+				{
+					out.close();
+				}
+				bytes = target.length();
 			}
 			finally
 			{
-				out.close();
+				in.close();
 			}
 		}
 		finally
 		{
-			in.close();
+			commit( flightEvent, source, connection, bytes );
 		}
 	}
 
@@ -387,6 +506,23 @@ public abstract class IoUtil
 		}
 	}
 
+	/**
+	 * Reads and discards all remaining bytes from an input stream. Useful for
+	 * streams that calculate something as they are read, such as a
+	 * {@link java.security.DigestInputStream}. Does not close the stream.
+	 * 
+	 * @param source
+	 *        The source input stream
+	 * @throws IOException
+	 *         In case of an I/O error
+	 */
+	public static void drain( InputStream source ) throws IOException
+	{
+		byte[] buffer = new byte[bufferSize];
+		while( source.read( buffer ) != -1 )
+			;
+	}
+
 	/**
 	 * Reads all bytes from a URL. If you know the URL is of a file and you
 	 * don't absolutely need an array of bytes, use
@@ -402,14 +538,27 @@ public abstract class IoUtil
 	 */
 	public static byte[] readBytes( URL url, ProgressListener progressListener ) throws IOException
 	{
+		FlightEvent flightEvent = FlightEvent.REQUEST.begin();
 		File file = toFile( url );
-		if( file != null )
-			// Use readBytes(File) if possible, because it is more efficient
-			// (because we know the buffer size in advance)
-			return readBytes( file );
-
-		URLConnection connection = open( url );
-		return readBytes( connection.getInputStream(), progressListener, connection.getContentLength() );
+		URLConnection connection = null;
+		byte[] bytes = null;
+		try
+		{
+			if( file != null )
+				// Use readBytes(File) if possible, because it is more efficient
+				// (because we know the buffer size in advance)
+				bytes = readBytes( file );
+			else
+			{
+				connection = open( url );
+				bytes = readBytes( connection.getInputStream(), progressListener, connection.getContentLength() );
+			}
+			return bytes;
+		}
+		finally
+		{
+			commit( flightEvent, url, connection, bytes != null ? bytes.length : 0 );
+		}
 	}
 
 	/**
@@ -431,7 +580,9 @@ public abstract class IoUtil
 			try
 			{
 				byte[] bytes = new byte[(int) channel.size()];
-				channel.read( ByteBuffer.wrap( bytes ) );
+				ByteBuffer buffer = ByteBuffer.wrap( bytes );
+				while( buffer.hasRemaining() && ( channel.read( buffer ) != -1 ) )
+					;
 				return bytes;
 			}
 			finally
@@ -537,10 +688,166 @@ public abstract class IoUtil
 		return StandardCharsets.UTF_8.decode( readBuffer( file ) ).toString();
 	}
 
+	// Properties
+
+	/**
+	 * Loads JVM properties from a file.
+	 * 
+	 * @param file
+	 *        The file
+	 * @return The properties (empty if the file does not exist)
+	 * @throws IOException
+	 *         In case of an I/O error
+	 */
+	public static Properties loadProperties( File file ) throws IOException
+	{
+		Properties properties = new Properties();
+		InputStream stream;
+		try
+		{
+			stream = new FileInputStream( file );
+		}
+		catch( FileNotFoundException x )
+		{
+			return properties;
+		}
+		try
+		{
+			properties.load( stream );
+		}
+		finally
+		{
+			stream.close();
+		}
+		return properties;
+	}
+
+	/**
+	 * Stores JVM properties in a file, creating necessary parent directories.
+	 * The properties are written to a temporary file, which then atomically
+	 * replaces the file, so that readers never see a partially written file.
+	 * 
+	 * @param properties
+	 *        The properties
+	 * @param file
+	 *        The file
+	 * @param comments
+	 *        The comments or null
+	 * @throws IOException
+	 *         In case of an I/O error
+	 */
+	public static void storeProperties( Properties properties, File file, String comments ) throws IOException
+	{
+		File parent = file.getAbsoluteFile().getParentFile();
+		parent.mkdirs();
+		File tempFile = File.createTempFile( file.getName(), ".tmp", parent );
+		try
+		{
+			OutputStream stream = new FileOutputStream( tempFile );
+			try
+			{
+				properties.store( stream, comments );
+			}
+			finally
+			{
+				stream.close();
+			}
+
+			Files.move( tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		}
+		finally
+		{
+			tempFile.delete();
+		}
+	}
+
 	// //////////////////////////////////////////////////////////////////////////
 	// Private
 
 	private IoUtil()
 	{
 	}
+
+	private static void commit( FlightEvent flightEvent, URL url, URLConnection connection, long bytes )
+	{
+		if( flightEvent != null )
+			flightEvent.commit( url.toString(), getStatus( connection ), bytes );
+	}
+
+	/**
+	 * The HTTP status if we got a response, otherwise 0.
+	 */
+	private static int getStatus( URLConnection connection )
+	{
+		if( connection instanceof HttpURLConnection )
+		{
+			try
+			{
+				return ( (HttpURLConnection) connection ).getResponseCode();
+			}
+			catch( IOException x )
+			{
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Commits a {@link FlightEvent#REQUEST} when closed.
+	 */
+	private static class RequestInputStream extends FilterInputStream
+	{
+		public RequestInputStream( InputStream in, FlightEvent flightEvent, URL url, URLConnection connection )
+		{
+			super( in );
+			this.flightEvent = flightEvent;
+			this.url = url;
+			this.connection = connection;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = super.read();
+			if( b != -1 )
+				bytes++;
+			return b;
+		}
+
+		@Override
+		public int read( byte[] b, int off, int len ) throws IOException
+		{
+			int read = super.read( b, off, len );
+			if( read > 0 )
+				bytes += read;
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			try
+			{
+				super.close();
+			}
+			finally
+			{
+				if( !closed )
+				{
+					closed = true;
+					commit( flightEvent, url, connection, bytes );
+				}
+			}
+		}
+
+		private final FlightEvent flightEvent;
+
+		private final URL url;
+
+		private final URLConnection connection;
+
+		private long bytes;
+
+		private boolean closed;
+	}
 }
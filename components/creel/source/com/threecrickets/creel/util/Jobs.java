@@ -25,6 +25,20 @@ import com.threecrickets.creel.util.internal.Job;
  */
 public class Jobs
 {
+	//
+	// Attributes
+	//
+
+	/**
+	 * The number of jobs that have begun but not yet finished.
+	 * 
+	 * @return The number of jobs
+	 */
+	public synchronized int getCount()
+	{
+		return jobs.size();
+	}
+
 	//
 	// Operations
 	//
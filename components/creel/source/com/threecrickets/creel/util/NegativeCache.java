@@ -0,0 +1,209 @@
+/**
+ * Copyright 2015-2017 Three Crickets LLC.
+ * <p>
+ * The contents of this file are subject to the terms of the LGPL version 3.0:
+ * http://www.gnu.org/copyleft/lesser.html
+ * <p>
+ * Alternatively, you can obtain a royalty free commercial license with less
+ * limitations, transferable or non-transferable, directly from Three Crickets
+ * at http://threecrickets.com/
+ */
+
+package com.threecrickets.creel.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers URLs that were found to not exist, so that we don't request them
+ * again until their entry expires. Can be persisted to a file between runs.
+ * <p>
+ * Thread-safe.
+ * 
+ * @author Tal Liron
+ */
+public class NegativeCache
+{
+	//
+	// Construction
+	//
+
+	/**
+	 * Constructor. Will load the cache from the file if it exists, ignoring
+	 * expired entries.
+	 * 
+	 * @param file
+	 *        The file or null to keep the cache only in memory
+	 * @param ttl
+	 *        Time to live for entries in milliseconds
+	 * @throws IOException
+	 *         In case the file could not be read
+	 */
+	public NegativeCache( File file, long ttl ) throws IOException
+	{
+		this.file = file;
+		this.ttl = ttl;
+
+		if( file != null )
+		{
+			Properties properties = IoUtil.loadProperties( file );
+
+			long now = System.currentTimeMillis();
+			for( Map.Entry<Object, Object> entry : properties.entrySet() )
+			{
+				try
+				{
+					long expiration = Long.parseLong( entry.getValue().toString() );
+					if( expiration > now )
+						expirations.put( entry.getKey().toString(), expiration );
+				}
+				catch( NumberFormatException x )
+				{
+					// Ignore corrupt entries
+				}
+			}
+		}
+	}
+
+	//
+	// Attributes
+	//
+
+	/**
+	 * The file.
+	 * 
+	 * @return The file or null
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * Time to live for entries in milliseconds.
+	 * 
+	 * @return The time to live
+	 */
+	public long getTtl()
+	{
+		return ttl;
+	}
+
+	/**
+	 * The number of lookups since the cache was created.
+	 * 
+	 * @return The lookup count
+	 */
+	public long getLookupCount()
+	{
+		return lookupCount.get();
+	}
+
+	/**
+	 * The number of lookups that were answered by the cache since it was
+	 * created.
+	 * 
+	 * @return The hit count
+	 */
+	public long getHitCount()
+	{
+		return hitCount.get();
+	}
+
+	/**
+	 * Whether the URL is known to not exist.
+	 * 
+	 * @param url
+	 *        The URL
+	 * @return True if known to not exist
+	 */
+	public boolean isMissing( URL url )
+	{
+		lookupCount.incrementAndGet();
+		String key = url.toString();
+		Long expiration = expirations.get( key );
+		if( expiration == null )
+			return false;
+		if( expiration > System.currentTimeMillis() )
+		{
+			hitCount.incrementAndGet();
+			return true;
+		}
+		if( expirations.remove( key, expiration ) )
+			changed = true;
+		return false;
+	}
+
+	//
+	// Operations
+	//
+
+	/**
+	 * Remembers that the URL does not exist.
+	 * 
+	 * @param url
+	 *        The URL
+	 */
+	public void setMissing( URL url )
+	{
+		// No point caching local files
+		if( IoUtil.toFile( url ) != null )
+			return;
+		expirations.put( url.toString(), System.currentTimeMillis() + ttl );
+		changed = true;
+	}
+
+	/**
+	 * Forgets that the URL does not exist.
+	 * 
+	 * @param url
+	 *        The URL
+	 */
+	public void setExists( URL url )
+	{
+		if( expirations.remove( url.toString() ) != null )
+			changed = true;
+	}
+
+	/**
+	 * Saves the cache to the file, if it has changed.
+	 * 
+	 * @throws IOException
+	 *         In case the file could not be written
+	 */
+	public void save() throws IOException
+	{
+		if( ( file == null ) || !changed )
+			return;
+		changed = false;
+
+		Properties properties = new SortedProperties();
+		long now = System.currentTimeMillis();
+		for( Map.Entry<String, Long> entry : expirations.entrySet() )
+			if( entry.getValue() > now )
+				properties.put( entry.getKey(), entry.getValue().toString() );
+
+		IoUtil.storeProperties( properties, file, "Managed by Creel" );
+	}
+
+	// //////////////////////////////////////////////////////////////////////////
+	// Private
+
+	private final File file;
+
+	private final long ttl;
+
+	private final ConcurrentMap<String, Long> expirations = new ConcurrentHashMap<String, Long>();
+
+	private volatile boolean changed;
+
+	private final AtomicLong lookupCount = new AtomicLong();
+
+	private final AtomicLong hitCount = new AtomicLong();
+}
\ No newline at end of file
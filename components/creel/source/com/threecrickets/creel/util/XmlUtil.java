@@ -12,6 +12,7 @@
 package com.threecrickets.creel.util;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -21,6 +22,10 @@ import java.util.Iterator;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -61,6 +66,102 @@ public abstract class XmlUtil
 		return builder.parse( source );
 	}
 
+	/**
+	 * Creates a streaming (StAX) reader. Unlike {@link XmlUtil#parse(String)},
+	 * no document tree is built, so callers can pick out just the elements
+	 * they need and skip the rest.
+	 * <p>
+	 * Note that the stream is <i>not</i> closed by the reader.
+	 * 
+	 * @param stream
+	 *        The stream
+	 * @return The reader
+	 * @throws XMLStreamException
+	 *         In case of an XML parsing error
+	 */
+	public static XMLStreamReader newStreamReader( InputStream stream ) throws XMLStreamException
+	{
+		return INPUT_FACTORY.createXMLStreamReader( stream );
+	}
+
+	/**
+	 * Advances a streaming reader to the next child element of the current
+	 * element. Should be called when the reader is at the start of the parent
+	 * element, or at the end of a previous child element.
+	 * 
+	 * @param reader
+	 *        The reader
+	 * @return True if the reader is at the start of a child element, false if
+	 *         it reached the end of the parent element
+	 * @throws XMLStreamException
+	 *         In case of an XML parsing error
+	 */
+	public static boolean nextChildElement( XMLStreamReader reader ) throws XMLStreamException
+	{
+		while( reader.hasNext() )
+		{
+			int event = reader.next();
+			if( event == XMLStreamConstants.START_ELEMENT )
+				return true;
+			else if( event == XMLStreamConstants.END_ELEMENT )
+				return false;
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the text of the current element of a streaming reader, including
+	 * the text of nested elements (like {@link Node#getTextContent()}). Leaves
+	 * the reader at the end of the element.
+	 * 
+	 * @param reader
+	 *        The reader
+	 * @return The text
+	 * @throws XMLStreamException
+	 *         In case of an XML parsing error
+	 */
+	public static String getElementText( XMLStreamReader reader ) throws XMLStreamException
+	{
+		StringBuilder text = new StringBuilder();
+		int depth = 1;
+		while( reader.hasNext() )
+		{
+			int event = reader.next();
+			if( event == XMLStreamConstants.START_ELEMENT )
+				depth++;
+			else if( event == XMLStreamConstants.END_ELEMENT )
+			{
+				if( --depth == 0 )
+					break;
+			}
+			else if( ( event == XMLStreamConstants.CHARACTERS ) || ( event == XMLStreamConstants.CDATA ) || ( event == XMLStreamConstants.SPACE ) || ( event == XMLStreamConstants.ENTITY_REFERENCE ) )
+				text.append( reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength() );
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Skips the current element of a streaming reader, including all nested
+	 * elements. Leaves the reader at the end of the element.
+	 * 
+	 * @param reader
+	 *        The reader
+	 * @throws XMLStreamException
+	 *         In case of an XML parsing error
+	 */
+	public static void skipElement( XMLStreamReader reader ) throws XMLStreamException
+	{
+		int depth = 1;
+		while( reader.hasNext() )
+		{
+			int event = reader.next();
+			if( event == XMLStreamConstants.START_ELEMENT )
+				depth++;
+			else if( ( event == XMLStreamConstants.END_ELEMENT ) && ( --depth == 0 ) )
+				break;
+		}
+	}
+
 	/**
 	 * Gets the document element only if it matches the specific tag.
 	 * 
@@ -202,6 +303,15 @@ public abstract class XmlUtil
 
 	public static final DocumentBuilderFactory BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
 
+	// Note: the factory is thread-safe once configured, and readers are cheap
+	private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+	static
+	{
+		INPUT_FACTORY.setProperty( XMLInputFactory.IS_COALESCING, true );
+		INPUT_FACTORY.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false );
+	}
+
 	private XmlUtil()
 	{
 	}